@@ -43,14 +43,13 @@ public class AdminReceiver extends DeviceAdminReceiver {
     public void onEnabled(Context context, Intent intent) {
         // We come here after both successful provisioning and manual activation of the device owner
         SharedPreferences preferences = context.getApplicationContext().getSharedPreferences( Const.PREFERENCES, MODE_PRIVATE );
-        PreferenceLogger.log(preferences, "Administrator enabled");
+        PreferenceLogger.log(context, "Administrator enabled");
         preferences.edit().putInt(Const.PREFERENCES_ADMINISTRATOR, Const.PREFERENCES_ON).commit();
     }
 
     @Override
     public void onProfileProvisioningComplete(Context context, Intent intent) {
-        SharedPreferences preferences = context.getApplicationContext().getSharedPreferences( Const.PREFERENCES, MODE_PRIVATE );
-        PreferenceLogger.log(preferences, "Profile provisioning complete");
+        PreferenceLogger.log(context, "Profile provisioning complete");
 
         if ( Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP ) {
             // This function is never called on Android versions less than 5 (in fact, less than 7)
@@ -60,7 +59,7 @@ public class AdminReceiver extends DeviceAdminReceiver {
             SettingsHelper settingsHelper = SettingsHelper.getInstance(context.getApplicationContext());
             PersistableBundle bundle = intent.getParcelableExtra(EXTRA_PROVISIONING_ADMIN_EXTRAS_BUNDLE);
             String deviceId = null;
-            PreferenceLogger.log(preferences, "Bundle != null: " + (bundle != null));
+            PreferenceLogger.log(context, "Bundle != null: " + (bundle != null));
             if (bundle != null) {
                 deviceId = bundle.getString(Const.QR_DEVICE_ID_ATTR, null);
                 if (deviceId == null) {
@@ -70,7 +69,7 @@ public class AdminReceiver extends DeviceAdminReceiver {
                 if (deviceId == null) {
                     String deviceIdUse = bundle.getString(Const.QR_DEVICE_ID_USE_ATTR, null);
                     if (deviceIdUse != null) {
-                        PreferenceLogger.log(preferences, "deviceIdUse: " + deviceIdUse);
+                        PreferenceLogger.log(context, "deviceIdUse: " + deviceIdUse);
                         // Save for further automatic choice of the device ID
                         settingsHelper.setDeviceIdUse(deviceIdUse);
                     }
@@ -79,7 +78,7 @@ public class AdminReceiver extends DeviceAdminReceiver {
             if (deviceId != null) {
                 // Device ID is delivered in the QR code!
                 // Added: "android.app.extra.PROVISIONING_ADMIN_EXTRAS_BUNDLE": {"com.hmdm.DEVICE_ID": "(device id)"}
-                PreferenceLogger.log(preferences, "DeviceID: " + deviceId);
+                PreferenceLogger.log(context, "DeviceID: " + deviceId);
                 settingsHelper.setDeviceId(deviceId);
             }
 
@@ -95,7 +94,7 @@ public class AdminReceiver extends DeviceAdminReceiver {
                 createOptions.setConfiguration(bundle.getString(Const.QR_CONFIG_ATTR, null));
                 createOptions.setGroups(bundle.getString(Const.QR_GROUP_ATTR, null));
                 if (baseUrl != null) {
-                    PreferenceLogger.log(preferences, "BaseURL: " + baseUrl);
+                    PreferenceLogger.log(context, "BaseURL: " + baseUrl);
                     settingsHelper.setBaseUrl(baseUrl);
                     // If we don't set the secondary base URL, it will point to app.h-mdm.com by default which is wrong
                     if (secondaryBaseUrl == null) {
@@ -103,23 +102,23 @@ public class AdminReceiver extends DeviceAdminReceiver {
                     }
                 }
                 if (secondaryBaseUrl != null) {
-                    PreferenceLogger.log(preferences, "SecondaryBaseURL: " + secondaryBaseUrl);
+                    PreferenceLogger.log(context, "SecondaryBaseURL: " + secondaryBaseUrl);
                     settingsHelper.setSecondaryBaseUrl(secondaryBaseUrl);
                 }
                 if (serverProject != null) {
-                    PreferenceLogger.log(preferences, "ServerPath: " + serverProject);
+                    PreferenceLogger.log(context, "ServerPath: " + serverProject);
                     settingsHelper.setServerProject(serverProject);
                 }
                 if (createOptions.getCustomer() != null) {
-                    PreferenceLogger.log(preferences, "Customer: " + createOptions.getCustomer());
+                    PreferenceLogger.log(context, "Customer: " + createOptions.getCustomer());
                     settingsHelper.setCreateOptionCustomer(createOptions.getCustomer());
                 }
                 if (createOptions.getConfiguration() != null) {
-                    PreferenceLogger.log(preferences, "Configuration: " + createOptions.getConfiguration());
+                    PreferenceLogger.log(context, "Configuration: " + createOptions.getConfiguration());
                     settingsHelper.setCreateOptionConfigName(createOptions.getConfiguration());
                 }
                 if (createOptions.getGroups() != null) {
-                    PreferenceLogger.log(preferences, "Groups: " + bundle.getString(Const.QR_GROUP_ATTR));
+                    PreferenceLogger.log(context, "Groups: " + bundle.getString(Const.QR_GROUP_ATTR));
                     settingsHelper.setCreateOptionGroup(createOptions.getGroupSet());
                 }
                 settingsHelper.setQrProvisioning(true);
@@ -127,7 +126,7 @@ public class AdminReceiver extends DeviceAdminReceiver {
         } catch (Exception e) {
             // Ignored
             e.printStackTrace();
-            PreferenceLogger.printStackTrace(preferences, e);
+            PreferenceLogger.printStackTrace(context, e);
         }
     }
 }
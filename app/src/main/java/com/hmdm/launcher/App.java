@@ -21,6 +21,8 @@ package com.hmdm.launcher;
 
 import android.app.Application;
 
+import com.hmdm.launcher.helper.StartupLoader;
+import com.hmdm.launcher.server.ConnectionPrewarmer;
 import com.jakewharton.picasso.OkHttp3Downloader;
 import com.squareup.picasso.Picasso;
 
@@ -30,6 +32,13 @@ public class App extends Application {
     public void onCreate() {
         super.onCreate();
 
+        // Load the configuration and the package list in background before the launcher needs them
+        StartupLoader.start(this);
+
+        // Open the connection to the server while the launcher is starting
+        ConnectionPrewarmer.registerNetworkCallback(this);
+        ConnectionPrewarmer.prewarm(this);
+
         Picasso.Builder builder = new Picasso.Builder(this);
         builder.downloader(new OkHttp3Downloader(this,Integer.MAX_VALUE));
         Picasso built = builder.build();
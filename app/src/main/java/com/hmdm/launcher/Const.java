@@ -32,12 +32,15 @@ public class Const {
     public static final String ACTION_EXIT = "EXIT";
     public static final String ACTION_HIDE_SCREEN = "HIDE_SCREEN";
     public static final String ACTION_UPDATE_CONFIGURATION = "UPDATE_CONFIGURATION";
+    public static final String EXTRA_CONFIG_LOADED = "CONFIG_LOADED";
     public static final String ACTION_POLICY_VIOLATION = "ACTION_POLICY_VIOLATION";
     public static final String ACTION_ADMIN = "ADMIN";
     public static final String ACTION_INSTALL_COMPLETE = "INSTALL_COMPLETE";
     public static final String ACTION_DISABLE_BLOCK_WINDOW = "DISABLE_BLOCK_WINDOW";
 
     public static long CONNECTION_TIMEOUT = 10000;
+    // Long polling requests are held by the server up to a few minutes
+    public static long LONG_POLLING_READ_TIMEOUT = 300000;
     public static final String STATUS_OK = "OK";
     public static final String ORIENTATION = "ORIENTATION";
     public static final String PACKAGE_NAME = "PACKAGE_NAME";
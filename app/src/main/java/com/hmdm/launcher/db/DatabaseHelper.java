@@ -24,7 +24,7 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
-    private static final int DATABASE_VERSION = 4;
+    private static final int DATABASE_VERSION = 7;
     private static final String DATABASE_NAME = "hmdm.launcher.sqlite";
 
     private static DatabaseHelper sInstance;
@@ -45,9 +45,12 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         db.beginTransaction();
         try {
             db.execSQL(LogTable.getCreateTableSql());
+            db.execSQL(LogTable.getCreateIndexTsSql());
+            db.execSQL(LogTable.getCreateIndexLevelSql());
             db.execSQL(LogConfigTable.getCreateTableSql());
             db.execSQL(InfoHistoryTable.getCreateTableSql());
             db.execSQL(RemoteFileTable.getCreateTableSql());
+            db.execSQL(OutboxTable.getCreateTableSql());
             db.setTransactionSuccessful();
         }
         catch ( Exception e ) {
@@ -72,6 +75,17 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 db.execSQL(InfoHistoryTable.getAlterTableAddMemoryTotalSql());
                 db.execSQL(InfoHistoryTable.getAlterTableAddMemoryAvailableSql());
             }
+            if (oldVersion < 5 && newVersion >= 5) {
+                db.execSQL(OutboxTable.getCreateTableSql());
+            }
+            if (oldVersion < 6 && newVersion >= 6) {
+                db.execSQL(LogTable.getCreateIndexTsSql());
+                db.execSQL(LogTable.getCreateIndexLevelSql());
+            }
+            if (oldVersion < 7 && newVersion >= 7) {
+                db.execSQL(LogTable.getAlterTableAddCountSql());
+                db.execSQL(LogTable.getAlterTableAddLastTsSql());
+            }
             db.setTransactionSuccessful();
         } catch ( Exception e ) {
             e.printStackTrace();
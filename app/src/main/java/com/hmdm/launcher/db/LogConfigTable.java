@@ -24,8 +24,8 @@ import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 
 import com.hmdm.launcher.json.RemoteLogConfig;
-import com.hmdm.launcher.json.RemoteLogItem;
 
+import java.util.LinkedList;
 import java.util.List;
 
 public class LogConfigTable {
@@ -40,8 +40,8 @@ public class LogConfigTable {
             "DELETE FROM log_rules";
     private static final String INSERT_RULE =
             "INSERT OR IGNORE INTO log_rules(packageId, level, filter) VALUES (?, ?, ?)";
-    private static final String FIND_MATCHING =
-            "SELECT * FROM log_rules WHERE packageId = ? AND level >= ? AND (filter IS NULL OR filter = '' OR ? LIKE ('%' || filter || '%')) LIMIT 1";
+    private static final String SELECT_ALL =
+            "SELECT packageId, level, filter FROM log_rules";
 
     public static String getCreateTableSql() {
         return CREATE_TABLE;
@@ -66,14 +66,19 @@ public class LogConfigTable {
         }
     }
 
-    public static boolean match(SQLiteDatabase db, RemoteLogItem item) {
-        Cursor cursor = db.rawQuery(FIND_MATCHING, new String[] {
-                item.getPackageId(),
-                Integer.toString(item.getLogLevel()),
-                item.getMessage()
-        });
-        boolean ret = cursor.moveToFirst();
+    public static List<RemoteLogConfig> selectAll(SQLiteDatabase db) {
+        List<RemoteLogConfig> result = new LinkedList<>();
+        Cursor cursor = db.rawQuery(SELECT_ALL, null);
+        boolean isDataNotEmpty = cursor.moveToFirst();
+        while (isDataNotEmpty) {
+            RemoteLogConfig item = new RemoteLogConfig();
+            item.setPackageId(cursor.getString(0));
+            item.setLogLevel(cursor.getInt(1));
+            item.setFilter(cursor.getString(2));
+            result.add(item);
+            isDataNotEmpty = cursor.moveToNext();
+        }
         cursor.close();
-        return ret;
+        return result;
     }
 }
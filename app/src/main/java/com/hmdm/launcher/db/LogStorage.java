@@ -0,0 +1,60 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.db;
+
+import com.hmdm.launcher.json.RemoteLogItem;
+
+import java.util.List;
+
+/**
+ * Storage of unsent remote logs. Items are appended by the log writer thread only,
+ * and read and removed by the upload worker.
+ */
+public interface LogStorage {
+
+    class Batch {
+        public final List<RemoteLogItem> items;
+        // Storage-specific position of the batch (last item id, segment and record index)
+        public final long position;
+
+        public Batch(List<RemoteLogItem> items, long position) {
+            this.items = items;
+            this.position = position;
+        }
+    }
+
+    void append(List<RemoteLogItem> items);
+
+    // Called by the writer when the queue is drained; buffered data may be written out
+    void flush();
+
+    // Retention and quota; full maintenance also reclaims the free space and runs once per hour
+    void maintain(boolean full);
+
+    // Oldest unsent items fitting the limits (at least one item), or null if there are none.
+    // Unless the upload is urgent, recent items may be held back to be uploaded in larger units
+    Batch nextBatch(int maxItems, int maxBytes, boolean urgent);
+
+    // Time in ms until the held back items are uploaded anyway, or -1 if there are none
+    long getHeldBackDelay();
+
+    // Removes an uploaded batch
+    void remove(Batch batch);
+}
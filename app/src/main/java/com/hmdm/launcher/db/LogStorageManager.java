@@ -0,0 +1,101 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.hmdm.launcher.Const;
+
+/**
+ * Keeps the unsent log storage bounded when the device stays offline:
+ * items older than a week are removed, and above the row or size quota the least severe
+ * items are evicted first (verbose, then debug, etc.), oldest first within a level.
+ * Freed pages are returned to the file system by incremental vacuum.
+ * Must be called outside of a transaction.
+ */
+public class LogStorageManager {
+    public static final long MAX_AGE = 7 * 24 * 60 * 60 * 1000L;
+    public static final int MAX_ROWS = 20000;
+    public static final long MAX_BYTES = 4 * 1024 * 1024;
+    // Eviction goes below the quota so it doesn't run on every insert
+    private static final double EVICT_TARGET = 0.9;
+    // Pages freed per incremental vacuum (with 4 KB pages, up to 4 MB)
+    private static final int VACUUM_PAGES = 1000;
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // Full maintenance: age purge, quota and vacuum; intended to run periodically
+    public static void maintain(SQLiteDatabase db) {
+        int removed = LogTable.deleteOldItems(db, MAX_AGE);
+        if (removed > 0) {
+            Log.i(Const.LOG_TAG, "Removed " + removed + " old log items");
+        }
+        enforceQuota(db);
+        vacuum(db);
+    }
+
+    // Cheap enough to run after every few batches: the table is bounded by the quota
+    public static void enforceQuota(SQLiteDatabase db) {
+        long[] stats = LogTable.getStats(db);
+        long rows = stats[0];
+        long bytes = stats[1];
+        if (rows <= MAX_ROWS && bytes <= MAX_BYTES) {
+            return;
+        }
+        long excessRows = rows - (long)(MAX_ROWS * EVICT_TARGET);
+        long excessBytes = bytes - (long)(MAX_BYTES * EVICT_TARGET);
+        if (excessBytes > 0 && rows > 0) {
+            excessRows = Math.max(excessRows, excessBytes * rows / bytes + 1);
+        }
+        int toRemove = (int)Math.min(excessRows, rows);
+        int removed = 0;
+        for (int level = Const.LOG_VERBOSE; level >= Const.LOG_ERROR && removed < toRemove; level--) {
+            removed += LogTable.deleteOldest(db, level, toRemove - removed);
+        }
+        Log.w(Const.LOG_TAG, "Log storage quota exceeded (" + rows + " items, " + bytes + " bytes): evicted " + removed + " items");
+    }
+
+    private static void vacuum(SQLiteDatabase db) {
+        try {
+            if (getAutoVacuum(db) != AUTO_VACUUM_INCREMENTAL) {
+                // Databases created before the log storage limits: the mode is changed by a full vacuum, once
+                db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                db.execSQL("VACUUM");
+                return;
+            }
+            // The pragma returns a row per step, the cursor must be iterated for it to complete
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ")", null);
+            while (cursor.moveToNext()) {
+            }
+            cursor.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static int getAutoVacuum(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA auto_vacuum", null);
+        int result = cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        cursor.close();
+        return result;
+    }
+}
@@ -22,6 +22,7 @@ package com.hmdm.launcher.db;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 import com.hmdm.launcher.json.RemoteLogItem;
 
@@ -35,58 +36,125 @@ public class LogTable {
                     "ts INTEGER, " +
                     "level INTEGER, " +
                     "packageId TEXT, " +
-                    "message TEXT" +
+                    "message TEXT, " +
+                    "count INTEGER, " +
+                    "lastTs INTEGER" +
                     ")";
+    private static final String ALTER_TABLE_ADD_COUNT =
+            "ALTER TABLE logs ADD COLUMN count INTEGER";
+    private static final String ALTER_TABLE_ADD_LAST_TS =
+            "ALTER TABLE logs ADD COLUMN lastTs INTEGER";
+    private static final String CREATE_INDEX_TS =
+            "CREATE INDEX IF NOT EXISTS logs_ts ON logs(ts)";
+    private static final String CREATE_INDEX_LEVEL =
+            "CREATE INDEX IF NOT EXISTS logs_level ON logs(level)";
+    // Ordered by id so the uploaded items can be removed by a single range delete
     private static final String SELECT_LAST_LOGS =
-            "SELECT * FROM logs ORDER BY ts LIMIT ?";
+            "SELECT * FROM logs ORDER BY _id LIMIT ?";
     private static final String INSERT_LOG =
-            "INSERT OR IGNORE INTO logs(ts, level, packageId, message) VALUES (?, ?, ?, ?)";
-    private static final String DELETE_FROM_LOGS =
-            "DELETE FROM logs WHERE _id=?";
+            "INSERT OR IGNORE INTO logs(ts, level, packageId, message, count, lastTs) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String DELETE_UP_TO =
+            "DELETE FROM logs WHERE _id <= ?";
     private static final String DELETE_OLD_LOGS =
             "DELETE FROM logs WHERE ts < ?";
+    private static final String DELETE_OLDEST_BY_LEVEL =
+            "DELETE FROM logs WHERE _id IN (SELECT _id FROM logs WHERE level = ? ORDER BY _id LIMIT ?)";
+    private static final String SELECT_STATS =
+            "SELECT COUNT(*), TOTAL(LENGTH(message) + LENGTH(packageId)) FROM logs";
 
     public static String getCreateTableSql() {
         return CREATE_TABLE;
     }
 
-    public static void insert(SQLiteDatabase db, RemoteLogItem item) {
+    public static String getAlterTableAddCountSql() {
+        return ALTER_TABLE_ADD_COUNT;
+    }
+
+    public static String getAlterTableAddLastTsSql() {
+        return ALTER_TABLE_ADD_LAST_TS;
+    }
+
+    public static String getCreateIndexTsSql() {
+        return CREATE_INDEX_TS;
+    }
+
+    public static String getCreateIndexLevelSql() {
+        return CREATE_INDEX_LEVEL;
+    }
+
+    // The statement is compiled once by the log writer and reused for all inserts
+    public static SQLiteStatement compileInsert(SQLiteDatabase db) {
+        return db.compileStatement(INSERT_LOG);
+    }
+
+    public static void insert(SQLiteStatement statement, RemoteLogItem item) {
+        statement.clearBindings();
+        statement.bindLong(1, item.getTimestamp());
+        statement.bindLong(2, item.getLogLevel());
+        if (item.getPackageId() != null) {
+            statement.bindString(3, item.getPackageId());
+        }
+        if (item.getMessage() != null) {
+            statement.bindString(4, item.getMessage());
+        }
+        if (item.getCount() != null) {
+            statement.bindLong(5, item.getCount());
+        }
+        if (item.getLastTimestamp() != null) {
+            statement.bindLong(6, item.getLastTimestamp());
+        }
+        statement.executeInsert();
+    }
+
+    // Returns the number of removed items
+    public static int deleteOldItems(SQLiteDatabase db, long maxAge) {
+        SQLiteStatement statement = db.compileStatement(DELETE_OLD_LOGS);
         try {
-            db.execSQL(INSERT_LOG, new String[]{
-                    Long.toString(item.getTimestamp()),
-                    Integer.toString(item.getLogLevel()),
-                    item.getPackageId(),
-                    item.getMessage()
-            });
+            statement.bindLong(1, System.currentTimeMillis() - maxAge);
+            return statement.executeUpdateDelete();
         } catch (SQLException e) {
             e.printStackTrace();
+            return 0;
+        } finally {
+            statement.close();
         }
     }
 
-    public static void deleteOldItems(SQLiteDatabase db) {
-        long oldTs = System.currentTimeMillis() - 7 * 24 * 60 * 60 * 1000L;
+    // Removes up to count oldest items of the given level, returns the number of removed items
+    public static int deleteOldest(SQLiteDatabase db, int level, int count) {
+        SQLiteStatement statement = db.compileStatement(DELETE_OLDEST_BY_LEVEL);
         try {
-            db.execSQL(DELETE_FROM_LOGS, new String[]{
-                    Long.toString(oldTs)
-            });
+            statement.bindLong(1, level);
+            statement.bindLong(2, count);
+            return statement.executeUpdateDelete();
         } catch (SQLException e) {
             e.printStackTrace();
+            return 0;
+        } finally {
+            statement.close();
         }
     }
 
-    public static void delete(SQLiteDatabase db, List<RemoteLogItem> items) {
-        db.beginTransaction();
+    // Returns {item count, total length of the text fields}
+    public static long[] getStats(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery(SELECT_STATS, null);
+        long[] result = new long[2];
+        if (cursor.moveToFirst()) {
+            result[0] = cursor.getLong(0);
+            result[1] = cursor.getLong(1);
+        }
+        cursor.close();
+        return result;
+    }
+
+    // Removes the items up to maxId inclusive (the uploaded batch)
+    public static void deleteUpTo(SQLiteDatabase db, long maxId) {
         try {
-            for (RemoteLogItem item : items) {
-                db.execSQL(DELETE_FROM_LOGS, new String[]{
-                        Long.toString(item.getId())
-                });
-            }
-            db.setTransactionSuccessful();
+            db.execSQL(DELETE_UP_TO, new String[]{
+                    Long.toString(maxId)
+            });
         } catch (SQLException e) {
             e.printStackTrace();
-        } finally {
-            db.endTransaction();
         }
     }
 
@@ -104,6 +172,14 @@ public class LogTable {
             item.setLogLevel(cursor.getInt(cursor.getColumnIndex("level")));
             item.setPackageId(cursor.getString(cursor.getColumnIndex("packageId")));
             item.setMessage(cursor.getString(cursor.getColumnIndex("message")));
+            int countIndex = cursor.getColumnIndex("count");
+            if (!cursor.isNull(countIndex)) {
+                item.setCount(cursor.getInt(countIndex));
+            }
+            int lastTsIndex = cursor.getColumnIndex("lastTs");
+            if (!cursor.isNull(lastTsIndex)) {
+                item.setLastTimestamp(cursor.getLong(lastTsIndex));
+            }
             result.add(item);
 
             isDataNotEmpty = cursor.moveToNext();
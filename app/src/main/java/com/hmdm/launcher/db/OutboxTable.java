@@ -0,0 +1,162 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.LinkedList;
+import java.util.List;
+
+public class OutboxTable {
+    private static final String CREATE_TABLE =
+            "CREATE TABLE outbox (" +
+                    "_id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                    "type INTEGER, " +
+                    "priority INTEGER, " +
+                    "dedupeKey TEXT, " +
+                    "idempotencyKey TEXT, " +
+                    "payload TEXT, " +
+                    "ts INTEGER, " +
+                    "attempts INTEGER, " +
+                    "nextAttemptTs INTEGER" +
+                    ")";
+    private static final String SELECT_DUE =
+            "SELECT * FROM outbox WHERE nextAttemptTs <= ? ORDER BY priority, _id LIMIT ?";
+    private static final String SELECT_COUNT =
+            "SELECT COUNT(*) FROM outbox";
+    private static final String DELETE_BY_ID =
+            "DELETE FROM outbox WHERE _id=?";
+    private static final String DELETE_BY_DEDUPE_KEY =
+            "DELETE FROM outbox WHERE dedupeKey=?";
+    private static final String DELETE_OLD_ITEMS =
+            "DELETE FROM outbox WHERE ts < ?";
+    private static final String UPDATE_NEXT_ATTEMPT =
+            "UPDATE outbox SET attempts=?, nextAttemptTs=? WHERE _id=?";
+
+    public static class Item {
+        public long id;
+        public int type;
+        public int priority;
+        public String dedupeKey;
+        public String idempotencyKey;
+        public String payload;
+        public long timestamp;
+        public int attempts;
+        public long nextAttemptTimestamp;
+    }
+
+    public static String getCreateTableSql() {
+        return CREATE_TABLE;
+    }
+
+    // Inserts the item replacing pending items with the same dedupe key (superseded items)
+    public static long insert(SQLiteDatabase db, Item item) {
+        db.beginTransaction();
+        try {
+            if (item.dedupeKey != null) {
+                db.execSQL(DELETE_BY_DEDUPE_KEY, new String[]{ item.dedupeKey });
+            }
+            ContentValues values = new ContentValues();
+            values.put("type", item.type);
+            values.put("priority", item.priority);
+            values.put("dedupeKey", item.dedupeKey);
+            values.put("idempotencyKey", item.idempotencyKey);
+            values.put("payload", item.payload);
+            values.put("ts", item.timestamp);
+            values.put("attempts", item.attempts);
+            values.put("nextAttemptTs", item.nextAttemptTimestamp);
+            item.id = db.insert("outbox", null, values);
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            db.endTransaction();
+        }
+        return item.id;
+    }
+
+    public static void delete(SQLiteDatabase db, long id) {
+        try {
+            db.execSQL(DELETE_BY_ID, new String[]{ Long.toString(id) });
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static void deleteOldItems(SQLiteDatabase db, long oldTs) {
+        try {
+            db.execSQL(DELETE_OLD_ITEMS, new String[]{ Long.toString(oldTs) });
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static void updateNextAttempt(SQLiteDatabase db, long id, int attempts, long nextAttemptTs) {
+        try {
+            db.execSQL(UPDATE_NEXT_ATTEMPT, new String[]{
+                    Integer.toString(attempts),
+                    Long.toString(nextAttemptTs),
+                    Long.toString(id)
+            });
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static int count(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery(SELECT_COUNT, null);
+        int result = cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        cursor.close();
+        return result;
+    }
+
+    // Items ready for delivery, ordered by priority and then by creation order
+    public static List<Item> selectDue(SQLiteDatabase db, long now, int limit) {
+        return query(db, SELECT_DUE, new String[]{ Long.toString(now), Integer.toString(limit) });
+    }
+
+    private static List<Item> query(SQLiteDatabase db, String sql, String[] args) {
+        Cursor cursor = db.rawQuery(sql, args);
+        List<Item> result = new LinkedList<>();
+
+        boolean isDataNotEmpty = cursor.moveToFirst();
+        while (isDataNotEmpty) {
+            Item item = new Item();
+            item.id = cursor.getLong(cursor.getColumnIndex("_id"));
+            item.type = cursor.getInt(cursor.getColumnIndex("type"));
+            item.priority = cursor.getInt(cursor.getColumnIndex("priority"));
+            item.dedupeKey = cursor.getString(cursor.getColumnIndex("dedupeKey"));
+            item.idempotencyKey = cursor.getString(cursor.getColumnIndex("idempotencyKey"));
+            item.payload = cursor.getString(cursor.getColumnIndex("payload"));
+            item.timestamp = cursor.getLong(cursor.getColumnIndex("ts"));
+            item.attempts = cursor.getInt(cursor.getColumnIndex("attempts"));
+            item.nextAttemptTimestamp = cursor.getLong(cursor.getColumnIndex("nextAttemptTs"));
+            result.add(item);
+
+            isDataNotEmpty = cursor.moveToNext();
+        }
+        cursor.close();
+
+        return result;
+    }
+}
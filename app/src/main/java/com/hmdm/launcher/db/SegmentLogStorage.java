@@ -0,0 +1,469 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.db;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.json.RemoteLogItem;
+import com.hmdm.launcher.worker.LogBatchSizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Log storage as append-only segment files: a line costs a memory copy instead of
+ * a B-tree insert and a later delete, and the flash is written in large sequential blocks.
+ *
+ * A segment is a sequence of blocks: raw length, compressed length, deflated records.
+ * A record is its length followed by the item fields, so new fields can be appended later.
+ * The open segment is rotated by size or age, or earlier for an upload once it holds enough
+ * to not leave a tiny file per upload. Sealed segments are uploaded in batches fitting the upload limits:
+ * the number of uploaded records is kept in the file name (sequence.uploaded.seg),
+ * and the segment is deleted as a unit when all its records are uploaded.
+ * After a crash, the open segment is sealed as is: a truncated last block is skipped.
+ */
+public class SegmentLogStorage implements LogStorage {
+    private static final String DIRECTORY = "log_segments";
+    private static final String EXT_OPEN = ".open";
+    private static final String EXT_SEALED = ".seg";
+
+    // Uncompressed sizes: a block is the compression unit, a segment is the upload unit
+    private static final int BLOCK_SIZE = 32 * 1024;
+    private static final long SEGMENT_SIZE = 512 * 1024;
+    private static final long SEGMENT_AGE = 10 * 60 * 1000L;
+    // The open segment is sealed for a regular upload when it reaches this size or age
+    private static final long MIN_UPLOAD_SIZE = 64 * 1024;
+    private static final long MIN_UPLOAD_AGE = 5 * 60 * 1000L;
+    // Longer strings are truncated, so a block stays well below the size accepted by read()
+    private static final int MAX_STRING_LENGTH = 16 * 1024;
+    // A partially filled block is written out when it gets older than this
+    private static final long BLOCK_AGE = 5000;
+    // Compressed size of all segments
+    private static final long MAX_TOTAL_SIZE = 4 * 1024 * 1024;
+
+    // Batch position: segment sequence in the high 32 bits, end record index in the low 32 bits
+    // (0 if the batch ends the segment)
+    private static final long POSITION_SEGMENT_END = 0;
+
+    private final File directory;
+    private long nextSequence;
+
+    // Records of the segment being uploaded, so a segment is decompressed once for all its batches
+    private long cachedSequence = -1;
+    private List<RemoteLogItem> cachedItems;
+
+    private FileOutputStream out;
+    private File openFile;
+    private long openSequence;
+    private long openTime;
+    private long openSize;
+
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE * 2);
+    private final DataOutputStream blockOut = new DataOutputStream(block);
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(512);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private long blockTime;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private byte[] compressBuffer = new byte[BLOCK_SIZE * 2];
+
+    public SegmentLogStorage(Context context) {
+        this(new File(context.getFilesDir(), DIRECTORY));
+    }
+
+    SegmentLogStorage(File directory) {
+        this.directory = directory;
+        directory.mkdirs();
+        for (File file : listSegments(EXT_OPEN)) {
+            // Left open by a previous process
+            seal(file);
+        }
+        for (File file : listSegments(EXT_SEALED)) {
+            nextSequence = Math.max(nextSequence, getSequence(file) + 1);
+        }
+    }
+
+    @Override
+    public synchronized void append(List<RemoteLogItem> items) {
+        try {
+            if (out == null) {
+                open();
+            }
+            for (RemoteLogItem item : items) {
+                writeRecord(item);
+                if (block.size() >= BLOCK_SIZE) {
+                    writeBlock();
+                }
+            }
+            if (openSize + block.size() >= SEGMENT_SIZE || System.currentTimeMillis() - openTime >= SEGMENT_AGE) {
+                rotate();
+            }
+        } catch (IOException e) {
+            // Items of the failed block are lost, a new segment is started next time
+            e.printStackTrace();
+            block.reset();
+            closeQuietly();
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (block.size() > 0 && System.currentTimeMillis() - blockTime >= BLOCK_AGE) {
+            try {
+                writeBlock();
+            } catch (IOException e) {
+                e.printStackTrace();
+                block.reset();
+                closeQuietly();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void maintain(boolean full) {
+        if (out != null && System.currentTimeMillis() - openTime >= SEGMENT_AGE) {
+            rotateQuietly();
+        }
+        List<File> segments = listSegments(EXT_SEALED);
+        long totalSize = 0;
+        for (File file : segments) {
+            totalSize += file.length();
+        }
+        long minTime = System.currentTimeMillis() - LogStorageManager.MAX_AGE;
+        int removed = 0;
+        // Oldest first; segments are the eviction unit
+        for (File file : segments) {
+            if (file.lastModified() >= minTime && totalSize <= MAX_TOTAL_SIZE) {
+                break;
+            }
+            totalSize -= file.length();
+            deleteSegment(file);
+            removed++;
+        }
+        if (removed > 0) {
+            Log.w(Const.LOG_TAG, "Removed " + removed + " log segments by age or quota");
+        }
+    }
+
+    @Override
+    public synchronized Batch nextBatch(int maxItems, int maxBytes, boolean urgent) {
+        List<File> segments = listSegments(EXT_SEALED);
+        if (segments.isEmpty() && hasOpenItems() && (urgent || openSize + block.size() >= MIN_UPLOAD_SIZE ||
+                System.currentTimeMillis() - openTime >= MIN_UPLOAD_AGE)) {
+            // Nothing sealed yet: the pending items are uploaded now rather than after the rotation
+            rotateQuietly();
+            segments = listSegments(EXT_SEALED);
+        }
+        for (File file : segments) {
+            long sequence = getSequence(file);
+            if (sequence != cachedSequence) {
+                cachedItems = read(file);
+                cachedSequence = sequence;
+            }
+            int start = getUploadedCount(file);
+            if (start >= cachedItems.size()) {
+                deleteSegment(file);
+                continue;
+            }
+            List<RemoteLogItem> items = cachedItems.subList(start, Math.min(cachedItems.size(), start + maxItems));
+            items = new ArrayList<>(items.subList(0, LogBatchSizer.fit(items, maxBytes)));
+            int end = start + items.size();
+            return new Batch(items, (sequence << 32) | (end < cachedItems.size() ? end : POSITION_SEGMENT_END));
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized long getHeldBackDelay() {
+        if (!hasOpenItems()) {
+            return -1;
+        }
+        return Math.max(0, openTime + MIN_UPLOAD_AGE - System.currentTimeMillis());
+    }
+
+    @Override
+    public synchronized void remove(Batch batch) {
+        long sequence = batch.position >>> 32;
+        int end = (int)(batch.position & 0xFFFFFFFFL);
+        for (File file : listSegments(EXT_SEALED)) {
+            if (getSequence(file) != sequence) {
+                continue;
+            }
+            if (end == POSITION_SEGMENT_END) {
+                deleteSegment(file);
+            } else {
+                file.renameTo(new File(directory, sequence + "." + end + EXT_SEALED));
+            }
+            break;
+        }
+    }
+
+    private boolean hasOpenItems() {
+        return out != null && (openSize > 0 || block.size() > 0);
+    }
+
+    private void deleteSegment(File file) {
+        file.delete();
+        if (getSequence(file) == cachedSequence) {
+            cachedSequence = -1;
+            cachedItems = null;
+        }
+    }
+
+    private void open() throws IOException {
+        openSequence = nextSequence++;
+        openFile = new File(directory, openSequence + EXT_OPEN);
+        out = new FileOutputStream(openFile, true);
+        openTime = System.currentTimeMillis();
+        openSize = 0;
+    }
+
+    private void rotate() throws IOException {
+        if (block.size() > 0) {
+            writeBlock();
+        }
+        out.close();
+        out = null;
+        seal(openFile);
+    }
+
+    private void rotateQuietly() {
+        try {
+            rotate();
+        } catch (IOException e) {
+            e.printStackTrace();
+            block.reset();
+            closeQuietly();
+        }
+    }
+
+    private void closeQuietly() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            out = null;
+            seal(openFile);
+        }
+    }
+
+    private void seal(File file) {
+        String name = file.getName();
+        file.renameTo(new File(directory, name.substring(0, name.length() - EXT_OPEN.length()) + EXT_SEALED));
+    }
+
+    private void writeRecord(RemoteLogItem item) throws IOException {
+        if (block.size() == 0) {
+            blockTime = System.currentTimeMillis();
+        }
+        record.reset();
+        recordOut.writeLong(item.getTimestamp());
+        recordOut.writeByte(item.getLogLevel());
+        writeString(recordOut, item.getPackageId());
+        writeString(recordOut, item.getMessage());
+        recordOut.writeInt(item.getCount() != null ? item.getCount() : 0);
+        recordOut.writeLong(item.getLastTimestamp() != null ? item.getLastTimestamp() : 0);
+        blockOut.writeInt(record.size());
+        record.writeTo(blockOut);
+    }
+
+    private void writeBlock() throws IOException {
+        byte[] raw = block.toByteArray();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == compressBuffer.length) {
+                compressBuffer = Arrays.copyOf(compressBuffer, compressBuffer.length * 2);
+            }
+            compressedLength += deflater.deflate(compressBuffer, compressedLength, compressBuffer.length - compressedLength);
+        }
+        // Header and data in one write, so a crash leaves at most one truncated block
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(compressedLength + 8);
+        DataOutputStream data = new DataOutputStream(buffer);
+        data.writeInt(raw.length);
+        data.writeInt(compressedLength);
+        data.write(compressBuffer, 0, compressedLength);
+        buffer.writeTo(out);
+        openSize += raw.length;
+        block.reset();
+    }
+
+    private List<RemoteLogItem> read(File file) {
+        List<RemoteLogItem> items = new LinkedList<>();
+        Inflater inflater = new Inflater();
+        InputStream input = null;
+        try {
+            input = new FileInputStream(file);
+            DataInputStream data = new DataInputStream(input);
+            while (true) {
+                int rawLength;
+                try {
+                    rawLength = data.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int compressedLength = data.readInt();
+                if (rawLength <= 0 || compressedLength <= 0 || rawLength > SEGMENT_SIZE * 2) {
+                    throw new IOException("Bad block header");
+                }
+                byte[] compressed = new byte[compressedLength];
+                data.readFully(compressed);
+                byte[] raw = new byte[rawLength];
+                inflater.reset();
+                inflater.setInput(compressed);
+                if (inflater.inflate(raw) != rawLength) {
+                    throw new IOException("Bad block data");
+                }
+                readRecords(raw, items);
+            }
+        } catch (IOException | DataFormatException e) {
+            // Truncated or damaged tail: the items read so far are kept
+            Log.w(Const.LOG_TAG, "Log segment " + file.getName() + " is damaged: " + e.getMessage());
+        } finally {
+            inflater.end();
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+        return items;
+    }
+
+    private static void readRecords(byte[] raw, List<RemoteLogItem> items) throws IOException {
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(raw));
+        int offset = 0;
+        while (offset < raw.length) {
+            int length = data.readInt();
+            offset += 4;
+            DataInputStream fields = new DataInputStream(new ByteArrayInputStream(raw, offset, length));
+            RemoteLogItem item = new RemoteLogItem();
+            item.setTimestamp(fields.readLong());
+            item.setLogLevel(fields.readByte());
+            item.setPackageId(readString(fields));
+            item.setMessage(readString(fields));
+            int count = fields.readInt();
+            long lastTimestamp = fields.readLong();
+            if (count > 0) {
+                item.setCount(count);
+                item.setLastTimestamp(lastTimestamp);
+            }
+            items.add(item);
+            data.skipBytes(length);
+            offset += length;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        if (value.length() > MAX_STRING_LENGTH) {
+            int length = MAX_STRING_LENGTH;
+            if (Character.isHighSurrogate(value.charAt(length - 1))) {
+                length--;
+            }
+            value = value.substring(0, length);
+        }
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    // Sorted by sequence number, i.e. oldest first
+    private List<File> listSegments(final String extension) {
+        List<File> result = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(extension) && getSequence(file) >= 0) {
+                    result.add(file);
+                }
+            }
+        }
+        Collections.sort(result, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long s1 = getSequence(f1);
+                long s2 = getSequence(f2);
+                return s1 < s2 ? -1 : (s1 == s2 ? 0 : 1);
+            }
+        });
+        return result;
+    }
+
+    // Number of leading records already uploaded: "sequence.uploaded.seg"
+    private static int getUploadedCount(File file) {
+        String[] parts = file.getName().split("\\.");
+        if (parts.length != 3) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long getSequence(File file) {
+        String name = file.getName();
+        int dot = name.indexOf('.');
+        try {
+            return Long.parseLong(dot > 0 ? name.substring(0, dot) : name);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.db;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.hmdm.launcher.json.RemoteLogItem;
+import com.hmdm.launcher.worker.LogBatchSizer;
+
+import java.util.List;
+
+/**
+ * Log storage as rows of the logs table: any batch size can be uploaded,
+ * and the quota evicts the least severe items first.
+ */
+public class SqliteLogStorage implements LogStorage {
+    private final Context context;
+    // Compiled once, used by the writer thread only
+    private SQLiteStatement insertStatement;
+
+    public SqliteLogStorage(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public void append(List<RemoteLogItem> items) {
+        SQLiteDatabase db = DatabaseHelper.instance(context).getWritableDatabase();
+        if (insertStatement == null) {
+            insertStatement = LogTable.compileInsert(db);
+        }
+        db.beginTransaction();
+        try {
+            for (RemoteLogItem item : items) {
+                LogTable.insert(insertStatement, item);
+            }
+            db.setTransactionSuccessful();
+        } catch (RuntimeException e) {
+            // The statement is compiled again next time
+            insertStatement = null;
+            throw e;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void maintain(boolean full) {
+        SQLiteDatabase db = DatabaseHelper.instance(context).getWritableDatabase();
+        if (full) {
+            LogStorageManager.maintain(db);
+        } else {
+            LogStorageManager.enforceQuota(db);
+        }
+    }
+
+    @Override
+    public Batch nextBatch(int maxItems, int maxBytes, boolean urgent) {
+        List<RemoteLogItem> items = LogTable.select(DatabaseHelper.instance(context).getReadableDatabase(), maxItems);
+        if (items.isEmpty()) {
+            return null;
+        }
+        items = items.subList(0, LogBatchSizer.fit(items, maxBytes));
+        // Items are selected by id order, so the batch is all items up to the last id
+        return new Batch(items, items.get(items.size() - 1).getId());
+    }
+
+    @Override
+    public long getHeldBackDelay() {
+        return -1;
+    }
+
+    @Override
+    public void remove(Batch batch) {
+        LogTable.deleteUpTo(DatabaseHelper.instance(context).getWritableDatabase(), batch.position);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.helper;
+
+import android.content.Context;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.hmdm.launcher.BuildConfig;
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.json.ServerConfig;
+import com.hmdm.launcher.pro.ProUtils;
+import com.hmdm.launcher.task.GetServerConfigTask;
+import com.hmdm.launcher.util.RemoteLogger;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Applies partial configuration updates delivered by push messages.
+ *
+ * The payload has the following form:
+ * {"baseVersion": "...", "version": "...", "patch": {...}}
+ * where "patch" is a JSON merge patch (RFC 7396) to the configuration returned by the server,
+ * and the versions are SHA-1 hashes of the canonical form of the configuration
+ * (object keys sorted, null values omitted, no whitespace) before and after the patch.
+ *
+ * If the response signature is checked (CHECK_SIGNATURE build flag), the payload must also contain
+ * "signature": SHA-1 of the request signature key followed by the resulting version (upper case), so a patch
+ * injected by a third party is rejected and the full signed configuration is requested instead.
+ */
+public class ConfigPatchHelper {
+    public static final String PAYLOAD_BASE_VERSION = "baseVersion";
+    public static final String PAYLOAD_VERSION = "version";
+    public static final String PAYLOAD_PATCH = "patch";
+    public static final String PAYLOAD_SIGNATURE = "signature";
+
+    // Returns true if the patch has been applied and stored,
+    // false means that the full configuration must be requested from the server.
+    // Synchronized because the stored configuration is read, patched and written back
+    public static synchronized boolean applyPatch(Context context, JSONObject payload) {
+        if (payload == null) {
+            return false;
+        }
+        String baseVersion = payload.optString(PAYLOAD_BASE_VERSION, null);
+        String version = payload.optString(PAYLOAD_VERSION, null);
+        JSONObject patch = payload.optJSONObject(PAYLOAD_PATCH);
+        if (baseVersion == null || version == null || patch == null) {
+            RemoteLogger.log(context, Const.LOG_WARN, "Config patch ignored: bad payload");
+            return false;
+        }
+        if (BuildConfig.CHECK_SIGNATURE && !isSignatureValid(version, payload.optString(PAYLOAD_SIGNATURE, null))) {
+            RemoteLogger.log(context, Const.LOG_WARN, "Config patch rejected: missing or wrong signature");
+            return false;
+        }
+
+        SettingsHelper settingsHelper = SettingsHelper.getInstance(context);
+        String configJson = settingsHelper.getServerConfigJson();
+        if (configJson == null || settingsHelper.getConfig() == null) {
+            RemoteLogger.log(context, Const.LOG_INFO, "Config patch ignored: no stored configuration");
+            return false;
+        }
+
+        try {
+            ObjectMapper mapper = new ObjectMapper();
+            JsonNode config = mapper.readTree(configJson);
+            String currentVersion = getVersion(config);
+            if (!currentVersion.equalsIgnoreCase(baseVersion)) {
+                RemoteLogger.log(context, Const.LOG_INFO, "Config patch ignored: base version " + baseVersion +
+                        " doesn't match local version " + currentVersion);
+                return false;
+            }
+
+            JsonNode patched = mergePatch(config, mapper.readTree(patch.toString()));
+            String patchedVersion = getVersion(patched);
+            if (!patchedVersion.equalsIgnoreCase(version)) {
+                RemoteLogger.log(context, Const.LOG_WARN, "Config patch rejected: resulting version " + patchedVersion +
+                        " doesn't match expected version " + version);
+                return false;
+            }
+
+            ServerConfig serverConfig = mapper.treeToValue(patched, ServerConfig.class);
+            settingsHelper.setServerConfigJson(mapper.writeValueAsString(patched));
+            settingsHelper.updateConfig(serverConfig);
+            GetServerConfigTask.checkKioskMode(context, settingsHelper);
+            ProUtils.processConfig(context, serverConfig);
+            RemoteLogger.log(context, Const.LOG_INFO, "Config patch applied, version " + version);
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            RemoteLogger.log(context, Const.LOG_WARN, "Failed to apply config patch: " + e.getMessage());
+        }
+        return false;
+    }
+
+    // The version is the hash of the resulting configuration, so signing the version signs the result
+    public static boolean isSignatureValid(String version, String signature) {
+        if (signature == null) {
+            return false;
+        }
+        String calculatedSignature = CryptoHelper.getSHA1String(BuildConfig.REQUEST_SIGNATURE + version.toUpperCase());
+        return calculatedSignature.equalsIgnoreCase(signature);
+    }
+
+    // RFC 7396: objects are merged recursively, null removes a field, everything else is replaced
+    public static JsonNode mergePatch(JsonNode target, JsonNode patch) {
+        if (!patch.isObject()) {
+            return patch;
+        }
+        ObjectNode result = target != null && target.isObject() ?
+                ((ObjectNode)target).deepCopy() : ((ObjectNode)patch).objectNode();
+        Iterator<String> fieldNames = patch.fieldNames();
+        while (fieldNames.hasNext()) {
+            String fieldName = fieldNames.next();
+            JsonNode value = patch.get(fieldName);
+            if (value.isNull()) {
+                result.remove(fieldName);
+            } else {
+                result.set(fieldName, mergePatch(result.get(fieldName), value));
+            }
+        }
+        return result;
+    }
+
+    public static String getVersion(JsonNode config) {
+        StringBuilder sb = new StringBuilder();
+        writeCanonical(config, sb);
+        return CryptoHelper.getSHA1String(sb.toString());
+    }
+
+    private static void writeCanonical(JsonNode node, StringBuilder sb) {
+        if (node.isObject()) {
+            List<String> fieldNames = new ArrayList<>();
+            Iterator<String> it = node.fieldNames();
+            while (it.hasNext()) {
+                fieldNames.add(it.next());
+            }
+            Collections.sort(fieldNames);
+            sb.append('{');
+            boolean first = true;
+            for (String fieldName : fieldNames) {
+                JsonNode value = node.get(fieldName);
+                if (value.isNull()) {
+                    continue;
+                }
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append(TextNode.valueOf(fieldName).toString()).append(':');
+                writeCanonical(value, sb);
+            }
+            sb.append('}');
+        } else if (node.isArray()) {
+            sb.append('[');
+            for (int i = 0; i < node.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                writeCanonical(node.get(i), sb);
+            }
+            sb.append(']');
+        } else {
+            // Scalars are written by Jackson: strings are quoted and escaped, numbers and booleans as is
+            sb.append(node.toString());
+        }
+    }
+}
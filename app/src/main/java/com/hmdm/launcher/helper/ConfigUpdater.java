@@ -7,9 +7,10 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageInstaller;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Environment;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
@@ -21,19 +22,26 @@ import com.hmdm.launcher.db.RemoteFileTable;
 import com.hmdm.launcher.json.Action;
 import com.hmdm.launcher.json.Application;
 import com.hmdm.launcher.json.DeviceInfo;
+import com.hmdm.launcher.json.PushMessage;
 import com.hmdm.launcher.json.RemoteFile;
 import com.hmdm.launcher.json.ServerConfig;
 import com.hmdm.launcher.pro.worker.DetailedInfoWorker;
+import com.hmdm.launcher.server.NetworkStats;
+import com.hmdm.launcher.server.ServerBackoff;
 import com.hmdm.launcher.server.ServerServiceKeeper;
+import com.hmdm.launcher.task.BackgroundTask;
 import com.hmdm.launcher.task.ConfirmDeviceResetTask;
 import com.hmdm.launcher.task.ConfirmPasswordResetTask;
 import com.hmdm.launcher.task.ConfirmRebootTask;
 import com.hmdm.launcher.task.GetRemoteLogConfigTask;
 import com.hmdm.launcher.task.GetServerConfigTask;
+import com.hmdm.launcher.task.TaskExecutors;
 import com.hmdm.launcher.util.DeviceInfoProvider;
 import com.hmdm.launcher.util.InstallUtils;
+import com.hmdm.launcher.util.PushNotificationLongPoller;
 import com.hmdm.launcher.util.PushNotificationMqttWrapper;
 import com.hmdm.launcher.util.RemoteLogger;
+import com.hmdm.launcher.util.StageGraph;
 import com.hmdm.launcher.util.SystemUtils;
 import com.hmdm.launcher.util.Utils;
 
@@ -71,7 +79,7 @@ public class ConfigUpdater {
     private Context context;
     private UINotifier uiNotifier;
     private SettingsHelper settingsHelper;
-    private Handler handler = new Handler();
+    private Handler handler = new Handler(Looper.getMainLooper());
     private List<RemoteFile> filesForInstall = new LinkedList();
     private List< Application > applicationsForInstall = new LinkedList();
     private List< Application > applicationsForRun = new LinkedList();
@@ -79,21 +87,182 @@ public class ConfigUpdater {
     private BroadcastReceiver appInstallReceiver;
     private boolean retry = true;
 
+    private static final String STAGE_REMOTE_LOG_CONFIG = "remoteLogConfig";
+    private static final String STAGE_MIGRATION = "migration";
+    private static final String STAGE_PUSH = "push";
+    private static final String STAGE_FACTORY_RESET = "factoryReset";
+    private static final String STAGE_REBOOT = "reboot";
+    private static final String STAGE_PASSWORD_RESET = "passwordReset";
+    private static final String STAGE_LAUNCHER = "launcher";
+    private static final String STAGE_POLICIES = "policies";
+    private static final String STAGE_FILES_CHECK = "filesCheck";
+    private static final String STAGE_FILES = "files";
+    private static final String STAGE_APPS_CHECK = "appsCheck";
+    private static final String STAGE_APPS = "apps";
+    private static final String STAGE_ACTIONS = "actions";
+
+    private StageGraph updateStages;
+    // Results of the background checks, passed to the install stages
+    private volatile List<RemoteFile> checkedFiles;
+    private volatile List<Application> checkedApplications;
+    // Completion of the install stages which may wait for the user action
+    private Runnable filesDone;
+    private Runnable appsDone;
+
     public List<Application> getApplicationsForRun() {
         return applicationsForRun;
     }
 
+    // Update requests, a stronger request includes the weaker ones
+    private static final int REQUEST_NONE = 0;
+    private static final int REQUEST_APPLY_LOADED = 1;
+    private static final int REQUEST_UPDATE = 2;
+    private static final int REQUEST_FORCE_UPDATE = 3;
+
+    // Minimal interval between the end of an update and the start of the next update
+    private static final long UPDATE_DEBOUNCE_MS = 5000;
+    // An update waiting for a user action should not block the further updates forever
+    private static final long UPDATE_MAX_DURATION_MS = 600000;
+
+    // Single-flight coordination: the fields below are accessed in the main thread only.
+    // Requests coming while an update is running are joined to it and collapsed into
+    // at most one follow-up update started after the debounce interval
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static ConfigUpdater activeUpdater;
+    private static long activeUpdateStart;
+    private static long lastUpdateFinish;
+    private static int pendingRequest = REQUEST_NONE;
+    // Push-triggered requests are delayed randomly to spread the load of the whole fleet over time
+    private static long pendingNotBefore;
+    private static Runnable scheduledRequest;
+
     public static void notifyConfigUpdate(final Context context) {
-        if (SettingsHelper.getInstance(context).isMainActivityRunning()) {
-            LocalBroadcastManager.getInstance(context).
-                    sendBroadcast(new Intent(Const.ACTION_UPDATE_CONFIGURATION));
-        } else {
-            new ConfigUpdater().updateConfig(context, null, false);
+        requestUpdate(context, REQUEST_UPDATE, 0);
+    }
+
+    // Update requested by a push message: started after a random delay within the jitter window
+    // so the devices of a group don't query the server (and download the same files) simultaneously
+    public static void notifyConfigUpdate(final Context context, PushMessage message) {
+        long delay = 0;
+        if (!message.isHighPriority()) {
+            long window = message.getJitterWindow();
+            if (window < 0) {
+                ServerConfig config = SettingsHelper.getInstance(context).getConfig();
+                window = config != null && config.getPushJitterWindow() != null ? config.getPushJitterWindow() : 0;
+            }
+            delay = (long) (Math.random() * window * 1000);
+        }
+        if (delay > 0) {
+            RemoteLogger.log(context, Const.LOG_DEBUG, "Config update is delayed by {} ms", delay);
         }
+        requestUpdate(context, REQUEST_UPDATE, delay);
+    }
+
+    // Called when the configuration has been updated locally, for example by a config patch
+    public static void notifyConfigPatched(final Context context) {
+        requestUpdate(context, REQUEST_APPLY_LOADED, 0);
     }
 
     public static void forceConfigUpdate(final Context context) {
-        new ConfigUpdater().updateConfig(context, null, false);
+        requestUpdate(context, REQUEST_FORCE_UPDATE, 0);
+    }
+
+    private static void requestUpdate(final Context context, final int request, final long delay) {
+        final Context appContext = context.getApplicationContext();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                int newRequest = request;
+                if (isUpdateRunning() && newRequest == REQUEST_APPLY_LOADED) {
+                    // The running update may overwrite the locally updated config, so reload it after the update
+                    newRequest = REQUEST_UPDATE;
+                }
+                // Requests are merged, so an urgent request cancels the delay of the pending one
+                long notBefore = SystemClock.elapsedRealtime() + delay;
+                if (pendingRequest == REQUEST_NONE || notBefore < pendingNotBefore) {
+                    pendingNotBefore = notBefore;
+                }
+                if (newRequest > pendingRequest) {
+                    pendingRequest = newRequest;
+                }
+                if (isUpdateRunning()) {
+                    Log.i(Const.LOG_TAG, "Config update is running, request " + request + " postponed");
+                    return;
+                }
+                schedulePendingRequest(appContext);
+            }
+        });
+    }
+
+    private static boolean isUpdateRunning() {
+        return activeUpdater != null && SystemClock.elapsedRealtime() - activeUpdateStart < UPDATE_MAX_DURATION_MS;
+    }
+
+    private static void schedulePendingRequest(final Context context) {
+        if (pendingRequest == REQUEST_NONE) {
+            return;
+        }
+        // Rescheduled each time because a new request may shorten the delay
+        if (scheduledRequest != null) {
+            mainHandler.removeCallbacks(scheduledRequest);
+        }
+        long now = SystemClock.elapsedRealtime();
+        long delay = Math.max(lastUpdateFinish + UPDATE_DEBOUNCE_MS - now, pendingNotBefore - now);
+        scheduledRequest = new Runnable() {
+            @Override
+            public void run() {
+                scheduledRequest = null;
+                if (isUpdateRunning()) {
+                    // Will be started when the running update is completed
+                    return;
+                }
+                int request = pendingRequest;
+                pendingRequest = REQUEST_NONE;
+                runRequest(context, request);
+            }
+        };
+        mainHandler.postDelayed(scheduledRequest, delay > 0 ? delay : 0);
+    }
+
+    private static void runRequest(final Context context, int request) {
+        boolean mainActivityRunning = SettingsHelper.getInstance(context).isMainActivityRunning();
+        switch (request) {
+            case REQUEST_APPLY_LOADED:
+                if (mainActivityRunning) {
+                    Intent intent = new Intent(Const.ACTION_UPDATE_CONFIGURATION);
+                    intent.putExtra(Const.EXTRA_CONFIG_LOADED, true);
+                    LocalBroadcastManager.getInstance(context).sendBroadcast(intent);
+                } else {
+                    new ConfigUpdater().applyLoadedConfig(context, null);
+                }
+                break;
+            case REQUEST_UPDATE:
+                if (mainActivityRunning) {
+                    LocalBroadcastManager.getInstance(context).
+                            sendBroadcast(new Intent(Const.ACTION_UPDATE_CONFIGURATION));
+                } else {
+                    new ConfigUpdater().updateConfig(context, null, false);
+                }
+                break;
+            case REQUEST_FORCE_UPDATE:
+                new ConfigUpdater().updateConfig(context, null, false);
+                break;
+        }
+    }
+
+    // Updates started directly (by MainActivity) are never blocked, but other requests are joined to them
+    private void onUpdateStarted() {
+        activeUpdater = this;
+        activeUpdateStart = SystemClock.elapsedRealtime();
+    }
+
+    private void onUpdateFinished() {
+        if (activeUpdater != this) {
+            return;
+        }
+        activeUpdater = null;
+        lastUpdateFinish = SystemClock.elapsedRealtime();
+        schedulePendingRequest(context.getApplicationContext());
     }
 
     public void updateConfig(final Context context, final UINotifier uiNotifier, final boolean abortOnError) {
@@ -105,21 +274,9 @@ public class ConfigUpdater {
         Log.i(Const.LOG_TAG, "updateConfig(): set configInitializing=true");
         configInitializing = true;
         DetailedInfoWorker.requestConfigUpdate(context);
-        this.context = context;
-        this.uiNotifier = uiNotifier;
+        startUpdate(context, uiNotifier);
+        onUpdateStarted();
 
-        // Work around a strange bug with stale SettingsHelper instance: re-read its value
-        settingsHelper = SettingsHelper.getInstance(context.getApplicationContext());
-
-        if (settingsHelper.getConfig() != null && settingsHelper.getConfig().getRestrictions() != null) {
-            Utils.releaseUserRestrictions(context, settingsHelper.getConfig().getRestrictions());
-            // Explicitly release restrictions of installing/uninstalling apps
-            Utils.releaseUserRestrictions(context, "no_install_apps,no_uninstall_apps");
-        }
-
-        if (uiNotifier != null) {
-            uiNotifier.onConfigUpdateStart();
-        }
         new GetServerConfigTask( context ) {
             @Override
             protected void onPostExecute( Integer result ) {
@@ -127,16 +284,27 @@ public class ConfigUpdater {
                 configInitializing = false;
                 Log.i(Const.LOG_TAG, "updateConfig(): set configInitializing=false after getting config");
 
+                if (result != Const.TASK_SUCCESS) {
+                    long retryDelay = ServerBackoff.getRetryDelay();
+                    if (retryDelay > 0) {
+                        // The server asked to come back later: use the stored configuration meanwhile
+                        RemoteLogger.log(context, Const.LOG_INFO, "Server is busy, config update is retried in " + retryDelay + " ms");
+                        retry = false;
+                        requestUpdate(context, REQUEST_UPDATE, retryDelay);
+                    }
+                }
+
                 switch ( result ) {
                     case Const.TASK_SUCCESS:
                         RemoteLogger.log(context, Const.LOG_INFO, "Configuration updated");
-                        updateRemoteLogConfig();
+                        runUpdateStages();
                         break;
                     case Const.TASK_ERROR:
                         RemoteLogger.log(context, Const.LOG_WARN, "Failed to update config: server error");
                         if (uiNotifier != null) {
                             uiNotifier.onConfigUpdateServerError();
                         }
+                        onUpdateFinished();
                         break;
                     case Const.TASK_NETWORK_ERROR:
                         RemoteLogger.log(context, Const.LOG_WARN, "Failed to update config: network error");
@@ -156,26 +324,107 @@ public class ConfigUpdater {
                                     // if it is required by the web panel
                                     // so the user can set up WiFi even in kiosk mode
                                     uiNotifier.onConfigUpdateNetworkError();
+                                    onUpdateFinished();
                                 } else {
-                                    updateRemoteLogConfig();
+                                    runUpdateStages();
                                 }
                             } else {
                                 if (uiNotifier != null) {
                                     uiNotifier.onConfigUpdateNetworkError();
                                 }
+                                onUpdateFinished();
                             }
                         }
                         break;
                 }
             }
-        }.execute();
+        }.setPriority(getTaskPriority()).execute();
+    }
+
+    // Apply the configuration which is already stored locally without loading it from the server
+    public void applyLoadedConfig(final Context context, final UINotifier uiNotifier) {
+        if ( configInitializing ) {
+            Log.i(Const.LOG_TAG, "applyLoadedConfig(): configInitializing=true, exiting");
+            return;
+        }
+        startUpdate(context, uiNotifier);
+        onUpdateStarted();
+        runUpdateStages();
+    }
+
+    private void startUpdate(final Context context, final UINotifier uiNotifier) {
+        this.context = context;
+        this.uiNotifier = uiNotifier;
+
+        // Work around a strange bug with stale SettingsHelper instance: re-read its value
+        settingsHelper = SettingsHelper.getInstance(context.getApplicationContext());
+
+        if (settingsHelper.getConfig() != null && settingsHelper.getConfig().getRestrictions() != null) {
+            Utils.releaseUserRestrictions(context, settingsHelper.getConfig().getRestrictions());
+            // Explicitly release restrictions of installing/uninstalling apps
+            Utils.releaseUserRestrictions(context, "no_install_apps,no_uninstall_apps");
+        }
+
+        if (uiNotifier != null) {
+            uiNotifier.onConfigUpdateStart();
+        }
     }
 
     public void skipConfigLoad() {
-        updateRemoteLogConfig();
+        onUpdateStarted();
+        runUpdateStages();
     }
 
-    private void updateRemoteLogConfig() {
+    // The configuration is loaded, apply it. Stages run concurrently when their dependencies allow:
+    // stages requiring server actions (reset, reboot) run first, and nothing is downloaded
+    // or installed before them, while the remote log config and local checks run in parallel
+    private void runUpdateStages() {
+        if (updateStages != null) {
+            updateStages.cancel();
+        }
+        final StageGraph stages = new StageGraph(getTaskPriority());
+        stages.addStage(STAGE_REMOTE_LOG_CONFIG, done -> updateRemoteLogConfig(done))
+                .addStage(STAGE_MIGRATION, done -> checkServerMigration(stages, done))
+                .addStage(STAGE_PUSH, done -> setupPushService(done), STAGE_MIGRATION)
+                .addStage(STAGE_FACTORY_RESET, done -> checkFactoryReset(done), STAGE_MIGRATION)
+                .addStage(STAGE_REBOOT, done -> checkRemoteReboot(done), STAGE_FACTORY_RESET)
+                .addStage(STAGE_PASSWORD_RESET, done -> checkPasswordReset(done), STAGE_REBOOT)
+                .addStage(STAGE_LAUNCHER, done -> setDefaultLauncher(done), STAGE_REBOOT)
+                .addStage(STAGE_POLICIES, done -> updateLocationService(done), STAGE_LAUNCHER)
+                .addBackgroundStage(STAGE_FILES_CHECK, TaskExecutors.POOL_CPU, done -> checkFiles(done))
+                .addStage(STAGE_FILES, done -> loadAndInstallFiles(done), STAGE_FILES_CHECK, STAGE_REBOOT)
+                .addBackgroundStage(STAGE_APPS_CHECK, TaskExecutors.POOL_CPU, done -> checkApplications(done))
+                .addStage(STAGE_APPS, done -> checkAndUpdateApplications(done),
+                        STAGE_APPS_CHECK, STAGE_FILES, STAGE_PASSWORD_RESET, STAGE_POLICIES)
+                .addStage(STAGE_ACTIONS, done -> lockRestrictionsAndSetActions(done), STAGE_APPS);
+        updateStages = stages;
+        stages.start(timings -> {
+            updateStages = null;
+            // Statistics are collected only if they're logged
+            if (RemoteLogger.isLoggable(context, Const.LOG_DEBUG)) {
+                RemoteLogger.log(context, Const.LOG_DEBUG, "Configuration applied: {}", timings);
+                RemoteLogger.log(context, Const.LOG_DEBUG, "Task queues: {}", TaskExecutors.getStats());
+                RemoteLogger.log(context, Const.LOG_DEBUG, "Server health: {}", ServerServiceKeeper.getHealthStatus());
+                RemoteLogger.log(context, Const.LOG_DEBUG, "Network stats: {}", NetworkStats.getSummary());
+            }
+            if (uiNotifier != null) {
+                uiNotifier.onConfigUpdateComplete();
+            }
+            // onConfigUpdateComplete() method contents
+            /*
+            Log.i(Const.LOG_TAG, "Showing content from setActions()");
+            showContent(settingsHelper.getConfig());
+             */
+            onUpdateFinished();
+        });
+    }
+
+    // Updates started by the user are executed before the background work
+    private int getTaskPriority() {
+        return uiNotifier != null ? TaskExecutors.PRIORITY_USER : TaskExecutors.PRIORITY_BACKGROUND;
+    }
+
+    private void updateRemoteLogConfig(final Runnable done) {
         Log.i(Const.LOG_TAG, "updateRemoteLogConfig(): get logging configuration");
 
         GetRemoteLogConfigTask task = new GetRemoteLogConfigTask(context) {
@@ -184,13 +433,13 @@ public class ConfigUpdater {
                 super.onPostExecute( result );
                 Log.i(Const.LOG_TAG, "updateRemoteLogConfig(): result=" + result);
                 RemoteLogger.log(context, Const.LOG_INFO, "Device owner: " + Utils.isDeviceOwner(context));
-                checkServerMigration();
+                done.run();
             }
         };
-        task.execute();
+        task.setPriority(getTaskPriority()).execute();
     }
 
-    private void checkServerMigration() {
+    private void checkServerMigration(final StageGraph stages, final Runnable done) {
         if (settingsHelper != null && settingsHelper.getConfig() != null && settingsHelper.getConfig().getNewServerUrl() != null &&
                 !settingsHelper.getConfig().getNewServerUrl().trim().equals("")) {
             try {
@@ -206,6 +455,9 @@ public class ConfigUpdater {
                             settingsHelper.setSecondaryBaseUrl(migrationHelper.getBaseUrl());
                             settingsHelper.setServerProject(migrationHelper.getServerProject());
                             ServerServiceKeeper.resetServices();
+                            // Other stages are not relevant any more, restart the whole update
+                            stages.cancel();
+                            updateStages = null;
                             configInitializing = false;
                             updateConfig(context, uiNotifier, false);
                         }
@@ -213,7 +465,7 @@ public class ConfigUpdater {
                         @Override
                         public void onError(String cause) {
                             RemoteLogger.log(context, Const.LOG_WARN, "Failed to migrate to " + settingsHelper.getConfig().getNewServerUrl().trim() + ": " + cause);
-                            setupPushService();
+                            done.run();
                         }
                     });
                     return;
@@ -223,10 +475,10 @@ public class ConfigUpdater {
                 RemoteLogger.log(context, Const.LOG_WARN, "Failed to migrate to " + settingsHelper.getConfig().getNewServerUrl().trim() + ": malformed URL");
             }
         }
-        setupPushService();
+        done.run();
     }
 
-    private void setupPushService() {
+    private void setupPushService(final Runnable done) {
         String pushOptions = null;
         int keepaliveTime = Const.DEFAULT_PUSH_ALARM_KEEPALIVE_TIME_SEC;
         if (settingsHelper != null && settingsHelper.getConfig() != null) {
@@ -238,23 +490,26 @@ public class ConfigUpdater {
         }
         if (BuildConfig.ENABLE_PUSH && pushOptions != null && (pushOptions.equals(ServerConfig.PUSH_OPTIONS_MQTT_WORKER)
                 || pushOptions.equals(ServerConfig.PUSH_OPTIONS_MQTT_ALARM))) {
+            // The push options may have been switched from long polling: avoid receiving messages twice
+            PushNotificationLongPoller.stop();
             try {
                 URL url = new URL(settingsHelper.getBaseUrl());
-                Runnable nextRunnable = () -> {
-                    checkFactoryReset();
-                };
                 PushNotificationMqttWrapper.getInstance().connect(context, url.getHost(), BuildConfig.MQTT_PORT,
-                        pushOptions, keepaliveTime, settingsHelper.getDeviceId(), nextRunnable, nextRunnable);
+                        pushOptions, keepaliveTime, settingsHelper.getDeviceId(), done, done);
             } catch (Exception e) {
                 e.printStackTrace();
-                checkFactoryReset();
+                done.run();
             }
+        } else if (BuildConfig.ENABLE_PUSH && ServerConfig.PUSH_OPTIONS_LONG_POLLING.equals(pushOptions)) {
+            PushNotificationLongPoller.startService(context);
+            done.run();
         } else {
-            checkFactoryReset();
+            PushNotificationLongPoller.stop();
+            done.run();
         }
     }
 
-    private void checkFactoryReset() {
+    private void checkFactoryReset(final Runnable done) {
         ServerConfig config = settingsHelper != null ? settingsHelper.getConfig() : null;
         if (config != null && config.getFactoryReset() != null && config.getFactoryReset()) {
             // We got a factory reset request, let's confirm and erase everything!
@@ -275,20 +530,20 @@ public class ConfigUpdater {
                         RemoteLogger.log(context, Const.LOG_WARN, "Device reset failed: no permissions");
                     }
                     // If we can't, proceed the initialization flow
-                    checkRemoteReboot();
+                    done.run();
                 }
             };
 
             DeviceInfo deviceInfo = DeviceInfoProvider.getDeviceInfo(context, true, true);
             deviceInfo.setFactoryReset(Utils.checkAdminMode(context));
-            confirmTask.execute(deviceInfo);
+            confirmTask.setPriority(getTaskPriority()).execute(deviceInfo);
 
         } else {
-            checkRemoteReboot();
+            done.run();
         }
     }
 
-    private void checkRemoteReboot() {
+    private void checkRemoteReboot(final Runnable done) {
         ServerConfig config = settingsHelper != null ? settingsHelper.getConfig() : null;
         if (config != null && config.getReboot() != null && config.getReboot()) {
             // Log and confirm reboot before rebooting
@@ -305,20 +560,20 @@ public class ConfigUpdater {
                     } else {
                         RemoteLogger.log(context, Const.LOG_WARN, "Reboot failed: no permissions");
                     }
-                    checkPasswordReset();
+                    done.run();
                 }
             };
 
             DeviceInfo deviceInfo = DeviceInfoProvider.getDeviceInfo(context, true, true);
-            confirmTask.execute(deviceInfo);
+            confirmTask.setPriority(getTaskPriority()).execute(deviceInfo);
 
         } else {
-            checkPasswordReset();
+            done.run();
         }
 
     }
 
-    private void checkPasswordReset() {
+    private void checkPasswordReset(final Runnable done) {
         ServerConfig config = settingsHelper != null ? settingsHelper.getConfig() : null;
         if (config != null && config.getPasswordReset() != null) {
             if (Utils.passwordReset(context, config.getPasswordReset())) {
@@ -330,19 +585,19 @@ public class ConfigUpdater {
             ConfirmPasswordResetTask confirmTask = new ConfirmPasswordResetTask(context) {
                 @Override
                 protected void onPostExecute( Integer result ) {
-                    setDefaultLauncher();
+                    done.run();
                 }
             };
 
             DeviceInfo deviceInfo = DeviceInfoProvider.getDeviceInfo(context, true, true);
-            confirmTask.execute(deviceInfo);
+            confirmTask.setPriority(getTaskPriority()).execute(deviceInfo);
 
         } else {
-            setDefaultLauncher();
+            done.run();
         }
     }
 
-    private void setDefaultLauncher() {
+    private void setDefaultLauncher(final Runnable done) {
         ServerConfig config = settingsHelper != null ? settingsHelper.getConfig() : null;
         if (Utils.isDeviceOwner(context) && config != null) {
             // "Run default launcher" means we should not set Headwind MDM as a default launcher
@@ -351,7 +606,7 @@ public class ConfigUpdater {
             String defaultLauncher = Utils.getDefaultLauncher(context);
 
             // As per the documentation, setting the default preferred activity should not be done on the main thread
-            new AsyncTask<Void, Void, Void>() {
+            new BackgroundTask<Void, Void>(TaskExecutors.POOL_DISK) {
                 @Override
                 protected Void doInBackground(Void... voids) {
                     if (needSetLauncher && !context.getPackageName().equalsIgnoreCase(defaultLauncher)) {
@@ -364,38 +619,41 @@ public class ConfigUpdater {
 
                 @Override
                 protected void onPostExecute(Void v) {
-                    updateLocationService();
+                    done.run();
                 }
-            }.execute();
+            }.setPriority(getTaskPriority()).execute();
             return;
         }
-        updateLocationService();
+        done.run();
     }
 
-    private void updateLocationService() {
+    private void updateLocationService(final Runnable done) {
         if (uiNotifier != null) {
             uiNotifier.onPoliciesUpdated();
         }
         // onPoliciesUpdated() method contents
         // startLocationServiceWithRetry();
-        checkAndUpdateFiles();
+        done.run();
     }
 
-    private void checkAndUpdateFiles() {
-        new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... voids) {
-                ServerConfig config = settingsHelper.getConfig();
-                // This may be a long procedure due to checksum calculation so execute it in the background thread
-                InstallUtils.generateFilesForInstallList(context, config.getFiles(), filesForInstall);
-                return null;
-            }
+    // This is running in a background stage
+    private void checkFiles(final Runnable done) {
+        ServerConfig config = settingsHelper.getConfig();
+        List<RemoteFile> files = new LinkedList<>();
+        // This may be a long procedure due to checksum calculation so execute it in the background thread
+        InstallUtils.generateFilesForInstallList(context, config.getFiles(), files);
+        checkedFiles = files;
+        done.run();
+    }
 
-            @Override
-            protected void onPostExecute(Void v) {
-                loadAndInstallFiles();
-            }
-        }.execute();
+    private void loadAndInstallFiles(final Runnable done) {
+        filesForInstall.clear();
+        if (checkedFiles != null) {
+            filesForInstall.addAll(checkedFiles);
+            checkedFiles = null;
+        }
+        filesDone = done;
+        loadAndInstallFiles();
     }
 
     public static class RemoteFileStatus {
@@ -407,7 +665,7 @@ public class ConfigUpdater {
         if ( filesForInstall.size() > 0 ) {
             RemoteFile remoteFile = filesForInstall.remove(0);
 
-            new AsyncTask<RemoteFile, Void, RemoteFileStatus>() {
+            new BackgroundTask<RemoteFile, RemoteFileStatus>(TaskExecutors.POOL_NETWORK) {
 
                 @Override
                 protected RemoteFileStatus doInBackground(RemoteFile... remoteFiles) {
@@ -415,7 +673,7 @@ public class ConfigUpdater {
                     RemoteFileStatus remoteFileStatus = null;
 
                     if (remoteFile.isRemove()) {
-                        RemoteLogger.log(context, Const.LOG_DEBUG, "Removing file: " + remoteFile.getPath());
+                        RemoteLogger.log(context, Const.LOG_DEBUG, "Removing file: {}", remoteFile.getPath());
                         File file = new File(Environment.getExternalStorageDirectory(), remoteFile.getPath());
                         try {
                             file.delete();
@@ -435,7 +693,7 @@ public class ConfigUpdater {
 
                         File file = null;
                         try {
-                            RemoteLogger.log(context, Const.LOG_DEBUG, "Downloading file: " + remoteFile.getPath());
+                            RemoteLogger.log(context, Const.LOG_DEBUG, "Downloading file: {}", remoteFile.getPath());
                             file = InstallUtils.downloadFile(context, remoteFile.getUrl(),
                                     new InstallUtils.DownloadProgress() {
                                         @Override
@@ -519,14 +777,27 @@ public class ConfigUpdater {
                     loadAndInstallFiles();
                 }
 
-            }.execute(remoteFile);
+            }.setPriority(getTaskPriority()).execute(remoteFile);
         } else {
             Log.i(Const.LOG_TAG, "Proceed to application update");
-            checkAndUpdateApplications();
+            if (filesDone != null) {
+                Runnable done = filesDone;
+                filesDone = null;
+                done.run();
+            }
         }
     }
 
-    private void checkAndUpdateApplications() {
+    // This is running in a background stage
+    private void checkApplications(final Runnable done) {
+        ServerConfig config = settingsHelper.getConfig();
+        List<Application> applications = new LinkedList<>();
+        InstallUtils.generateApplicationsForInstallList(context, config.getApplications(), applications);
+        checkedApplications = applications;
+        done.run();
+    }
+
+    private void checkAndUpdateApplications(final Runnable done) {
         Log.i(Const.LOG_TAG, "checkAndUpdateApplications(): starting update applications");
         if (uiNotifier != null) {
             uiNotifier.onAppUpdateStart();
@@ -538,8 +809,12 @@ public class ConfigUpdater {
          */
         configInitializing = false;
 
-        ServerConfig config = settingsHelper.getConfig();
-        InstallUtils.generateApplicationsForInstallList(context, config.getApplications(), applicationsForInstall);
+        applicationsForInstall.clear();
+        if (checkedApplications != null) {
+            applicationsForInstall.addAll(checkedApplications);
+            checkedApplications = null;
+        }
+        appsDone = done;
 
         Log.i(Const.LOG_TAG, "checkAndUpdateApplications(): list size=" + applicationsForInstall.size());
 
@@ -557,7 +832,7 @@ public class ConfigUpdater {
         if ( applicationsForInstall.size() > 0 ) {
             Application application = applicationsForInstall.remove(0);
 
-            new AsyncTask<Application, Void, ApplicationStatus>() {
+            new BackgroundTask<Application, ApplicationStatus>(TaskExecutors.POOL_NETWORK) {
 
                 @Override
                 protected ApplicationStatus doInBackground(Application... applications) {
@@ -566,7 +841,7 @@ public class ConfigUpdater {
 
                     if (application.isRemove()) {
                         // Remove the app
-                        RemoteLogger.log(context, Const.LOG_DEBUG, "Removing app: " + application.getPkg());
+                        RemoteLogger.log(context, Const.LOG_DEBUG, "Removing app: {}", application.getPkg());
                         if (uiNotifier != null) {
                             uiNotifier.onAppRemoving(application);
                         }
@@ -584,22 +859,22 @@ public class ConfigUpdater {
                         } );
 
                     } else if (application.getUrl().startsWith("market://details")) {
-                        RemoteLogger.log(context, Const.LOG_INFO, "Installing app " + application.getPkg() + " from Google Play");
+                        RemoteLogger.log(context, Const.LOG_INFO, "Installing app {} from Google Play", application.getPkg());
                         installApplicationFromPlayMarket(application.getUrl(), application.getPkg());
                         applicationStatus = new ApplicationStatus();
                         applicationStatus.application = application;
                         applicationStatus.installed = true;
 
                     } else if (application.getUrl().startsWith("file:///")) {
-                        RemoteLogger.log(context, Const.LOG_INFO, "Installing app " + application.getPkg() + " from SD card");
+                        RemoteLogger.log(context, Const.LOG_INFO, "Installing app {} from SD card", application.getPkg());
                         applicationStatus = new ApplicationStatus();
                         applicationStatus.application = application;
                         File file = null;
                         try {
-                            Log.d(Const.LOG_TAG, "URL: " + application.getUrl());
+                            RemoteLogger.logcat(Const.LOG_DEBUG, "URL: {}", application.getUrl());
                             file = new File(new URL(application.getUrl()).toURI());
                             if (file != null) {
-                                Log.d(Const.LOG_TAG, "Path: " + file.getAbsolutePath());
+                                RemoteLogger.logcat(Const.LOG_DEBUG, "Path: {}", file.getAbsolutePath());
                                 if (uiNotifier != null) {
                                     uiNotifier.onAppInstalling(application);
                                 }
@@ -624,7 +899,7 @@ public class ConfigUpdater {
 
                         File file = null;
                         try {
-                            RemoteLogger.log(context, Const.LOG_DEBUG, "Downloading app: " + application.getPkg());
+                            RemoteLogger.log(context, Const.LOG_DEBUG, "Downloading app: {}", application.getPkg());
                             file = InstallUtils.downloadFile(context, application.getUrl(),
                                     new InstallUtils.DownloadProgress() {
                                         @Override
@@ -647,7 +922,7 @@ public class ConfigUpdater {
                                         }
                                     });
                         } catch (Exception e) {
-                            RemoteLogger.log(context, Const.LOG_WARN, "Failed to download app " + application.getPkg() + ": " + e.getMessage());
+                            RemoteLogger.log(context, Const.LOG_WARN, "Failed to download app {}: {}", application.getPkg(), e.getMessage());
                             e.printStackTrace();
                         }
 
@@ -698,24 +973,28 @@ public class ConfigUpdater {
                     }
                 }
 
-            }.execute(application);
+            }.setPriority(getTaskPriority()).execute(application);
         } else {
             unregisterAppInstallReceiver();
-            lockRestrictions();
+            if (appsDone != null) {
+                Runnable done = appsDone;
+                appsDone = null;
+                done.run();
+            }
         }
     }
 
-    private void lockRestrictions() {
+    private void lockRestrictionsAndSetActions(final Runnable done) {
         if (settingsHelper.getConfig() != null && settingsHelper.getConfig().getRestrictions() != null) {
             Utils.lockUserRestrictions(context, settingsHelper.getConfig().getRestrictions());
         }
-        setActions();
+        setActions(done);
     }
 
-    private void setActions() {
+    private void setActions(final Runnable done) {
         final ServerConfig config = settingsHelper.getConfig();
         // As per the documentation, setting the default preferred activity should not be done on the main thread
-        new AsyncTask<Void, Void, Void>() {
+        new BackgroundTask<Void, Void>(TaskExecutors.POOL_DISK) {
             @Override
             protected Void doInBackground(Void... voids) {
                 // If kiosk browser is installed, make it a default browser
@@ -732,16 +1011,9 @@ public class ConfigUpdater {
 
             @Override
             protected void onPostExecute(Void v) {
-                if (uiNotifier != null) {
-                    uiNotifier.onConfigUpdateComplete();
-                }
-                // onConfigUpdateComplete() method contents
-                /*
-                Log.i(Const.LOG_TAG, "Showing content from setActions()");
-                showContent(settingsHelper.getConfig());
-                 */
+                done.run();
             }
-        }.execute();
+        }.setPriority(getTaskPriority()).execute();
     }
 
 
@@ -844,13 +1116,13 @@ public class ConfigUpdater {
     }
 
     private void installApplicationFromPlayMarket(final String uri, final String packageName) {
-        RemoteLogger.log(context, Const.LOG_DEBUG, "Asking user to install app " + packageName);
+        RemoteLogger.log(context, Const.LOG_DEBUG, "Asking user to install app {}", packageName);
         Intent intent = new Intent(Intent.ACTION_VIEW);
         intent.setData(Uri.parse(uri));
         try {
             context.startActivity(intent);
         } catch (Exception e) {
-            RemoteLogger.log(context, Const.LOG_DEBUG, "Failed to run app install activity for " + packageName);
+            RemoteLogger.log(context, Const.LOG_DEBUG, "Failed to run app install activity for {}", packageName);
         }
     }
 
@@ -864,7 +1136,7 @@ public class ConfigUpdater {
         pendingInstallations.put(packageName, file);
         String versionData = version == null || version.equals("0") ? "" : " " + version;
         if (Utils.isDeviceOwner(context) || BuildConfig.SYSTEM_PRIVILEGES) {
-            RemoteLogger.log(context, Const.LOG_INFO, "Silently installing app " + packageName + versionData);
+            RemoteLogger.log(context, Const.LOG_INFO, "Silently installing app {}{}", packageName, versionData);
             InstallUtils.silentInstallApplication(context, file, packageName, new InstallUtils.InstallErrorHandler() {
                 @Override
                 public void onInstallError() {
@@ -896,7 +1168,7 @@ public class ConfigUpdater {
                 }
             });
         } else {
-            RemoteLogger.log(context, Const.LOG_INFO, "Asking user to install app " + packageName + versionData);
+            RemoteLogger.log(context, Const.LOG_INFO, "Asking user to install app {}{}", packageName, versionData);
             InstallUtils.requestInstallApplication(context, file, new InstallUtils.InstallErrorHandler() {
                 @Override
                 public void onInstallError() {
@@ -917,10 +1189,10 @@ public class ConfigUpdater {
 
     private void uninstallApplication(final String packageName) {
         if (Utils.isDeviceOwner(context) || BuildConfig.SYSTEM_PRIVILEGES) {
-            RemoteLogger.log(context, Const.LOG_INFO, "Silently uninstall app " + packageName);
+            RemoteLogger.log(context, Const.LOG_INFO, "Silently uninstall app {}", packageName);
             InstallUtils.silentUninstallApplication(context, packageName);
         } else {
-            RemoteLogger.log(context, Const.LOG_INFO, "Asking user to uninstall app " + packageName);
+            RemoteLogger.log(context, Const.LOG_INFO, "Asking user to uninstall app {}", packageName);
             InstallUtils.requestUninstallApplication(context, packageName);
         }
     }
@@ -1,7 +1,6 @@
 package com.hmdm.launcher.helper;
 
 import android.content.Context;
-import android.os.AsyncTask;
 import android.os.Build;
 
 import com.hmdm.launcher.BuildConfig;
@@ -10,6 +9,8 @@ import com.hmdm.launcher.json.ServerConfigResponse;
 import com.hmdm.launcher.server.ServerService;
 import com.hmdm.launcher.server.ServerServiceKeeper;
 import com.hmdm.launcher.server.ServerUrl;
+import com.hmdm.launcher.task.BackgroundTask;
+import com.hmdm.launcher.task.TaskExecutors;
 
 import java.net.MalformedURLException;
 
@@ -43,7 +44,7 @@ public class MigrationHelper {
 
     // Before migration, test that URL is working well
     public void tryNewServer(final Context context, final CompletionHandler completionHandler) {
-        new AsyncTask<Void, Void, String>() {
+        new BackgroundTask<Void, String>(TaskExecutors.POOL_NETWORK) {
             @Override
             protected String doInBackground(Void... voids) {
                 final ServerService newServer;
@@ -0,0 +1,231 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.helper;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.db.DatabaseHelper;
+import com.hmdm.launcher.db.OutboxTable;
+import com.hmdm.launcher.json.DeviceInfo;
+import com.hmdm.launcher.server.ServerService;
+import com.hmdm.launcher.server.ServerServiceKeeper;
+import com.hmdm.launcher.util.RemoteLogger;
+import com.hmdm.launcher.worker.OutboxWorker;
+
+import java.util.List;
+import java.util.UUID;
+
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * Persistent queue of device-to-server write requests.
+ * Each request is stored in the database before sending and deleted when delivered,
+ * so the data is not lost if the server is unreachable: the pending items are sent
+ * in a batch by OutboxWorker when the network is available.
+ * Each item has an idempotency key sent to the server, so repeated delivery is safe.
+ * Items with the same dedupe key supersede each other (only the latest device info is sent).
+ */
+public class Outbox {
+    public static final int TYPE_DEVICE_INFO = 1;
+    public static final int TYPE_CONFIRM_DEVICE_RESET = 2;
+    public static final int TYPE_CONFIRM_REBOOT = 3;
+    public static final int TYPE_CONFIRM_PASSWORD_RESET = 4;
+
+    // Lower value is sent first
+    public static final int PRIORITY_CONFIRMATION = 0;
+    public static final int PRIORITY_STATUS = 1;
+
+    private static final int RESULT_DELIVERED = 0;
+    private static final int RESULT_REJECTED = 1;
+    private static final int RESULT_FAILED = 2;
+
+    // Items being sent are hidden from other flushes for this time
+    private static final long LEASE_MS = 120000;
+    private static final long MAX_AGE_MS = 7 * 24 * 3600000L;
+    private static final int MAX_ATTEMPTS = 50;
+    private static final int FLUSH_BATCH_SIZE = 20;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // Stores and sends the device info, the previous unsent device info is dropped
+    public static boolean sendDeviceInfo(Context context, DeviceInfo deviceInfo) {
+        return send(context, TYPE_DEVICE_INFO, PRIORITY_STATUS, "deviceInfo", deviceInfo, true);
+    }
+
+    // Confirmations of reset and reboot are not kept if failed: the action is not done then,
+    // and the server repeats the request in the next configuration
+    public static boolean confirmDeviceReset(Context context, DeviceInfo deviceInfo) {
+        return send(context, TYPE_CONFIRM_DEVICE_RESET, PRIORITY_CONFIRMATION, null, deviceInfo, false);
+    }
+
+    public static boolean confirmReboot(Context context, DeviceInfo deviceInfo) {
+        return send(context, TYPE_CONFIRM_REBOOT, PRIORITY_CONFIRMATION, null, deviceInfo, false);
+    }
+
+    // The password is already changed when this is called, so the confirmation must be delivered
+    public static boolean confirmPasswordReset(Context context, DeviceInfo deviceInfo) {
+        return send(context, TYPE_CONFIRM_PASSWORD_RESET, PRIORITY_CONFIRMATION, "passwordReset", deviceInfo, true);
+    }
+
+    // Must be called in a background thread. Returns true if the item has been delivered immediately
+    private static boolean send(Context context, int type, int priority, String dedupeKey, Object payload, boolean durable) {
+        OutboxTable.Item item = new OutboxTable.Item();
+        item.type = type;
+        item.priority = priority;
+        item.dedupeKey = dedupeKey;
+        item.idempotencyKey = UUID.randomUUID().toString();
+        item.timestamp = System.currentTimeMillis();
+        item.nextAttemptTimestamp = item.timestamp + LEASE_MS;
+        try {
+            item.payload = mapper.writeValueAsString(payload);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        SQLiteDatabase db = DatabaseHelper.instance(context).getWritableDatabase();
+        if (durable) {
+            OutboxTable.insert(db, item);
+        }
+        int result = deliver(context, item);
+        if (result == RESULT_FAILED) {
+            if (durable) {
+                OutboxTable.updateNextAttempt(db, item.id, 1, System.currentTimeMillis());
+                OutboxWorker.scheduleFlush(context);
+            }
+            return false;
+        }
+        if (durable) {
+            OutboxTable.delete(db, item.id);
+        }
+        return result == RESULT_DELIVERED;
+    }
+
+    // Sends the pending items, returns the number of items left in the outbox
+    public static synchronized int flush(Context context) {
+        SQLiteDatabase db = DatabaseHelper.instance(context).getWritableDatabase();
+        OutboxTable.deleteOldItems(db, System.currentTimeMillis() - MAX_AGE_MS);
+
+        int delivered = 0;
+        boolean failed = false;
+        while (!failed) {
+            long now = System.currentTimeMillis();
+            List<OutboxTable.Item> items = OutboxTable.selectDue(db, now, FLUSH_BATCH_SIZE);
+            if (items.size() == 0) {
+                break;
+            }
+            for (OutboxTable.Item item : items) {
+                OutboxTable.updateNextAttempt(db, item.id, item.attempts, now + LEASE_MS);
+                int result = deliver(context, item);
+                if (result == RESULT_FAILED) {
+                    if (item.attempts + 1 >= MAX_ATTEMPTS) {
+                        RemoteLogger.log(context, Const.LOG_WARN, "Outbox item of type " + item.type + " dropped after " +
+                                MAX_ATTEMPTS + " attempts");
+                        OutboxTable.delete(db, item.id);
+                    } else {
+                        OutboxTable.updateNextAttempt(db, item.id, item.attempts + 1, now);
+                    }
+                    // Most likely the server is unreachable, retry later
+                    failed = true;
+                    break;
+                }
+                OutboxTable.delete(db, item.id);
+                delivered++;
+            }
+        }
+        int remaining = OutboxTable.count(db);
+        if (delivered > 0 || remaining > 0) {
+            RemoteLogger.log(context, Const.LOG_DEBUG, "Outbox flushed: " + delivered + " items sent, " + remaining + " pending");
+        }
+        return remaining;
+    }
+
+    private interface Request {
+        Call<ResponseBody> create(ServerService serverService, String project);
+    }
+
+    private static int deliver(Context context, final OutboxTable.Item item) {
+        final DeviceInfo deviceInfo;
+        try {
+            deviceInfo = mapper.readValue(item.payload, DeviceInfo.class);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return RESULT_REJECTED;
+        }
+        switch (item.type) {
+            case TYPE_DEVICE_INFO:
+                return execute(context, true, (serverService, project) ->
+                        serverService.sendDevice(project, item.idempotencyKey, deviceInfo));
+            case TYPE_CONFIRM_DEVICE_RESET:
+                return execute(context, false, (serverService, project) ->
+                        serverService.confirmDeviceReset(project, deviceInfo.getDeviceId(), item.idempotencyKey, deviceInfo));
+            case TYPE_CONFIRM_REBOOT:
+                return execute(context, false, (serverService, project) ->
+                        serverService.confirmReboot(project, deviceInfo.getDeviceId(), item.idempotencyKey, deviceInfo));
+            case TYPE_CONFIRM_PASSWORD_RESET:
+                return execute(context, false, (serverService, project) ->
+                        serverService.confirmPasswordReset(project, deviceInfo.getDeviceId(), item.idempotencyKey, deviceInfo));
+            default:
+                return RESULT_REJECTED;
+        }
+    }
+
+    private static int execute(Context context, boolean updateExternalIp, Request request) {
+        SettingsHelper settingsHelper = SettingsHelper.getInstance(context);
+        ServerService[] serverServices = ServerServiceKeeper.getServerServices(context);
+        ServerService serverService = serverServices[0];
+        ServerService secondaryServerService = serverServices[1];
+        Response<ResponseBody> response = null;
+
+        try {
+            response = request.create(serverService, settingsHelper.getServerProject()).execute();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        try {
+            if (response == null) {
+                response = request.create(secondaryServerService, settingsHelper.getServerProject()).execute();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return RESULT_FAILED;
+        }
+
+        if (response.isSuccessful()) {
+            if (updateExternalIp) {
+                settingsHelper.setExternalIp(response.headers().get(Const.HEADER_IP_ADDRESS));
+            }
+            return RESULT_DELIVERED;
+        }
+        int code = response.code();
+        if (code >= 400 && code < 500 && code != 408 && code != 429) {
+            // The server refused the request, there's no sense to repeat it
+            RemoteLogger.log(context, Const.LOG_WARN, "Outbox request rejected by server: HTTP " + code);
+            return RESULT_REJECTED;
+        }
+        return RESULT_FAILED;
+    }
+}
@@ -48,6 +48,7 @@ public class SettingsHelper {
     private static final String PREF_KEY_GROUP = ".helpers.GROUP";
     private static final String PREF_KEY_DEVICE_ID_USE = ".helpers.DEVICE_ID_USE";
     private static final String PREF_KEY_CONFIG = ".helpers.CONFIG";
+    private static final String PREF_KEY_SERVER_CONFIG_JSON = ".helpers.SERVER_CONFIG_JSON";
     private static final String PREF_KEY_IP_ADDRESS = ".helpers.IP_ADDRESS";
     private static final String PREF_QR_PROVISIONING = ".helpers.QR_PROVISIONING";
     private static final String PREF_CFG_UPDATE_TIMESTAMP = ".helpers.CFG_UPDATE_TIMESTAMP";
@@ -64,7 +65,8 @@ public class SettingsHelper {
 
     private static SettingsHelper instance;
 
-    public static SettingsHelper getInstance(Context context) {
+    // Synchronized because the instance is created in a background thread at startup
+    public static synchronized SettingsHelper getInstance(Context context) {
         if (instance == null) {
             instance = new SettingsHelper(context);
         }
@@ -243,6 +245,15 @@ public class SettingsHelper {
         this.config = config;
     }
 
+    // Configuration as it has been sent by the server (required to apply config patches)
+    public String getServerConfigJson() {
+        return sharedPreferences.getString(PACKAGE_NAME + PREF_KEY_SERVER_CONFIG_JSON, null);
+    }
+
+    public boolean setServerConfigJson(String configJson) {
+        return sharedPreferences.edit().putString(PACKAGE_NAME + PREF_KEY_SERVER_CONFIG_JSON, configJson).commit();
+    }
+
     public ServerConfig getConfig() {
         return config;
     }
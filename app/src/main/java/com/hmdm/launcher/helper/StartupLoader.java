@@ -0,0 +1,147 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.helper;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.task.TaskExecutors;
+import com.hmdm.launcher.ui.AppShortcutManager;
+import com.hmdm.launcher.util.RemoteLogger;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Loads the stored configuration, preferences and the installed package index in the background
+ * when the process starts, so the launcher doesn't do this work in the main thread before the first frame.
+ * Also measures the startup timings (time to first frame and time to interactive).
+ */
+public class StartupLoader {
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final List<Runnable> readyCallbacks = new LinkedList<>();
+
+    private static boolean started = false;
+    private static volatile boolean ready = false;
+    private static long startTime;
+    private static long readyTime;
+    private static long firstFrameTime;
+    private static boolean interactive = false;
+
+    // Called from Application.onCreate(), subsequent calls are ignored
+    public static synchronized void start(Context context) {
+        if (started) {
+            return;
+        }
+        started = true;
+        startTime = getProcessStartTime();
+        final Context appContext = context.getApplicationContext();
+        TaskExecutors.execute(TaskExecutors.POOL_DISK, TaskExecutors.PRIORITY_USER, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // Parses the stored configuration
+                    SettingsHelper.getInstance(appContext);
+                    // Shared preferences are loaded asynchronously, getAll() waits until they're loaded
+                    appContext.getSharedPreferences(Const.PREFERENCES, Context.MODE_PRIVATE).getAll();
+                    AppShortcutManager.getInstance().buildPackageIndex(appContext);
+                } catch (Exception e) {
+                    // The data will be loaded again on demand
+                    e.printStackTrace();
+                }
+                setReady();
+            }
+        });
+    }
+
+    private static long getProcessStartTime() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartElapsedRealtime();
+        }
+        return SystemClock.elapsedRealtime();
+    }
+
+    private static void setReady() {
+        List<Runnable> callbacks;
+        synchronized (StartupLoader.class) {
+            ready = true;
+            readyTime = SystemClock.elapsedRealtime();
+            callbacks = new LinkedList<>(readyCallbacks);
+            readyCallbacks.clear();
+        }
+        for (Runnable callback : callbacks) {
+            mainHandler.post(callback);
+        }
+    }
+
+    public static boolean isReady() {
+        return ready;
+    }
+
+    // The callback is always run in the main thread, immediately if the data is already loaded
+    public static void whenReady(Context context, Runnable callback) {
+        synchronized (StartupLoader.class) {
+            if (!ready) {
+                readyCallbacks.add(callback);
+                // Normally the loader is already started by the Application
+                start(context);
+                return;
+            }
+        }
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            callback.run();
+        } else {
+            mainHandler.post(callback);
+        }
+    }
+
+    // Records the moment when the view is drawn first time
+    public static void observeFirstFrame(final View view) {
+        view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                view.getViewTreeObserver().removeOnPreDrawListener(this);
+                if (firstFrameTime == 0) {
+                    firstFrameTime = SystemClock.elapsedRealtime();
+                }
+                return true;
+            }
+        });
+    }
+
+    // Called when the launcher content is displayed and can be used, reports the timings once
+    public static void reportInteractive(Context context) {
+        if (interactive) {
+            return;
+        }
+        interactive = true;
+        long now = SystemClock.elapsedRealtime();
+        RemoteLogger.log(context, Const.LOG_INFO, "Startup timings: data loaded in " + (readyTime - startTime) +
+                "ms, first frame in " + (firstFrameTime > 0 ? (firstFrameTime - startTime) + "ms" : "n/a") +
+                ", interactive in " + (now - startTime) + "ms");
+    }
+}
@@ -29,8 +29,14 @@ public class PushMessage {
     private String payload;
 
     public static final String TYPE_CONFIG_UPDATED = "configUpdated";
+    public static final String TYPE_CONFIG_PATCH = "configPatch";
     public static final String TYPE_RUN_APP = "runApp";
 
+    // Optional payload fields controlling the load shaping of the push-triggered updates
+    public static final String PAYLOAD_PRIORITY = "priority";
+    public static final String PAYLOAD_JITTER = "jitter";
+    public static final String PRIORITY_HIGH = "high";
+
     public String getMessageType() {
         return messageType;
     }
@@ -57,4 +63,16 @@ public class PushMessage {
         }
         return null;
     }
+
+    // Urgent messages are processed immediately, without the random delay
+    public boolean isHighPriority() {
+        JSONObject payload = getPayloadJSON();
+        return payload != null && PRIORITY_HIGH.equals(payload.optString(PAYLOAD_PRIORITY));
+    }
+
+    // Jitter window set by the message, seconds, or -1 if not set
+    public int getJitterWindow() {
+        JSONObject payload = getPayloadJSON();
+        return payload != null ? payload.optInt(PAYLOAD_JITTER, -1) : -1;
+    }
 }
@@ -21,6 +21,7 @@ package com.hmdm.launcher.json;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 @JsonIgnoreProperties( ignoreUnknown = true )
 public class RemoteLogItem {
@@ -31,6 +32,11 @@ public class RemoteLogItem {
     private int logLevel;
     private String packageId;
     private String message;
+    // Set only for collapsed repeats: timestamp is the first occurrence then
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer count;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long lastTimestamp;
 
     @JsonIgnore
     public long getId() {
@@ -73,4 +79,20 @@ public class RemoteLogItem {
     public void setMessage(String message) {
         this.message = message;
     }
+
+    public Integer getCount() {
+        return count;
+    }
+
+    public void setCount(Integer count) {
+        this.count = count;
+    }
+
+    public Long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public void setLastTimestamp(Long lastTimestamp) {
+        this.lastTimestamp = lastTimestamp;
+    }
 }
@@ -60,6 +60,12 @@ public class ServerConfig {
     private String pushOptions;
     private Integer keepaliveTime;
     private String requestUpdates;
+    // Server accepts gzip-compressed request bodies
+    private Boolean gzipRequests;
+    // Server supports the binary JSON format (Smile)
+    private Boolean smileEncoding;
+    // Push-triggered updates are spread randomly over this window, seconds
+    private Integer pushJitterWindow;
 
     private Boolean usbStorage;
     private Boolean autoBrightness;
@@ -117,6 +123,7 @@ public class ServerConfig {
     public static final String PUSH_OPTIONS_MQTT_WORKER = "mqttWorker";
     public static final String PUSH_OPTIONS_MQTT_ALARM = "mqttAlarm";
     public static final String PUSH_OPTIONS_POLLING = "polling";
+    public static final String PUSH_OPTIONS_LONG_POLLING = "longPolling";
 
     public ServerConfig() {}
 
@@ -352,6 +359,30 @@ public class ServerConfig {
         this.requestUpdates = requestUpdates;
     }
 
+    public Boolean getGzipRequests() {
+        return gzipRequests;
+    }
+
+    public void setGzipRequests(Boolean gzipRequests) {
+        this.gzipRequests = gzipRequests;
+    }
+
+    public Boolean getSmileEncoding() {
+        return smileEncoding;
+    }
+
+    public void setSmileEncoding(Boolean smileEncoding) {
+        this.smileEncoding = smileEncoding;
+    }
+
+    public Integer getPushJitterWindow() {
+        return pushJitterWindow;
+    }
+
+    public void setPushJitterWindow(Integer pushJitterWindow) {
+        this.pushJitterWindow = pushJitterWindow;
+    }
+
     public Boolean getUsbStorage() {
         return usbStorage;
     }
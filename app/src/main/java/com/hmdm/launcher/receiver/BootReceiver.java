@@ -14,6 +14,7 @@ import com.hmdm.launcher.json.ServerConfig;
 import com.hmdm.launcher.pro.service.CheckForegroundAppAccessibilityService;
 import com.hmdm.launcher.pro.service.CheckForegroundApplicationService;
 import com.hmdm.launcher.service.StatusControlService;
+import com.hmdm.launcher.util.PushNotificationLongPoller;
 import com.hmdm.launcher.util.RemoteLogger;
 import com.hmdm.launcher.util.Utils;
 
@@ -89,6 +90,10 @@ public class BootReceiver extends BroadcastReceiver {
                 e.printStackTrace();
             }
         }
+        if (BuildConfig.ENABLE_PUSH && ServerConfig.PUSH_OPTIONS_LONG_POLLING.equals(pushOptions)) {
+            Log.i(Const.LOG_TAG, "Starting push long polling from BootReceiver");
+            PushNotificationLongPoller.startService(context);
+        }
 
         // Start required services here instead of MainActivity (because it's not running)
         SharedPreferences preferences = context.getApplicationContext().getSharedPreferences(Const.PREFERENCES, MODE_PRIVATE);
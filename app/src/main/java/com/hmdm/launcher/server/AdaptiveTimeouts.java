@@ -0,0 +1,312 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.server;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+
+import com.hmdm.launcher.Const;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Sets the timeouts of each request by the round trip time observed for the same server,
+ * request class and network type (TCP-like estimation: smoothed RTT plus four deviations),
+ * and retries idempotent requests with jittered exponential delays within the class deadline.
+ * Until there are enough samples, the fixed Const.CONNECTION_TIMEOUT is used.
+ */
+public class AdaptiveTimeouts implements Interceptor {
+    // Push polling and other short requests with small responses
+    public static final int CLASS_POLL = 0;
+    public static final int CLASS_DEFAULT = 1;
+    // Configuration requests: the server may take a while to build the response
+    public static final int CLASS_CONFIG = 2;
+    // Long polling: the response time is set by the server, so it is neither adapted nor retried
+    public static final int CLASS_LONG_POLL = 3;
+    // Requests with a large body (logs, detailed info): the time depends on the body size
+    public static final int CLASS_UPLOAD = 4;
+
+    // Total time for a request of each class including retries, ms
+    // (the upload deadline is extended by the body size)
+    private static final long[] DEADLINES = {30000, 60000, 120000, 0, 60000};
+    // Expected response sizes, used to extend the deadline on slow networks
+    private static final long[] EXPECTED_SIZES = {2048, 16384, 262144, 0, 2048};
+
+    // Request bodies starting from this size are uploads
+    private static final long UPLOAD_MIN_BYTES = 16384;
+    // Pessimistic rate of sending and processing an upload, bytes per ms (128 kbit/s)
+    private static final long MIN_UPLOAD_RATE = 16;
+
+    // Timeouts are not set lower than these values, to avoid abandoning a slow network too early
+    private static final long MIN_TIMEOUT_WIFI = 3000;
+    private static final long MIN_TIMEOUT_MOBILE = 8000;
+    // and not higher than this value (multiplied by the backoff after timeouts)
+    private static final long MAX_TIMEOUT = 60000;
+
+    private static final int MIN_SAMPLES = 3;
+    private static final int MAX_BACKOFF = 4;
+
+    private static final int MAX_RETRIES = 2;
+    private static final long RETRY_BASE_DELAY = 500;
+
+    // Throughput is only estimated by responses large enough to not be dominated by latency
+    private static final long MIN_THROUGHPUT_BYTES = 16384;
+
+    private static final String NETWORK_WIFI = "wifi";
+    private static final String NETWORK_MOBILE = "mobile";
+    private static final String NETWORK_OTHER = "other";
+
+    private static final Map<String, Estimator> estimators = new HashMap<>();
+    private static final Random random = new Random();
+
+    private final Context context;
+
+    private static class Estimator {
+        int samples;
+        double srtt;
+        double rttvar;
+        // Bytes per ms, 0 if unknown
+        double throughput;
+        // Doubled after each timeout and reset by the next successful response (like TCP RTO backoff)
+        int backoff = 1;
+
+        synchronized void addRtt(long rtt) {
+            if (samples == 0) {
+                srtt = rtt;
+                rttvar = rtt / 2.0;
+            } else {
+                rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - rtt);
+                srtt = 0.875 * srtt + 0.125 * rtt;
+            }
+            samples++;
+            backoff = 1;
+        }
+
+        synchronized void addThroughput(long bytes, long time) {
+            double value = (double) bytes / Math.max(time, 1);
+            throughput = throughput == 0 ? value : 0.75 * throughput + 0.25 * value;
+        }
+
+        synchronized void onTimeout() {
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        }
+
+        // Retransmission timeout, or -1 if there are not enough samples
+        synchronized long getRto() {
+            if (samples < MIN_SAMPLES) {
+                return -1;
+            }
+            return (long) (srtt + 4 * rttvar) * backoff;
+        }
+
+        synchronized long getExtraDeadline(long expectedSize) {
+            return throughput > 0 ? (long) (expectedSize / throughput) : 0;
+        }
+    }
+
+    public AdaptiveTimeouts(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        long bodySize = getBodySize(request);
+        int requestClass = bodySize >= UPLOAD_MIN_BYTES ? CLASS_UPLOAD : getRequestClass(request.url());
+        if (requestClass == CLASS_LONG_POLL) {
+            return chain
+                    .withReadTimeout((int) Const.LONG_POLLING_READ_TIMEOUT, TimeUnit.MILLISECONDS)
+                    .proceed(request);
+        }
+        String network = getNetworkType();
+        String key = request.url().host() + "|" + requestClass + "|" + network;
+        long transferTime = 0;
+        if (requestClass == CLASS_UPLOAD) {
+            // Uploads of similar size are estimated together: size buckets are powers of two
+            key += "|" + (64 - Long.numberOfLeadingZeros(bodySize / UPLOAD_MIN_BYTES));
+            transferTime = bodySize / MIN_UPLOAD_RATE;
+        }
+        final Estimator estimator = getEstimator(key);
+        boolean retryable = isRetryable(request);
+        long minTimeout = getMinTimeout(network) + transferTime;
+
+        long start = SystemClock.elapsedRealtime();
+        long deadline = start + DEADLINES[requestClass] +
+                2 * (estimator.getExtraDeadline(EXPECTED_SIZES[requestClass]) + transferTime);
+        int attempt = 0;
+        while (true) {
+            long timeout = getTimeout(estimator, minTimeout);
+            long remaining = deadline - SystemClock.elapsedRealtime();
+            timeout = Math.max(Math.min(timeout, remaining), 1);
+
+            long attemptStart = SystemClock.elapsedRealtime();
+            try {
+                Response response = chain
+                        .withConnectTimeout((int) timeout, TimeUnit.MILLISECONDS)
+                        .withReadTimeout((int) timeout, TimeUnit.MILLISECONDS)
+                        .withWriteTimeout((int) timeout, TimeUnit.MILLISECONDS)
+                        .proceed(request);
+                // Time to response headers includes the connection setup if there was no pooled connection,
+                // this makes the estimation a bit pessimistic which is fine for timeouts
+                estimator.addRtt(SystemClock.elapsedRealtime() - attemptStart);
+                return measureThroughput(response, estimator);
+            } catch (IOException e) {
+                if (e instanceof SocketTimeoutException) {
+                    estimator.onTimeout();
+                }
+                if (!retryable || attempt >= MAX_RETRIES || chain.call().isCanceled()) {
+                    throw e;
+                }
+                // Full jitter: random delay up to the exponentially growing limit
+                long delay = (long) (random.nextDouble() * (RETRY_BASE_DELAY << attempt));
+                if (SystemClock.elapsedRealtime() + delay + minTimeout >= deadline) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    throw new InterruptedIOException("Interrupted while waiting for retry");
+                }
+                attempt++;
+            }
+        }
+    }
+
+    private static long getTimeout(Estimator estimator, long minTimeout) {
+        long rto = estimator.getRto();
+        if (rto < 0) {
+            return Math.max(Const.CONNECTION_TIMEOUT, minTimeout);
+        }
+        return Math.max(Math.min(rto, MAX_TIMEOUT), minTimeout);
+    }
+
+    private static long getMinTimeout(String network) {
+        return NETWORK_WIFI.equals(network) ? MIN_TIMEOUT_WIFI : MIN_TIMEOUT_MOBILE;
+    }
+
+    // Body size in bytes; a body of unknown size is treated as the smallest upload
+    private static long getBodySize(Request request) {
+        if (request.body() == null) {
+            return 0;
+        }
+        try {
+            long size = request.body().contentLength();
+            return size >= 0 ? size : UPLOAD_MIN_BYTES;
+        } catch (IOException e) {
+            return UPLOAD_MIN_BYTES;
+        }
+    }
+
+    private static Estimator getEstimator(String key) {
+        synchronized (estimators) {
+            Estimator estimator = estimators.get(key);
+            if (estimator == null) {
+                estimator = new Estimator();
+                estimators.put(key, estimator);
+            }
+            return estimator;
+        }
+    }
+
+    public static int getRequestClass(HttpUrl url) {
+        String path = url.encodedPath();
+        if (path.contains("/rest/public/sync/configuration/")) {
+            return CLASS_CONFIG;
+        }
+        if (path.contains("/rest/notifications/device/")) {
+            return CLASS_POLL;
+        }
+        if (path.contains("/rest/notifications/polling/")) {
+            return CLASS_LONG_POLL;
+        }
+        return CLASS_DEFAULT;
+    }
+
+    // Reads are safe to repeat, writes only if the server can detect a duplicate
+    private static boolean isRetryable(Request request) {
+        return request.method().equals("GET") || request.header(ServerService.IDEMPOTENCY_KEY_HEADER) != null;
+    }
+
+    private String getNetworkType() {
+        try {
+            ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkInfo info = cm.getActiveNetworkInfo();
+            if (info != null) {
+                if (info.getType() == ConnectivityManager.TYPE_WIFI || info.getType() == ConnectivityManager.TYPE_ETHERNET) {
+                    return NETWORK_WIFI;
+                }
+                if (info.getType() == ConnectivityManager.TYPE_MOBILE) {
+                    return NETWORK_MOBILE;
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return NETWORK_OTHER;
+    }
+
+    // The body is read by the caller after the interceptor returns, so the throughput is measured by the source
+    private static Response measureThroughput(Response response, final Estimator estimator) {
+        final ResponseBody body = response.body();
+        if (body == null || (body.contentLength() >= 0 && body.contentLength() < MIN_THROUGHPUT_BYTES)) {
+            return response;
+        }
+        final long start = SystemClock.elapsedRealtime();
+        Source source = new ForwardingSource(body.source()) {
+            private long bytes;
+            private boolean done;
+
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long read = super.read(sink, byteCount);
+                if (read == -1) {
+                    if (!done && bytes >= MIN_THROUGHPUT_BYTES) {
+                        estimator.addThroughput(bytes, SystemClock.elapsedRealtime() - start);
+                    }
+                    done = true;
+                } else {
+                    bytes += read;
+                }
+                return read;
+            }
+        };
+        return response.newBuilder()
+                .body(ResponseBody.create(body.contentType(), body.contentLength(), Okio.buffer(source)))
+                .build();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.server;
+
+import android.os.SystemClock;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.Dns;
+
+/**
+ * DNS resolver caching the results for a fixed time. If the lookup fails, a recently expired
+ * result is used to survive temporary DNS failures. The cache is cleared when the network changes.
+ */
+public class CachingDns implements Dns {
+    // Java doesn't expose the record TTL, so a fixed value is used
+    public static final long TTL = 5 * 60000L;
+    // Expired results are used as fallback for this time
+    public static final long MAX_STALE = 60 * 60000L;
+
+    private static CachingDns instance;
+
+    private static class Entry {
+        List<InetAddress> addresses;
+        long resolved;
+    }
+
+    private final Map<String, Entry> cache = new HashMap<>();
+
+    public static synchronized CachingDns getInstance() {
+        if (instance == null) {
+            instance = new CachingDns();
+        }
+        return instance;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        long now = SystemClock.elapsedRealtime();
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(hostname);
+        }
+        if (entry != null && now - entry.resolved < TTL) {
+            return entry.addresses;
+        }
+
+        try {
+            // The lookup is done outside the lock so a slow lookup doesn't block other hosts
+            List<InetAddress> addresses = Dns.SYSTEM.lookup(hostname);
+            Entry resolved = new Entry();
+            resolved.addresses = addresses;
+            resolved.resolved = SystemClock.elapsedRealtime();
+            synchronized (cache) {
+                cache.put(hostname, resolved);
+            }
+            return addresses;
+        } catch (UnknownHostException e) {
+            if (entry != null && now - entry.resolved < MAX_STALE) {
+                return entry.addresses;
+            }
+            throw e;
+        }
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.server;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.task.TaskExecutors;
+import com.hmdm.launcher.worker.LogUploadScheduler;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Opens a connection to the active server in advance (DNS, TCP and TLS setup) so the next request,
+ * usually the configuration fetch, finds a ready connection in the shared pool.
+ * Requests started while the connection is being opened wait for it instead of opening another one.
+ */
+public class ConnectionPrewarmer {
+    // Repeated pre-warming of the same server is skipped within this interval
+    private static final long MIN_INTERVAL = 60000;
+
+    private static String lastHost;
+    private static long lastTime;
+    private static CountDownLatch inFlight;
+    private static String inFlightHost;
+    private static Network lastNetwork;
+
+    public static void prewarm(Context context) {
+        final Context appContext = context.getApplicationContext();
+        TaskExecutors.execute(TaskExecutors.POOL_NETWORK, TaskExecutors.PRIORITY_BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                prewarmSync(appContext);
+            }
+        });
+    }
+
+    private static void prewarmSync(Context context) {
+        HttpUrl url;
+        try {
+            url = HttpUrl.parse(ServerServiceKeeper.getActiveBaseUrl(context));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
+        if (url == null) {
+            return;
+        }
+        try {
+            // The server asked to wait (Retry-After): don't add load on every network change
+            ServerBackoff.checkHost(url.host());
+        } catch (ServerBackoff.ServerBusyException e) {
+            Log.d(Const.LOG_TAG, "Connection pre-warming skipped: " + e.getMessage());
+            return;
+        }
+
+        CountDownLatch latch;
+        synchronized (ConnectionPrewarmer.class) {
+            long now = SystemClock.elapsedRealtime();
+            if (inFlight != null || (url.host().equals(lastHost) && now - lastTime < MIN_INTERVAL)) {
+                return;
+            }
+            lastHost = url.host();
+            lastTime = now;
+            inFlight = latch = new CountDownLatch(1);
+            inFlightHost = url.host();
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        try {
+            // Any response is fine: the connection stays in the pool after the response is closed.
+            // A busy response sets the backoff for the next requests
+            OkHttpClient client = ServerServiceKeeper.getBaseClient().newBuilder()
+                    .addInterceptor(new ServerBackoff())
+                    .eventListenerFactory(NetworkStats.getEventListenerFactory(context))
+                    .build();
+            Response response = client.newCall(new Request.Builder().url(url).head().build()).execute();
+            response.close();
+            Log.d(Const.LOG_TAG, "Connection to " + url.host() + " pre-warmed in " + (SystemClock.elapsedRealtime() - start) + " ms");
+        } catch (Exception e) {
+            Log.d(Const.LOG_TAG, "Failed to pre-warm connection to " + url.host() + ": " + e.getMessage());
+        } finally {
+            synchronized (ConnectionPrewarmer.class) {
+                inFlight = null;
+                inFlightHost = null;
+            }
+            latch.countDown();
+        }
+    }
+
+    // Connections of the previous network are dead, so they are dropped and the new network is pre-warmed
+    public static void onNetworkChanged(Context context) {
+        final Context appContext = context.getApplicationContext();
+        TaskExecutors.execute(TaskExecutors.POOL_NETWORK, TaskExecutors.PRIORITY_BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                CachingDns.getInstance().clear();
+                ServerServiceKeeper.getBaseClient().connectionPool().evictAll();
+                synchronized (ConnectionPrewarmer.class) {
+                    lastHost = null;
+                }
+                prewarmSync(appContext);
+                LogUploadScheduler.onNetworkAvailable(appContext);
+            }
+        });
+    }
+
+    // On older Android versions, network changes are reported by MainActivity via CONNECTIVITY_ACTION
+    @TargetApi(Build.VERSION_CODES.N)
+    public static void registerNetworkCallback(final Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return;
+        }
+        try {
+            ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            cm.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    Network previous;
+                    synchronized (ConnectionPrewarmer.class) {
+                        previous = lastNetwork;
+                        lastNetwork = network;
+                    }
+                    // The callback is also called at registration, this is not a change
+                    if (previous != null && !previous.equals(network)) {
+                        onNetworkChanged(context);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Makes requests to the server being pre-warmed wait for the connection instead of opening a parallel one
+    public static Interceptor getInterceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                CountDownLatch latch;
+                synchronized (ConnectionPrewarmer.class) {
+                    latch = chain.request().url().host().equals(inFlightHost) ? inFlight : null;
+                }
+                if (latch != null) {
+                    try {
+                        latch.await(Const.CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return chain.proceed(chain.request());
+            }
+        };
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.server;
+
+import android.content.Context;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.hmdm.launcher.helper.SettingsHelper;
+import com.hmdm.launcher.json.ServerConfig;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+
+/**
+ * Jackson converters negotiating the payload format with the server.
+ * Responses are decoded according to their Content-Type (Smile or JSON).
+ * Request bodies of the methods annotated by @BinaryEncoded are encoded in Smile
+ * if the server declared the support by the smileEncoding configuration flag, otherwise in JSON.
+ */
+public class EncodingConverterFactory extends Converter.Factory {
+    public static final String MEDIA_TYPE_JSON = "application/json; charset=UTF-8";
+    public static final String MEDIA_TYPE_SMILE = "application/x-jackson-smile";
+    // Value of the Accept header for the requests which may get a Smile response
+    public static final String ACCEPT_SMILE = MEDIA_TYPE_SMILE + ", application/json;q=0.9";
+    public static final String ACCEPT_JSON = "application/json";
+
+    private static final MediaType JSON = MediaType.parse(MEDIA_TYPE_JSON);
+    private static final MediaType SMILE = MediaType.parse(MEDIA_TYPE_SMILE);
+
+    private static final ObjectMapper jsonMapper = new ObjectMapper();
+    private static final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+
+    private final Context context;
+
+    public EncodingConverterFactory(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public static ObjectMapper getSmileMapper() {
+        return smileMapper;
+    }
+
+    public static boolean isSmile(MediaType mediaType) {
+        return mediaType != null && SMILE.type().equals(mediaType.type()) && SMILE.subtype().equals(mediaType.subtype());
+    }
+
+    // True if the server supports Smile requests and responses
+    public static boolean isSmileEnabled(Context context) {
+        ServerConfig config = SettingsHelper.getInstance(context).getConfig();
+        return config != null && config.getSmileEncoding() != null && config.getSmileEncoding();
+    }
+
+    @Override
+    public Converter<ResponseBody, ?> responseBodyConverter(Type type, Annotation[] annotations, Retrofit retrofit) {
+        JavaType javaType = jsonMapper.getTypeFactory().constructType(type);
+        final ObjectReader jsonReader = jsonMapper.readerFor(javaType);
+        final ObjectReader smileReader = smileMapper.readerFor(javaType);
+        return new Converter<ResponseBody, Object>() {
+            @Override
+            public Object convert(ResponseBody value) throws IOException {
+                try {
+                    if (isSmile(value.contentType())) {
+                        return smileReader.readValue(value.byteStream());
+                    }
+                    return jsonReader.readValue(value.charStream());
+                } finally {
+                    value.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public Converter<?, RequestBody> requestBodyConverter(Type type, Annotation[] parameterAnnotations,
+                                                          Annotation[] methodAnnotations, Retrofit retrofit) {
+        JavaType javaType = jsonMapper.getTypeFactory().constructType(type);
+        final ObjectWriter jsonWriter = jsonMapper.writerFor(javaType);
+        final ObjectWriter smileWriter = smileMapper.writerFor(javaType);
+        final boolean binaryEncoded = isBinaryEncoded(methodAnnotations);
+        return new Converter<Object, RequestBody>() {
+            @Override
+            public RequestBody convert(Object value) throws IOException {
+                if (binaryEncoded && isSmileEnabled(context)) {
+                    return RequestBody.create(SMILE, smileWriter.writeValueAsBytes(value));
+                }
+                return RequestBody.create(JSON, jsonWriter.writeValueAsBytes(value));
+            }
+        };
+    }
+
+    private static boolean isBinaryEncoded(Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            if (annotation instanceof BinaryEncoded) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.server;
+
+import android.content.Context;
+
+import com.hmdm.launcher.helper.SettingsHelper;
+import com.hmdm.launcher.json.ServerConfig;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Compresses request bodies (logs, device info) by gzip if the server supports it.
+ * The support is declared by the server in the configuration (gzipRequests flag).
+ */
+public class GzipRequestInterceptor implements Interceptor {
+    // Small bodies are not worth compressing
+    public static final long MIN_COMPRESSED_SIZE = 1024;
+
+    private static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+
+    private final Context context;
+
+    public GzipRequestInterceptor(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        RequestBody body = request.body();
+        if (body == null || request.header(CONTENT_ENCODING_HEADER) != null || !isEnabled()) {
+            return chain.proceed(request);
+        }
+
+        Buffer plain = new Buffer();
+        body.writeTo(plain);
+        if (plain.size() < MIN_COMPRESSED_SIZE) {
+            return chain.proceed(request.newBuilder()
+                    .method(request.method(), RequestBody.create(body.contentType(), plain.readByteString()))
+                    .build());
+        }
+
+        // Compress into a buffer to send the body with a known Content-Length
+        Buffer compressed = new Buffer();
+        BufferedSink gzipSink = Okio.buffer(new GzipSink(compressed));
+        gzipSink.writeAll(plain);
+        gzipSink.close();
+
+        return chain.proceed(request.newBuilder()
+                .header(CONTENT_ENCODING_HEADER, "gzip")
+                .method(request.method(), RequestBody.create(body.contentType(), compressed.readByteString()))
+                .build());
+    }
+
+    private boolean isEnabled() {
+        ServerConfig config = SettingsHelper.getInstance(context).getConfig();
+        return config != null && config.getGzipRequests() != null && config.getGzipRequests();
+    }
+}
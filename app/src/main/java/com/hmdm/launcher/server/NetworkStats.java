@@ -0,0 +1,349 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.server;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.hmdm.launcher.helper.SettingsHelper;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Per-endpoint network statistics: DNS, connect, TLS, time to first byte and body transfer
+ * histograms, transferred bytes and errors. The data is collected by the OkHttp event listener
+ * attached to the server clients, and by the file download routine.
+ */
+public class NetworkStats {
+    // Upper bounds of the histogram buckets, ms; the last bucket is unbounded
+    private static final long[] BUCKETS = {50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    // Endpoints beyond this limit are merged into one entry per host
+    private static final int MAX_ENDPOINTS = 32;
+
+    private static final String DEVICE_NUMBER_PLACEHOLDER = "{number}";
+
+    private static final Map<String, EndpointStats> endpoints = new LinkedHashMap<>();
+
+    public static class Histogram {
+        private final int[] counts = new int[BUCKETS.length + 1];
+        private int total;
+        private long sum;
+
+        public void add(long ms) {
+            int i = 0;
+            while (i < BUCKETS.length && ms > BUCKETS[i]) {
+                i++;
+            }
+            counts[i]++;
+            total++;
+            sum += ms;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        // Upper bound of the bucket containing the percentile, or -1 if it is in the unbounded bucket
+        public long getPercentile(int percent) {
+            int rank = (int) Math.ceil(total * percent / 100.0);
+            int count = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                count += counts[i];
+                if (count >= rank) {
+                    return BUCKETS[i];
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public String toString() {
+            if (total == 0) {
+                return "-";
+            }
+            return "avg " + (sum / total) + " p50<" + formatBound(getPercentile(50)) +
+                    " p90<" + formatBound(getPercentile(90));
+        }
+
+        private static String formatBound(long bound) {
+            return bound < 0 ? "inf" : Long.toString(bound);
+        }
+    }
+
+    public static class EndpointStats {
+        public final Histogram dns = new Histogram();
+        public final Histogram connect = new Histogram();
+        public final Histogram tls = new Histogram();
+        public final Histogram ttfb = new Histogram();
+        public final Histogram body = new Histogram();
+        public int calls;
+        public long bytesSent;
+        public long bytesReceived;
+        // Key is HTTP status code or exception class name
+        public final Map<String, Integer> errors = new LinkedHashMap<>();
+
+        private void addError(String error) {
+            Integer count = errors.get(error);
+            errors.put(error, count == null ? 1 : count + 1);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(calls).append(" calls, in ").append(bytesReceived / 1024).append("K, out ")
+                    .append(bytesSent / 1024).append("K")
+                    .append("; dns ").append(dns)
+                    .append("; conn ").append(connect)
+                    .append("; tls ").append(tls)
+                    .append("; ttfb ").append(ttfb)
+                    .append("; body ").append(body);
+            if (!errors.isEmpty()) {
+                sb.append("; errors");
+                for (Map.Entry<String, Integer> entry : errors.entrySet()) {
+                    sb.append(" ").append(entry.getKey()).append("x").append(entry.getValue());
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    public static EventListener.Factory getEventListenerFactory(Context context) {
+        final Context appContext = context != null ? context.getApplicationContext() : null;
+        return new EventListener.Factory() {
+            @Override
+            public EventListener create(Call call) {
+                Request request = call.request();
+                return new CallListener(getEndpoint(appContext, request.method(), request.url()), request.url().host());
+            }
+        };
+    }
+
+    // The request path is used as endpoint name, with the device number replaced by a placeholder
+    // to group the requests of the same kind
+    private static String getEndpoint(Context context, String method, HttpUrl url) {
+        String deviceId = context != null ? SettingsHelper.getInstance(context).getDeviceId() : null;
+        StringBuilder sb = new StringBuilder();
+        sb.append(method).append(" ").append(url.host());
+        for (String segment : url.pathSegments()) {
+            sb.append("/").append(segment.equals(deviceId) ? DEVICE_NUMBER_PLACEHOLDER : segment);
+        }
+        return sb.toString();
+    }
+
+    private static EndpointStats getStats(String endpoint, String host) {
+        EndpointStats stats = endpoints.get(endpoint);
+        if (stats == null) {
+            if (endpoints.size() >= MAX_ENDPOINTS) {
+                endpoint = host + " (other)";
+                stats = endpoints.get(endpoint);
+                if (stats != null) {
+                    return stats;
+                }
+            }
+            stats = new EndpointStats();
+            endpoints.put(endpoint, stats);
+        }
+        return stats;
+    }
+
+    // Downloads use HttpURLConnection which doesn't report the connection phases,
+    // so the connect time includes DNS and TLS
+    public static synchronized void recordDownload(String host, long connectTime, long ttfb, long bodyTime,
+                                                   long bytesReceived, String error) {
+        EndpointStats stats = getStats("GET " + host + " (download)", host);
+        stats.calls++;
+        if (connectTime >= 0) {
+            stats.connect.add(connectTime);
+        }
+        if (ttfb >= 0) {
+            stats.ttfb.add(ttfb);
+        }
+        if (bodyTime >= 0) {
+            stats.body.add(bodyTime);
+        }
+        stats.bytesReceived += bytesReceived;
+        if (error != null) {
+            stats.addError(error);
+        }
+    }
+
+    // Compact summary, one line per endpoint
+    public static synchronized String getSummary() {
+        if (endpoints.isEmpty()) {
+            return "no requests";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, EndpointStats> entry : endpoints.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append("\n");
+            }
+            sb.append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    public static synchronized void reset() {
+        endpoints.clear();
+    }
+
+    private static class CallListener extends EventListener {
+        private final String endpoint;
+        private final String host;
+        private final EndpointStats local = new EndpointStats();
+        private long dnsStart;
+        private long connectStart;
+        private long tlsStart;
+        private long requestSent;
+        private long bodyStart;
+
+        CallListener(String endpoint, String host) {
+            this.endpoint = endpoint;
+            this.host = host;
+        }
+
+        private static long now() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStart = now();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            local.dns.add(now() - dnsStart);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connectStart = now();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            tlsStart = now();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            local.tls.add(now() - tlsStart);
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            local.connect.add(now() - connectStart);
+        }
+
+        @Override
+        public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol, IOException ioe) {
+            local.addError("connect:" + ioe.getClass().getSimpleName());
+        }
+
+        @Override
+        public void requestHeadersEnd(Call call, Request request) {
+            requestSent = now();
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            requestSent = now();
+            local.bytesSent += byteCount;
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            if (requestSent > 0) {
+                local.ttfb.add(now() - requestSent);
+            }
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, Response response) {
+            if (response.code() >= 400) {
+                local.addError(Integer.toString(response.code()));
+            }
+        }
+
+        @Override
+        public void responseBodyStart(Call call) {
+            bodyStart = now();
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            local.body.add(now() - bodyStart);
+            local.bytesReceived += byteCount;
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            flush();
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            local.addError(ioe.getClass().getSimpleName());
+            flush();
+        }
+
+        // Phases are collected locally and merged once per call to keep the lock short
+        private void flush() {
+            synchronized (NetworkStats.class) {
+                EndpointStats stats = getStats(endpoint, host);
+                stats.calls++;
+                merge(local.dns, stats.dns);
+                merge(local.connect, stats.connect);
+                merge(local.tls, stats.tls);
+                merge(local.ttfb, stats.ttfb);
+                merge(local.body, stats.body);
+                stats.bytesSent += local.bytesSent;
+                stats.bytesReceived += local.bytesReceived;
+                for (Map.Entry<String, Integer> entry : local.errors.entrySet()) {
+                    Integer count = stats.errors.get(entry.getKey());
+                    stats.errors.put(entry.getKey(), (count == null ? 0 : count) + entry.getValue());
+                }
+            }
+        }
+
+        private static void merge(Histogram from, Histogram to) {
+            for (int i = 0; i < from.counts.length; i++) {
+                to.counts[i] += from.counts[i];
+            }
+            to.total += from.total;
+            to.sum += from.sum;
+        }
+    }
+}
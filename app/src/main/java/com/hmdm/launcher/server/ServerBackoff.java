@@ -0,0 +1,132 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.server;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * Honors the server overload signals: after a 503 or 429 response, requests to the same host
+ * fail immediately until the time specified by the Retry-After header (or an exponential backoff
+ * if there's no header) has passed. A random extra delay spreads the retries of the fleet.
+ */
+public class ServerBackoff implements Interceptor {
+    public static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    // Backoff used when the server doesn't specify the retry time
+    private static final long MIN_BACKOFF = 30000;
+    private static final long MAX_BACKOFF = 30 * 60000;
+    // Protection against bad Retry-After values
+    private static final long MAX_RETRY_AFTER = 60 * 60000;
+
+    private static class HostState {
+        int failures;
+        long retryAt;
+    }
+
+    private static final Map<String, HostState> hosts = new HashMap<>();
+
+    public static class ServerBusyException extends IOException {
+        public ServerBusyException(String host, long delay) {
+            super("Server " + host + " is busy, retry in " + delay + " ms");
+        }
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        String host = chain.request().url().host();
+        checkHost(host);
+        Response response = chain.proceed(chain.request());
+        onResponse(host, response.code(), parseRetryAfter(response.header(HEADER_RETRY_AFTER),
+                response.headers().getDate(HEADER_RETRY_AFTER)));
+        return response;
+    }
+
+    // Throws an exception if the host asked to wait
+    public static void checkHost(String host) throws ServerBusyException {
+        long delay;
+        synchronized (hosts) {
+            HostState state = hosts.get(host);
+            delay = state != null ? state.retryAt - SystemClock.elapsedRealtime() : 0;
+        }
+        if (delay > 0) {
+            throw new ServerBusyException(host, delay);
+        }
+    }
+
+    // retryAfter is the delay requested by the server in ms, or -1 if not specified
+    public static void onResponse(String host, int code, long retryAfter) {
+        synchronized (hosts) {
+            if (code != 503 && code != 429) {
+                hosts.remove(host);
+                return;
+            }
+            HostState state = hosts.get(host);
+            if (state == null) {
+                state = new HostState();
+                hosts.put(host, state);
+            }
+            state.failures++;
+            long delay = retryAfter >= 0 ? Math.min(retryAfter, MAX_RETRY_AFTER) :
+                    Math.min(MIN_BACKOFF << Math.min(state.failures - 1, 10), MAX_BACKOFF);
+            // Up to 25% extra so the devices which got the response at the same time don't come back together
+            delay += (long) (Math.random() * delay / 4);
+            state.retryAt = SystemClock.elapsedRealtime() + delay;
+        }
+    }
+
+    // The header contains either the delay in seconds or the HTTP date
+    public static long parseRetryAfter(String value, Date date) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(Long.parseLong(value.trim()), 0) * 1000;
+        } catch (NumberFormatException e) {
+            // Not a number, try the date
+        }
+        if (date != null) {
+            return Math.max(date.getTime() - System.currentTimeMillis(), 0);
+        }
+        return -1;
+    }
+
+    // Minimal remaining delay among the hosts which asked to wait, 0 if there are none
+    public static long getRetryDelay() {
+        long now = SystemClock.elapsedRealtime();
+        long result = 0;
+        synchronized (hosts) {
+            for (HostState state : hosts.values()) {
+                long delay = state.retryAt - now;
+                if (delay > 0 && (result == 0 || delay < result)) {
+                    result = delay;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.server;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.util.RemoteLogger;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * Health of a server endpoint: success rate, latency and a circuit breaker.
+ * After several consecutive failures the circuit is opened and requests to this endpoint
+ * fail immediately (if there's another endpoint to use). When the open period expires,
+ * a single probe request is allowed; on failure the circuit is opened again for a longer period.
+ */
+public class ServerHealth implements Interceptor {
+    private static final int STATE_CLOSED = 0;
+    private static final int STATE_OPEN = 1;
+    private static final int STATE_HALF_OPEN = 2;
+
+    // Consecutive failures opening the circuit
+    private static final int FAILURE_THRESHOLD = 2;
+    private static final long MIN_OPEN_DURATION_MS = 30000;
+    private static final long MAX_OPEN_DURATION_MS = 300000;
+    // Weight of the last result in the success rate and latency averages
+    private static final double EWMA_WEIGHT = 0.2;
+
+    private final Context context;
+    private final String baseUrl;
+    private ServerHealth peer;
+
+    private int state = STATE_CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private long openDuration = MIN_OPEN_DURATION_MS;
+    private boolean probeInFlight;
+    private double successRate = 1.0;
+    private double latency;
+
+    public ServerHealth(Context context, String baseUrl) {
+        this.context = context.getApplicationContext();
+        this.baseUrl = baseUrl;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    // The other endpoint used when this one fails
+    public void setPeer(ServerHealth peer) {
+        this.peer = peer;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        if (!allowRequest()) {
+            throw new IOException("Server " + baseUrl + " is unavailable, circuit is open");
+        }
+        // Long polling requests are held by the server, their duration is not the latency
+        boolean longPoll = AdaptiveTimeouts.getRequestClass(chain.request().url()) == AdaptiveTimeouts.CLASS_LONG_POLL;
+        long start = SystemClock.elapsedRealtime();
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (IOException e) {
+            onResult(false, longPoll ? -1 : SystemClock.elapsedRealtime() - start);
+            throw e;
+        }
+        // Server errors mean the server is unhealthy as well
+        onResult(response.code() < 500, longPoll ? -1 : SystemClock.elapsedRealtime() - start);
+        return response;
+    }
+
+    private boolean allowRequest() {
+        // The peer is checked before locking this object to avoid a deadlock between endpoints
+        boolean alternative = hasAlternative();
+        synchronized (this) {
+            switch (state) {
+                case STATE_OPEN:
+                    if (SystemClock.elapsedRealtime() >= openUntil) {
+                        state = STATE_HALF_OPEN;
+                        probeInFlight = true;
+                        return true;
+                    }
+                    return !alternative;
+                case STATE_HALF_OPEN:
+                    if (!probeInFlight) {
+                        probeInFlight = true;
+                        return true;
+                    }
+                    return !alternative;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    private boolean hasAlternative() {
+        return peer != null && peer != this && !peer.isUnavailable();
+    }
+
+    private synchronized void onResult(boolean success, long duration) {
+        successRate = successRate * (1 - EWMA_WEIGHT) + (success ? EWMA_WEIGHT : 0);
+        if (duration >= 0) {
+            latency = latency == 0 ? duration : latency * (1 - EWMA_WEIGHT) + duration * EWMA_WEIGHT;
+        }
+        probeInFlight = false;
+        if (success) {
+            consecutiveFailures = 0;
+            if (state != STATE_CLOSED) {
+                state = STATE_CLOSED;
+                openDuration = MIN_OPEN_DURATION_MS;
+                RemoteLogger.log(context, Const.LOG_INFO, "Server " + baseUrl + " is available again: " + getStatus());
+            }
+            return;
+        }
+        consecutiveFailures++;
+        if (state == STATE_HALF_OPEN) {
+            openDuration = Math.min(openDuration * 2, MAX_OPEN_DURATION_MS);
+            open();
+        } else if (state == STATE_CLOSED && consecutiveFailures >= FAILURE_THRESHOLD) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = STATE_OPEN;
+        openUntil = SystemClock.elapsedRealtime() + openDuration;
+        RemoteLogger.log(context, Const.LOG_WARN, "Server " + baseUrl + " is unavailable for " +
+                openDuration / 1000 + " sec: " + getStatus());
+    }
+
+    // True if requests to this endpoint are currently failing fast
+    public synchronized boolean isUnavailable() {
+        return (state == STATE_OPEN && SystemClock.elapsedRealtime() < openUntil) ||
+                (state == STATE_HALF_OPEN && probeInFlight);
+    }
+
+    // Endpoints are ranked only by the circuit state: the success rate of a fallback endpoint
+    // can't recover as it gets no traffic, so ranking by it would never fail back.
+    // An endpoint whose open period is expired is eligible for a probe, so it is ranked as available
+    public boolean isPreferredOver(ServerHealth other) {
+        return !isUnavailable() && other.isUnavailable();
+    }
+
+    public synchronized double getSuccessRate() {
+        return successRate;
+    }
+
+    public synchronized String getStatus() {
+        String stateName = state == STATE_CLOSED ? "ok" : (state == STATE_OPEN ? "open" : "half-open");
+        return stateName + ", success rate " + Math.round(successRate * 100) + "%, latency " + Math.round(latency) + "ms";
+    }
+}
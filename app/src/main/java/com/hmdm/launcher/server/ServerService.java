@@ -36,7 +36,6 @@ import retrofit2.Call;
 import retrofit2.http.Body;
 import retrofit2.http.GET;
 import retrofit2.http.Header;
-import retrofit2.http.Headers;
 import retrofit2.http.POST;
 import retrofit2.http.PUT;
 import retrofit2.http.Path;
@@ -45,19 +44,24 @@ public interface ServerService {
 
     static final String REQUEST_SIGNATURE_HEADER = "X-Request-Signature";
     static final String CPU_ARCH_HEADER = "X-CPU-Arch";
+    static final String ACCEPT_HEADER = "Accept";
+    // Unique key of a write request, repeated requests with the same key must be applied once
+    static final String IDEMPOTENCY_KEY_HEADER = "X-Idempotency-Key";
 
     @POST("{project}/rest/public/sync/configuration/{number}")
     Call<ResponseBody> createAndGetRawServerConfig(@Path("project") String project,
                                                    @Path("number") String number,
                                                    @Header(REQUEST_SIGNATURE_HEADER) String signature,
                                                    @Header(CPU_ARCH_HEADER) String cpuArch,
+                                                   @Header(ACCEPT_HEADER) String accept,
                                                    @Body DeviceCreateOptions createOptions);
 
     @GET("{project}/rest/public/sync/configuration/{number}")
     Call<ResponseBody> getRawServerConfig(@Path("project") String project,
                                           @Path("number") String number,
                                           @Header(REQUEST_SIGNATURE_HEADER) String signature,
-                                          @Header(CPU_ARCH_HEADER) String cpuArch);
+                                          @Header(CPU_ARCH_HEADER) String cpuArch,
+                                          @Header(ACCEPT_HEADER) String accept);
 
     @POST("{project}/rest/public/sync/configuration/{number}")
     Call<ServerConfigResponse> createAndGetServerConfig(@Path("project") String project,
@@ -73,36 +77,48 @@ public interface ServerService {
                                                @Header(CPU_ARCH_HEADER) String cpuArch);
 
     @POST("{project}/rest/public/sync/info")
-    @Headers("Content-Type: application/json")
-    Call<ResponseBody> sendDevice(@Path("project") String project, @Body DeviceInfo deviceInfo);
+    @BinaryEncoded
+    Call<ResponseBody> sendDevice(@Path("project") String project,
+                                  @Header(IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
+                                  @Body DeviceInfo deviceInfo);
 
     @GET("{project}/rest/notifications/device/{number}")
     Call<PushResponse> queryPushNotifications(@Path("project") String project, @Path("number") String number);
 
+    // Held by the server until there are messages for the device or the server timeout expires
+    @GET("{project}/rest/notifications/polling/{number}")
+    Call<PushResponse> queryPushLongPolling(@Path("project") String project, @Path("number") String number);
+
     @GET( "{project}/rest/plugins/devicelog/log/rules/{number}" )
     Call<RemoteLogConfigResponse> getRemoteLogConfig(@Path("project") String project, @Path("number") String number);
 
     @POST("{project}/rest/plugins/devicelog/log/list/{number}")
-    @Headers("Content-Type: application/json")
+    @BinaryEncoded
     Call<ResponseBody> sendLogs(@Path("project") String project, @Path("number") String number, @Body List<RemoteLogItem> logItems);
 
     @PUT("{project}/rest/plugins/deviceinfo/deviceinfo/public/{number}")
-    @Headers("Content-Type: application/json")
+    @BinaryEncoded
     Call<ResponseBody> sendDetailedInfo(@Path("project") String project, @Path("number") String number, @Body List<DetailedInfo> infoItems);
 
     @GET( "{project}/rest/plugins/deviceinfo/deviceinfo-plugin-settings/device/{number}" )
     Call<DetailedInfoConfigResponse> getDetailedInfoConfig(@Path("project") String project, @Path("number") String number);
 
     @POST("{project}/rest/plugins/devicereset/public/{number}")
-    @Headers("Content-Type: application/json")
-    Call<ResponseBody> confirmDeviceReset(@Path("project") String project, @Path("number") String number, @Body DeviceInfo deviceInfo);
+    @BinaryEncoded
+    Call<ResponseBody> confirmDeviceReset(@Path("project") String project, @Path("number") String number,
+                                          @Header(IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
+                                          @Body DeviceInfo deviceInfo);
 
     @POST("{project}/rest/plugins/devicereset/public/reboot/{number}")
-    @Headers("Content-Type: application/json")
-    Call<ResponseBody> confirmReboot(@Path("project") String project, @Path("number") String number, @Body DeviceInfo deviceInfo);
+    @BinaryEncoded
+    Call<ResponseBody> confirmReboot(@Path("project") String project, @Path("number") String number,
+                                     @Header(IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
+                                     @Body DeviceInfo deviceInfo);
 
     @POST("{project}/rest/plugins/devicereset/public/password/{number}")
-    @Headers("Content-Type: application/json")
-    Call<ResponseBody> confirmPasswordReset(@Path("project") String project, @Path("number") String number, @Body DeviceInfo deviceInfo);
+    @BinaryEncoded
+    Call<ResponseBody> confirmPasswordReset(@Path("project") String project, @Path("number") String number,
+                                            @Header(IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
+                                            @Body DeviceInfo deviceInfo);
 
 }
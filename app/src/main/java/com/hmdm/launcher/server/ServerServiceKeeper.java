@@ -28,69 +28,153 @@ import com.hmdm.launcher.helper.SettingsHelper;
 
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
+import retrofit2.Converter;
 import retrofit2.Retrofit;
 import retrofit2.converter.jackson.JacksonConverterFactory;
 
+/**
+ * Keeps the services for the primary and secondary servers. The callers try the first service
+ * and fall back to the secondary one, so the healthy server is returned first: if the primary server
+ * fails, the requests are routed to the secondary server without waiting for the connection timeout.
+ */
 public class ServerServiceKeeper {
 
     private static ServerService serverServiceInstance;
     private static ServerService secondaryServerServiceInstance;
+    private static ServerHealth serverHealth;
+    private static ServerHealth secondaryServerHealth;
+    private static OkHttpClient baseClient;
 
     // This is called after changing the server URL
-    public static void resetServices() {
+    public static synchronized void resetServices() {
         serverServiceInstance = null;
         secondaryServerServiceInstance = null;
+        serverHealth = null;
+        secondaryServerHealth = null;
+    }
+
+    // Returns the preferred server (primary unless it is unavailable)
+    public static synchronized ServerService getServerServiceInstance(Context context) {
+        initServices(context);
+        return isSecondaryPreferred() ? secondaryServerServiceInstance : serverServiceInstance;
     }
 
-    public static ServerService getServerServiceInstance(Context context) {
+    // Returns the preferred and the fallback servers: both are taken from the same health state,
+    // so they're different even if the state changes meanwhile
+    public static synchronized ServerService[] getServerServices(Context context) {
+        initServices(context);
+        return isSecondaryPreferred() ?
+                new ServerService[] {secondaryServerServiceInstance, serverServiceInstance} :
+                new ServerService[] {serverServiceInstance, secondaryServerServiceInstance};
+    }
+
+    private static synchronized void initServices(Context context) {
         if ( serverServiceInstance == null ) {
+            String baseUrl = SettingsHelper.getInstance(context).getBaseUrl();
+            serverHealth = new ServerHealth(context, baseUrl);
             try {
-                serverServiceInstance = createServerService(SettingsHelper.getInstance(context).getBaseUrl());
+                serverServiceInstance = createServerService(context, baseUrl, serverHealth);
             } catch (Exception e) {
                 // "Invalid URL" exception. We must not be here but in the case we are here,
                 // avoid crash loop by replacing the URL to the default one
-                serverServiceInstance = createServerService(BuildConfig.BASE_URL);
+                serverHealth = new ServerHealth(context, BuildConfig.BASE_URL);
+                serverServiceInstance = createServerService(context, BuildConfig.BASE_URL, serverHealth);
             }
+            secondaryServerServiceInstance = null;
         }
 
-        return serverServiceInstance;
-    }
-
-    public static ServerService getSecondaryServerServiceInstance(Context context) {
         if ( secondaryServerServiceInstance == null ) {
-            try {
-                secondaryServerServiceInstance = createServerService(SettingsHelper.getInstance(context).getSecondaryBaseUrl());
-            } catch (Exception e) {
-                // Here we can go if the secondary base URL is invalid
-                // In this case, just return a copy of the primary instance
-                secondaryServerServiceInstance = getServerServiceInstance(context);
+            String secondaryBaseUrl = SettingsHelper.getInstance(context).getSecondaryBaseUrl();
+            if (secondaryBaseUrl == null || secondaryBaseUrl.equals(SettingsHelper.getInstance(context).getBaseUrl())) {
+                // Same server, no need to track it separately
+                secondaryServerHealth = serverHealth;
+                secondaryServerServiceInstance = serverServiceInstance;
+            } else {
+                secondaryServerHealth = new ServerHealth(context, secondaryBaseUrl);
+                try {
+                    secondaryServerServiceInstance = createServerService(context, secondaryBaseUrl, secondaryServerHealth);
+                } catch (Exception e) {
+                    // Here we can go if the secondary base URL is invalid
+                    // In this case, just return a copy of the primary instance
+                    secondaryServerHealth = serverHealth;
+                    secondaryServerServiceInstance = serverServiceInstance;
+                }
             }
+            serverHealth.setPeer(secondaryServerHealth);
+            secondaryServerHealth.setPeer(serverHealth);
+        }
+    }
+
+    private static synchronized boolean isSecondaryPreferred() {
+        return serverHealth != null && secondaryServerHealth != null && serverHealth != secondaryServerHealth &&
+                secondaryServerHealth.isPreferredOver(serverHealth);
+    }
+
+    // Base URL of the server which receives the requests now
+    public static String getActiveBaseUrl(Context context) {
+        initServices(context);
+        synchronized (ServerServiceKeeper.class) {
+            return (isSecondaryPreferred() ? secondaryServerHealth : serverHealth).getBaseUrl();
         }
+    }
 
-        return secondaryServerServiceInstance;
+    // Health of the primary and secondary servers for logging
+    public static synchronized String getHealthStatus() {
+        if (serverHealth == null) {
+            return "unknown";
+        }
+        return "primary: " + serverHealth.getStatus() +
+                (secondaryServerHealth != serverHealth ? "; secondary: " + secondaryServerHealth.getStatus() : "");
     }
 
     // Made public for downloading from third party servers
     public static ServerService createServerService( String baseUrl ) {
-        return createBuilder( baseUrl ).build().create( ServerService.class );
+        return createBuilder( null, baseUrl, JacksonConverterFactory.create( new ObjectMapper()) ).build().create( ServerService.class );
+    }
+
+    // Services of the MDM server support the server overload signals, health tracking, compression,
+    // binary encoding and adaptive timeouts. The timeouts interceptor is the innermost one: retries are not seen
+    // by the health tracker and reuse the compressed body
+    private static ServerService createServerService( Context context, String baseUrl, ServerHealth health ) {
+        return createBuilder( context, baseUrl, new EncodingConverterFactory(context), new ServerBackoff(),
+                health, new GzipRequestInterceptor(context), new AdaptiveTimeouts(context) ).build().create( ServerService.class );
+    }
+
+    // All clients are derived from one base client so they share the connection pool and the DNS cache
+    // (a pooled connection is only reused by a client with the same TLS settings)
+    public static synchronized OkHttpClient getBaseClient() {
+        if (baseClient == null) {
+            OkHttpClient.Builder clientBuilder;
+            if (BuildConfig.TRUST_ANY_CERTIFICATE) {
+                clientBuilder = UnsafeOkHttpClient.getUnsafeOkHttpClient().newBuilder();
+            } else {
+                clientBuilder = new OkHttpClient.Builder().
+                        connectTimeout( Const.CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS ).
+                        readTimeout( Const.CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS ).
+                        writeTimeout( Const.CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS );
+            }
+            clientBuilder.dns(CachingDns.getInstance());
+            baseClient = clientBuilder.build();
+        }
+        return baseClient;
     }
 
-    private static Retrofit.Builder createBuilder( String baseUrl ) {
+    // Context is used to group the requests in the network statistics, may be null
+    private static Retrofit.Builder createBuilder( Context context, String baseUrl, Converter.Factory converterFactory, Interceptor... interceptors ) {
         Retrofit.Builder builder = new Retrofit.Builder();
 
-        if (BuildConfig.TRUST_ANY_CERTIFICATE) {
-            builder.client(UnsafeOkHttpClient.getUnsafeOkHttpClient());
-        } else {
-            OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder().
-                    connectTimeout( Const.CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS ).
-                    readTimeout( Const.CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS ).
-                    writeTimeout( Const.CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS );
-            builder.client(clientBuilder.build());
+        OkHttpClient.Builder clientBuilder = getBaseClient().newBuilder();
+        clientBuilder.addInterceptor(ConnectionPrewarmer.getInterceptor());
+        for (Interceptor interceptor : interceptors) {
+            clientBuilder.addInterceptor(interceptor);
         }
+        clientBuilder.eventListenerFactory(NetworkStats.getEventListenerFactory(context));
+        builder.client(clientBuilder.build());
 
         builder.baseUrl( baseUrl )
-                .addConverterFactory( JacksonConverterFactory.create( new ObjectMapper()) );
+                .addConverterFactory( converterFactory );
 
         return builder;
     }
@@ -43,6 +43,9 @@ public class PluginApiService extends Service {
     public static final String KEY_CUSTOM_2 = "CUSTOM_2";
     public static final String KEY_CUSTOM_3 = "CUSTOM_3";
 
+    // Version 1: getVersion() and logBatch()
+    public static final int API_VERSION = 1;
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -92,6 +95,29 @@ public class PluginApiService extends Service {
             RemoteLogger.postLog(PluginApiService.this, item);
         }
 
+        @Override
+        public void logBatch(String packageId, long[] timestamps, int[] levels, String[] messages) {
+            if (timestamps == null || levels == null || messages == null ||
+                    timestamps.length != levels.length || timestamps.length != messages.length) {
+                Log.w(Const.LOG_TAG, "Bad log batch from " + packageId);
+                return;
+            }
+            Log.i(Const.LOG_TAG, "Got " + timestamps.length + " log items from " + packageId);
+            for (int i = 0; i < timestamps.length; i++) {
+                RemoteLogItem item = new RemoteLogItem();
+                item.setTimestamp(timestamps[i]);
+                item.setLogLevel(levels[i]);
+                item.setPackageId(packageId);
+                item.setMessage(messages[i]);
+                RemoteLogger.postLog(PluginApiService.this, item);
+            }
+        }
+
+        @Override
+        public int getVersion() {
+            return API_VERSION;
+        }
+
         @Override
         public String queryAppPreference(String packageId, String attr) {
             SettingsHelper settingsHelper = SettingsHelper.getInstance(PluginApiService.this);
@@ -0,0 +1,49 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.task;
+
+import android.content.Context;
+
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.helper.ConfigPatchHelper;
+
+import org.json.JSONObject;
+
+public class ApplyConfigPatchTask extends BackgroundTask< JSONObject, Integer > {
+
+    private Context context;
+
+    public ApplyConfigPatchTask( Context context ) {
+        super(TaskExecutors.POOL_DISK);
+        this.context = context;
+    }
+
+    // Patches are chained by versions, so they're applied in order by a single task
+    // (tasks in the disk pool may run concurrently)
+    @Override
+    protected Integer doInBackground( JSONObject... payloads ) {
+        for (JSONObject payload : payloads) {
+            if (!ConfigPatchHelper.applyPatch(context, payload)) {
+                return Const.TASK_ERROR;
+            }
+        }
+        return Const.TASK_SUCCESS;
+    }
+}
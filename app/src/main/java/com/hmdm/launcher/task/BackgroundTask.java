@@ -0,0 +1,105 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.task;
+
+/**
+ * A replacement of AsyncTask running in one of the TaskExecutors pools.
+ * doInBackground() is called in the pool thread, onPostExecute() and onCancelled() in the main thread.
+ */
+public abstract class BackgroundTask<Params, Result> {
+
+    private final int pool;
+    private int priority = TaskExecutors.PRIORITY_BACKGROUND;
+    private Object owner;
+    private TaskExecutors.Job job;
+    private volatile boolean cancelled;
+
+    public BackgroundTask(int pool) {
+        this.pool = pool;
+    }
+
+    protected abstract Result doInBackground(Params... params);
+
+    protected void onPostExecute(Result result) {
+    }
+
+    protected void onCancelled() {
+    }
+
+    public BackgroundTask<Params, Result> setPriority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    // The task is cancelled by TaskExecutors.cancelTasks(owner)
+    public BackgroundTask<Params, Result> bindTo(Object owner) {
+        this.owner = owner;
+        return this;
+    }
+
+    @SafeVarargs
+    public final BackgroundTask<Params, Result> execute(final Params... params) {
+        if (owner != null) {
+            TaskExecutors.register(owner, this);
+        }
+        job = TaskExecutors.submit(pool, priority, new Runnable() {
+            @Override
+            public void run() {
+                final Result result = cancelled ? null : doInBackground(params);
+                TaskExecutors.postToMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        finish(result);
+                    }
+                });
+            }
+        });
+        return this;
+    }
+
+    // The task is removed from the queue if not yet started, otherwise onCancelled() is called
+    // instead of onPostExecute() when doInBackground() is completed
+    public final void cancel() {
+        cancelled = true;
+        if (job != null && TaskExecutors.remove(job)) {
+            TaskExecutors.postToMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    finish(null);
+                }
+            });
+        }
+    }
+
+    public final boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void finish(Result result) {
+        if (owner != null) {
+            TaskExecutors.unregister(owner, this);
+        }
+        if (cancelled) {
+            onCancelled();
+        } else {
+            onPostExecute(result);
+        }
+    }
+}
@@ -20,7 +20,6 @@
 package com.hmdm.launcher.task;
 
 import android.content.Context;
-import android.os.AsyncTask;
 
 import com.hmdm.launcher.Const;
 import com.hmdm.launcher.helper.SettingsHelper;
@@ -31,19 +30,21 @@ import com.hmdm.launcher.util.RemoteLogger;
 
 import retrofit2.Response;
 
-public class GetRemoteLogConfigTask extends AsyncTask< Void, Integer, Integer > {
+public class GetRemoteLogConfigTask extends BackgroundTask< Void, Integer > {
     private Context context;
     private SettingsHelper settingsHelper;
 
     public GetRemoteLogConfigTask( Context context ) {
+        super(TaskExecutors.POOL_NETWORK);
         this.context = context;
         this.settingsHelper = SettingsHelper.getInstance( context );
     }
 
     @Override
     protected Integer doInBackground( Void... voids ) {
-        ServerService serverService = ServerServiceKeeper.getServerServiceInstance(context);
-        ServerService secondaryServerService = ServerServiceKeeper.getSecondaryServerServiceInstance(context);
+        ServerService[] serverServices = ServerServiceKeeper.getServerServices(context);
+        ServerService serverService = serverServices[0];
+        ServerService secondaryServerService = serverServices[1];
         Response<RemoteLogConfigResponse> response = null;
 
         try {
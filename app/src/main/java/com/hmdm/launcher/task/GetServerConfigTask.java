@@ -20,11 +20,11 @@
 package com.hmdm.launcher.task;
 
 import android.content.Context;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.provider.Settings;
 import android.util.Log;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdm.launcher.BuildConfig;
 import com.hmdm.launcher.Const;
@@ -32,8 +32,8 @@ import com.hmdm.launcher.helper.CryptoHelper;
 import com.hmdm.launcher.helper.SettingsHelper;
 import com.hmdm.launcher.json.DeviceCreateOptions;
 import com.hmdm.launcher.json.ServerConfig;
-import com.hmdm.launcher.json.ServerConfigResponse;
 import com.hmdm.launcher.pro.ProUtils;
+import com.hmdm.launcher.server.EncodingConverterFactory;
 import com.hmdm.launcher.server.ServerService;
 import com.hmdm.launcher.server.ServerServiceKeeper;
 import com.hmdm.launcher.util.PushNotificationMqttWrapper;
@@ -42,7 +42,7 @@ import com.hmdm.launcher.util.RemoteLogger;
 import okhttp3.ResponseBody;
 import retrofit2.Response;
 
-public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
+public class GetServerConfigTask extends BackgroundTask< Void, Integer > {
 
     private Context context;
     private SettingsHelper settingsHelper;
@@ -50,7 +50,10 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
     private ServerService serverService;
     private ServerService secondaryServerService;
 
+    private String serverConfigJson;
+
     public GetServerConfigTask( Context context ) {
+        super(TaskExecutors.POOL_NETWORK);
         this.context = context;
         this.settingsHelper = SettingsHelper.getInstance( context );
     }
@@ -73,8 +76,9 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
         }
 
         try {
-            serverService = ServerServiceKeeper.getServerServiceInstance(context);
-            secondaryServerService = ServerServiceKeeper.getSecondaryServerServiceInstance(context);
+            ServerService[] serverServices = ServerServiceKeeper.getServerServices(context);
+            serverService = serverServices[0];
+            secondaryServerService = serverServices[1];
         } catch (Exception e) {
             return Const.TASK_NETWORK_ERROR;
         }
@@ -109,6 +113,7 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
                     }
                 }
 
+                settingsHelper.setServerConfigJson(serverConfigJson);
                 settingsHelper.updateConfig(serverConfig);
 
                 // Device already created, erase the device creation options
@@ -117,15 +122,7 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
                 settingsHelper.setCreateOptionConfigName(null);
                 settingsHelper.setCreateOptionGroup(null);
 
-                // Prevent from occasional launch in the kiosk mode without any possibility to exit!
-                if (ProUtils.kioskModeRequired(context) &&
-                        !settingsHelper.getConfig().getMainApp().equals(context.getPackageName()) &&
-                        Build.VERSION.SDK_INT >= Build.VERSION_CODES.M &&
-                        !Settings.canDrawOverlays(context) && !BuildConfig.ENABLE_KIOSK_WITHOUT_OVERLAYS) {
-                        RemoteLogger.log(context, Const.LOG_WARN, "Kiosk mode disabled: no permission to draw over other windows.");
-                        settingsHelper.getConfig().setKioskMode(false);
-                        settingsHelper.updateConfig(settingsHelper.getConfig());
-                }
+                checkKioskMode(context, settingsHelper);
 
                 ProUtils.processConfig(context, serverConfig);
 
@@ -140,42 +137,77 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
         return Const.TASK_NETWORK_ERROR;
     }
 
+    // Prevent from occasional launch in the kiosk mode without any possibility to exit!
+    public static void checkKioskMode(Context context, SettingsHelper settingsHelper) {
+        if (ProUtils.kioskModeRequired(context) &&
+                !settingsHelper.getConfig().getMainApp().equals(context.getPackageName()) &&
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.M &&
+                !Settings.canDrawOverlays(context) && !BuildConfig.ENABLE_KIOSK_WITHOUT_OVERLAYS) {
+            RemoteLogger.log(context, Const.LOG_WARN, "Kiosk mode disabled: no permission to draw over other windows.");
+            settingsHelper.getConfig().setKioskMode(false);
+            settingsHelper.updateConfig(settingsHelper.getConfig());
+        }
+    }
+
     private ServerConfig getServerConfigPlain(String deviceId, String signature) throws Exception {
-        Response<ServerConfigResponse> response = null;
+        Response<ResponseBody> response = null;
         try {
-            response = serverService.getServerConfig(settingsHelper.getServerProject(),
-                    deviceId, signature, Build.CPU_ABI).execute();
+            response = serverService.getRawServerConfig(settingsHelper.getServerProject(),
+                    deviceId, signature, Build.CPU_ABI, getAcceptHeader()).execute();
         } catch (Exception e) {
             e.printStackTrace();
         }
 
         if (response == null) {
-            response = secondaryServerService.getServerConfig(settingsHelper.getServerProject(),
-                    deviceId, signature, Build.CPU_ABI).execute();
+            response = secondaryServerService.getRawServerConfig(settingsHelper.getServerProject(),
+                    deviceId, signature, Build.CPU_ABI, getAcceptHeader()).execute();
         }
 
-        if (response.isSuccessful() && Const.STATUS_OK.equals(response.body().getStatus()) && response.body().getData() != null) {
+        if (response.isSuccessful()) {
             SettingsHelper.getInstance(context).setExternalIp(response.headers().get(Const.HEADER_IP_ADDRESS));
-            return response.body().getData();
+            return parseServerConfig(response.body());
         }
         return null;
     }
 
+    // The raw response is parsed here (instead of using ServerConfigResponse) to keep the configuration
+    // exactly as it's sent by the server: it is required to apply config patches, see ConfigPatchHelper
+    private ServerConfig parseServerConfig(ResponseBody body) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        // The configuration is stored as JSON regardless of the transfer format
+        JsonNode root = EncodingConverterFactory.isSmile(body.contentType()) ?
+                EncodingConverterFactory.getSmileMapper().readTree(body.byteStream()) :
+                mapper.readTree(body.string());
+        JsonNode data = root.get("data");
+        if (!Const.STATUS_OK.equals(root.path("status").asText()) || data == null || data.isNull()) {
+            return null;
+        }
+        serverConfigJson = mapper.writeValueAsString(data);
+        return mapper.treeToValue(data, ServerConfig.class);
+    }
+
+    // Smile is requested if enabled, the response is decoded by its content type
+    private String getAcceptHeader() {
+        return EncodingConverterFactory.isSmileEnabled(context) ?
+                EncodingConverterFactory.ACCEPT_SMILE : EncodingConverterFactory.ACCEPT_JSON;
+    }
+
     // Check server signature before accepting server response
     // This is an additional protection against Man-In-The-Middle attacks
     private ServerConfig getServerConfigSecure(String deviceId, String signature) throws Exception {
         Response<ResponseBody> response = null;
 
         try {
+            // The signed configuration is always requested as JSON because the signature is calculated by its text
             response = serverService.getRawServerConfig(settingsHelper.getServerProject(),
-                    deviceId, signature, Build.CPU_ABI).execute();
+                    deviceId, signature, Build.CPU_ABI, EncodingConverterFactory.ACCEPT_JSON).execute();
         } catch (Exception e) {
             e.printStackTrace();
         }
 
         if (response == null) {
             response = secondaryServerService.getRawServerConfig(settingsHelper.getServerProject(),
-                    deviceId, signature, Build.CPU_ABI).execute();
+                    deviceId, signature, Build.CPU_ABI, EncodingConverterFactory.ACCEPT_JSON).execute();
         }
 
         if (response.isSuccessful()) {
@@ -202,6 +234,7 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
                 Log.e(Const.LOG_TAG, "Server signature " + serverSignature + " doesn't match calculated signature " + calculatedSignature + ", dropping response");
                 return null;
             }
+            serverConfigJson = serverData;
             return new ObjectMapper().readValue(serverData, ServerConfig.class);
         }
         return null;
@@ -210,22 +243,22 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
     // Apply extra device creation options (need to be used only at first start when config=null!)
     private ServerConfig createAndGetServerConfigPlain(String deviceId, DeviceCreateOptions createOptions,
                                                        String signature) throws Exception {
-        Response<ServerConfigResponse> response = null;
+        Response<ResponseBody> response = null;
         try {
-            response = serverService.createAndGetServerConfig(settingsHelper.getServerProject(),
-                    deviceId, signature, Build.CPU_ABI, createOptions).execute();
+            response = serverService.createAndGetRawServerConfig(settingsHelper.getServerProject(),
+                    deviceId, signature, Build.CPU_ABI, getAcceptHeader(), createOptions).execute();
         } catch (Exception e) {
             e.printStackTrace();
         }
 
         if (response == null) {
-            response = secondaryServerService.createAndGetServerConfig(settingsHelper.getServerProject(),
-                    deviceId, signature, Build.CPU_ABI, createOptions).execute();
+            response = secondaryServerService.createAndGetRawServerConfig(settingsHelper.getServerProject(),
+                    deviceId, signature, Build.CPU_ABI, getAcceptHeader(), createOptions).execute();
         }
 
-        if (response.isSuccessful() && Const.STATUS_OK.equals(response.body().getStatus()) && response.body().getData() != null) {
+        if (response.isSuccessful()) {
             SettingsHelper.getInstance(context).setExternalIp(response.headers().get(Const.HEADER_IP_ADDRESS));
-            return response.body().getData();
+            return parseServerConfig(response.body());
         }
         return null;
     }
@@ -241,7 +274,7 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
         try {
             response = serverService.
                     createAndGetRawServerConfig(settingsHelper.getServerProject(),
-                            deviceId, signature, Build.CPU_ABI, createOptions).execute();
+                            deviceId, signature, Build.CPU_ABI, EncodingConverterFactory.ACCEPT_JSON, createOptions).execute();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -249,7 +282,7 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
         if (response == null) {
             response = secondaryServerService.
                     createAndGetRawServerConfig(settingsHelper.getServerProject(),
-                            deviceId, signature, Build.CPU_ABI, createOptions).execute();
+                            deviceId, signature, Build.CPU_ABI, EncodingConverterFactory.ACCEPT_JSON, createOptions).execute();
         }
 
         if (response.isSuccessful()) {
@@ -276,6 +309,7 @@ public class GetServerConfigTask extends AsyncTask< Void, Integer, Integer > {
                 Log.e(Const.LOG_TAG, "Server signature " + serverSignature + " doesn't match calculated signature " + calculatedSignature + ", dropping response");
                 return null;
             }
+            serverConfigJson = serverData;
             return new ObjectMapper().readValue(serverData, ServerConfig.class);
         }
         return null;
@@ -0,0 +1,233 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.task;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.hmdm.launcher.Const;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dedicated bounded pools for network, disk/database and CPU work.
+ * Within a pool, user-visible tasks are taken before background ones.
+ * This replaces the global serial AsyncTask executor: a slow network call
+ * doesn't block unrelated local work any more.
+ */
+public class TaskExecutors {
+    public static final int POOL_NETWORK = 0;
+    public static final int POOL_DISK = 1;
+    public static final int POOL_CPU = 2;
+
+    // Lower value is executed first
+    public static final int PRIORITY_USER = 0;
+    public static final int PRIORITY_BACKGROUND = 1;
+
+    private static final String[] POOL_NAMES = {"network", "disk", "cpu"};
+    private static final int[] POOL_SIZES = {4, 2, Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()))};
+
+    // Tasks waiting in the queue longer than this value are reported
+    private static final long SLOW_WAIT_MS = 2000;
+
+    private static final ThreadPoolExecutor[] executors = new ThreadPoolExecutor[POOL_NAMES.length];
+    private static final PoolStats[] stats = new PoolStats[POOL_NAMES.length];
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final AtomicLong sequence = new AtomicLong();
+    private static final Map<Object, List<BackgroundTask<?, ?>>> ownedTasks = new WeakHashMap<>();
+
+    static {
+        for (int i = 0; i < POOL_NAMES.length; i++) {
+            stats[i] = new PoolStats();
+        }
+    }
+
+    static class Job implements Runnable, Comparable<Job> {
+        private final int pool;
+        private final int priority;
+        private final long seq;
+        private final long enqueueTime;
+        private final Runnable runnable;
+
+        Job(int pool, int priority, Runnable runnable) {
+            this.pool = pool;
+            this.priority = priority;
+            this.seq = sequence.incrementAndGet();
+            this.enqueueTime = SystemClock.elapsedRealtime();
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            long start = SystemClock.elapsedRealtime();
+            long wait = start - enqueueTime;
+            if (wait > SLOW_WAIT_MS) {
+                Log.w(Const.LOG_TAG, "Task waited " + wait + "ms in the " + POOL_NAMES[pool] + " queue");
+            }
+            try {
+                runnable.run();
+            } finally {
+                stats[pool].onCompleted(wait, SystemClock.elapsedRealtime() - start);
+            }
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+        }
+    }
+
+    private static class PoolStats {
+        private long submitted;
+        private long completed;
+        private int maxQueueDepth;
+        private long totalWait;
+        private long maxWait;
+        private long totalRun;
+        private long maxRun;
+
+        synchronized void onSubmitted(int queueDepth) {
+            submitted++;
+            if (queueDepth > maxQueueDepth) {
+                maxQueueDepth = queueDepth;
+            }
+        }
+
+        synchronized void onCompleted(long wait, long run) {
+            completed++;
+            totalWait += wait;
+            totalRun += run;
+            if (wait > maxWait) {
+                maxWait = wait;
+            }
+            if (run > maxRun) {
+                maxRun = run;
+            }
+        }
+
+        synchronized String get(int queueDepth) {
+            return "queued " + queueDepth + " (max " + maxQueueDepth + "), done " + completed + "/" + submitted +
+                    ", wait avg " + (completed > 0 ? totalWait / completed : 0) + "ms max " + maxWait + "ms" +
+                    ", run avg " + (completed > 0 ? totalRun / completed : 0) + "ms max " + maxRun + "ms";
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor(final int pool) {
+        if (executors[pool] == null) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(POOL_SIZES[pool], POOL_SIZES[pool],
+                    30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "hmdm-" + POOL_NAMES[pool] + "-" + threadNumber.incrementAndGet());
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            executors[pool] = executor;
+        }
+        return executors[pool];
+    }
+
+    public static void execute(int pool, int priority, Runnable runnable) {
+        submit(pool, priority, runnable);
+    }
+
+    static Job submit(int pool, int priority, Runnable runnable) {
+        Job job = new Job(pool, priority, runnable);
+        ThreadPoolExecutor executor = getExecutor(pool);
+        executor.execute(job);
+        stats[pool].onSubmitted(executor.getQueue().size());
+        return job;
+    }
+
+    // Returns true if the job has been removed from the queue before starting
+    static boolean remove(Job job) {
+        return getExecutor(job.pool).remove(job);
+    }
+
+    static void postToMainThread(Runnable runnable) {
+        mainHandler.post(runnable);
+    }
+
+    static synchronized void register(Object owner, BackgroundTask<?, ?> task) {
+        List<BackgroundTask<?, ?>> tasks = ownedTasks.get(owner);
+        if (tasks == null) {
+            tasks = new LinkedList<>();
+            ownedTasks.put(owner, tasks);
+        }
+        tasks.add(task);
+    }
+
+    static synchronized void unregister(Object owner, BackgroundTask<?, ?> task) {
+        List<BackgroundTask<?, ?>> tasks = ownedTasks.get(owner);
+        if (tasks != null) {
+            tasks.remove(task);
+            if (tasks.isEmpty()) {
+                ownedTasks.remove(owner);
+            }
+        }
+    }
+
+    // Cancel all tasks bound to the owner (usually called in onDestroy())
+    public static void cancelTasks(Object owner) {
+        List<BackgroundTask<?, ?>> tasks;
+        synchronized (TaskExecutors.class) {
+            tasks = ownedTasks.remove(owner);
+        }
+        if (tasks != null) {
+            for (BackgroundTask<?, ?> task : tasks) {
+                task.cancel();
+            }
+        }
+    }
+
+    public static String getStats() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < POOL_NAMES.length; i++) {
+            if (i > 0) {
+                sb.append("; ");
+            }
+            int queueDepth = executors[i] != null ? executors[i].getQueue().size() : 0;
+            sb.append(POOL_NAMES[i]).append(": ").append(stats[i].get(queueDepth));
+        }
+        return sb.toString();
+    }
+}
@@ -22,6 +22,7 @@ package com.hmdm.launcher.ui;
 import android.app.admin.DevicePolicyManager;
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Build;
@@ -31,6 +32,7 @@ import android.view.View;
 import android.widget.Toast;
 
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.databinding.DataBindingUtil;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
@@ -41,6 +43,7 @@ import com.hmdm.launcher.databinding.ActivityAdminBinding;
 import com.hmdm.launcher.helper.SettingsHelper;
 import com.hmdm.launcher.json.ServerConfig;
 import com.hmdm.launcher.pro.ProUtils;
+import com.hmdm.launcher.server.NetworkStats;
 import com.hmdm.launcher.server.ServerServiceKeeper;
 import com.hmdm.launcher.util.AppInfo;
 import com.hmdm.launcher.util.LegacyUtils;
@@ -205,6 +208,21 @@ public class AdminActivity extends BaseActivity {
         Toast.makeText(this, R.string.admin_reset_network_hint, Toast.LENGTH_LONG).show();
     }
 
+    public void showNetworkStats(View view) {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.admin_network_stats)
+                .setMessage(NetworkStats.getSummary())
+                .setPositiveButton(android.R.string.ok, null)
+                .setNeutralButton(R.string.admin_network_stats_reset, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        NetworkStats.reset();
+                    }
+                })
+                .create()
+                .show();
+    }
+
     public void reboot(View view) {
         if ( Build.VERSION.SDK_INT > Build.VERSION_CODES.M ) {
             ComponentName deviceAdmin = LegacyUtils.getAdminComponentName(this);
@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -18,6 +19,11 @@ public class AppShortcutManager {
 
     private static AppShortcutManager instance;
 
+    // Launchable installed applications, the index is built once and reused until invalidated
+    private Map<String, ApplicationInfo> packageIndex;
+    // Incremented on invalidation: an index built from the outdated package list is not stored
+    private int packageIndexGeneration;
+
     public static AppShortcutManager getInstance() {
         if (instance == null) {
             instance = new AppShortcutManager();
@@ -25,20 +31,52 @@ public class AppShortcutManager {
         return instance;
     }
 
+    // Querying the launch intents of all installed packages is slow, so this may be called in a background thread
+    public Map<String, ApplicationInfo> buildPackageIndex(Context context) {
+        int generation;
+        synchronized (this) {
+            generation = packageIndexGeneration;
+        }
+        Map<String, ApplicationInfo> index = new LinkedHashMap<>();
+        List<ApplicationInfo> packs = context.getPackageManager().getInstalledApplications(0);
+        if (packs != null) {
+            for (ApplicationInfo p : packs) {
+                if (context.getPackageManager().getLaunchIntentForPackage(p.packageName) != null) {
+                    index.put(p.packageName, p);
+                }
+            }
+        }
+        synchronized (this) {
+            if (generation == packageIndexGeneration) {
+                packageIndex = index;
+            }
+        }
+        return index;
+    }
+
+    // Must be called when the set of installed applications may have been changed
+    public synchronized void invalidatePackageIndex() {
+        packageIndex = null;
+        packageIndexGeneration++;
+    }
+
+    private Map<String, ApplicationInfo> getPackageIndex(Context context) {
+        synchronized (this) {
+            if (packageIndex != null) {
+                return packageIndex;
+            }
+        }
+        return buildPackageIndex(context);
+    }
+
     public int getInstalledAppCount(Context context, boolean bottom) {
         Map<String, Application> requiredPackages = new HashMap();
         Map<String, Application> requiredLinks = new HashMap();
         getConfiguredApps(context, bottom, requiredPackages, requiredLinks);
-        List<ApplicationInfo> packs = context.getPackageManager().getInstalledApplications(0);
-        if (packs == null) {
-            return requiredLinks.size();
-        }
         // Calculate applications
         int packageCount = 0;
-        for(int i = 0; i < packs.size(); i++) {
-            ApplicationInfo p = packs.get(i);
-            if (context.getPackageManager().getLaunchIntentForPackage(p.packageName) != null &&
-                    requiredPackages.containsKey(p.packageName)) {
+        for (String packageName : getPackageIndex(context).keySet()) {
+            if (requiredPackages.containsKey(packageName)) {
                 packageCount++;
             }
         }
@@ -51,15 +89,9 @@ public class AppShortcutManager {
         getConfiguredApps(context, bottom, requiredPackages, requiredLinks);
 
         List<AppInfo> appInfos = new ArrayList<>();
-        List<ApplicationInfo> packs = context.getPackageManager().getInstalledApplications(0);
-        if (packs == null) {
-            return new ArrayList<AppInfo>();
-        }
         // First we display app icons
-        for(int i = 0; i < packs.size(); i++) {
-            ApplicationInfo p = packs.get(i);
-            if ( context.getPackageManager().getLaunchIntentForPackage(p.packageName) != null &&
-                    requiredPackages.containsKey( p.packageName ) ) {
+        for (ApplicationInfo p : getPackageIndex(context).values()) {
+            if ( requiredPackages.containsKey( p.packageName ) ) {
                 Application app = requiredPackages.get(p.packageName);
                 AppInfo newInfo = new AppInfo();
                 newInfo.type = AppInfo.TYPE_APP;
@@ -40,7 +40,6 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.net.wifi.WifiManager;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
@@ -88,7 +87,9 @@ import com.hmdm.launcher.databinding.DialogSystemSettingsBinding;
 import com.hmdm.launcher.databinding.DialogUnknownSourcesBinding;
 import com.hmdm.launcher.helper.ConfigUpdater;
 import com.hmdm.launcher.helper.CryptoHelper;
+import com.hmdm.launcher.helper.Outbox;
 import com.hmdm.launcher.helper.SettingsHelper;
+import com.hmdm.launcher.helper.StartupLoader;
 import com.hmdm.launcher.json.Action;
 import com.hmdm.launcher.json.Application;
 import com.hmdm.launcher.json.DeviceInfo;
@@ -98,14 +99,16 @@ import com.hmdm.launcher.pro.ProUtils;
 import com.hmdm.launcher.pro.service.CheckForegroundAppAccessibilityService;
 import com.hmdm.launcher.pro.service.CheckForegroundApplicationService;
 import com.hmdm.launcher.pro.worker.DetailedInfoWorker;
-import com.hmdm.launcher.server.ServerService;
+import com.hmdm.launcher.server.ConnectionPrewarmer;
 import com.hmdm.launcher.server.ServerServiceKeeper;
 import com.hmdm.launcher.server.UnsafeOkHttpClient;
 import com.hmdm.launcher.service.LocationService;
 import com.hmdm.launcher.service.PluginApiService;
 import com.hmdm.launcher.service.StatusControlService;
+import com.hmdm.launcher.task.BackgroundTask;
 import com.hmdm.launcher.task.GetServerConfigTask;
 import com.hmdm.launcher.task.SendDeviceInfoTask;
+import com.hmdm.launcher.task.TaskExecutors;
 import com.hmdm.launcher.util.AppInfo;
 import com.hmdm.launcher.util.CrashLoopProtection;
 import com.hmdm.launcher.util.DeviceInfoProvider;
@@ -114,6 +117,7 @@ import com.hmdm.launcher.util.PreferenceLogger;
 import com.hmdm.launcher.util.RemoteLogger;
 import com.hmdm.launcher.util.SystemUtils;
 import com.hmdm.launcher.util.Utils;
+import com.hmdm.launcher.worker.OutboxWorker;
 import com.hmdm.launcher.worker.PushNotificationWorker;
 import com.jakewharton.picasso.OkHttp3Downloader;
 import com.squareup.picasso.NetworkPolicy;
@@ -124,12 +128,11 @@ import org.apache.commons.io.FileUtils;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.OkHttpClient;
-import okhttp3.ResponseBody;
-import retrofit2.Response;
 
 public class MainActivity
         extends BaseActivity
@@ -210,6 +213,11 @@ public class MainActivity
 
     private int lastNetworkType;
 
+    // Set when the data loaded by StartupLoader is available; until then the placeholder is displayed
+    private boolean startupReady = false;
+    private boolean resumeFlowPending = false;
+    private boolean destroyed = false;
+
     private ConfigUpdater configUpdater = new ConfigUpdater();
 
     private BroadcastReceiver receiver = new BroadcastReceiver() {
@@ -218,7 +226,11 @@ public class MainActivity
             switch ( intent.getAction() ) {
                 case Const.ACTION_UPDATE_CONFIGURATION:
                     RemoteLogger.log(context, Const.LOG_DEBUG, "Update configuration");
-                    updateConfig(false);
+                    if (intent.getBooleanExtra(Const.EXTRA_CONFIG_LOADED, false)) {
+                        applyLoadedConfig();
+                    } else {
+                        updateConfig(false);
+                    }
                     break;
                 case Const.ACTION_HIDE_SCREEN:
                     ServerConfig serverConfig = SettingsHelper.getInstance(MainActivity.this).getConfig();
@@ -270,6 +282,14 @@ public class MainActivity
         }
     };
 
+    // The package index is rebuilt when the applications are installed or removed
+    private final BroadcastReceiver packageChangeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            AppShortcutManager.getInstance().invalidatePackageIndex();
+        }
+    };
+
     private final BroadcastReceiver stateChangeReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -281,6 +301,9 @@ public class MainActivity
                     if (lastNetworkType != activeNetwork.getType()) {
                         lastNetworkType = activeNetwork.getType();
                         RemoteLogger.log(MainActivity.this, Const.LOG_DEBUG, "Network type changed: " + activeNetwork.getTypeName());
+                        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+                            ConnectionPrewarmer.onNetworkChanged(MainActivity.this);
+                        }
                     }
                 } else {
                     if (lastNetworkType != -1) {
@@ -337,6 +360,12 @@ public class MainActivity
             }
         });
 
+        // Draw the placeholder as soon as possible, the content is displayed when the configuration is loaded
+        binding = DataBindingUtil.setContentView( this, R.layout.activity_main );
+        binding.setMessage( getString( R.string.main_start_preparations ) );
+        binding.setLoading( true );
+        StartupLoader.observeFirstFrame(binding.getRoot());
+
         // Crashlytics is not included in the open-source version
         ProUtils.initCrashlytics(this);
 
@@ -352,28 +381,30 @@ public class MainActivity
         Utils.lockSafeBoot(this);
         Utils.initPasswordReset(this);
 
-        RemoteLogger.log(this, Const.LOG_INFO, "MDM Launcher " + BuildConfig.VERSION_NAME + "-" + BuildConfig.FLAVOR + " started");
+        // Disk and database work which is not required for the first frame
+        final Context context = getApplicationContext();
+        TaskExecutors.execute(TaskExecutors.POOL_DISK, TaskExecutors.PRIORITY_BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                RemoteLogger.log(context, Const.LOG_INFO, "MDM Launcher " + BuildConfig.VERSION_NAME + "-" + BuildConfig.FLAVOR + " started");
 
-        InstallUtils.clearTempFiles(this);
+                InstallUtils.clearTempFiles(context);
 
-        DetailedInfoWorker.schedule(MainActivity.this);
-        if (BuildConfig.ENABLE_PUSH) {
-            PushNotificationWorker.schedule(MainActivity.this);
-        }
+                DetailedInfoWorker.schedule(context);
+                if (BuildConfig.ENABLE_PUSH) {
+                    PushNotificationWorker.schedule(context);
+                }
+
+                // Send the requests which were not delivered before the restart
+                OutboxWorker.scheduleFlush(context);
+            }
+        });
 
         // Prevent showing the lock screen during the app download/installation
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
-        binding = DataBindingUtil.setContentView( this, R.layout.activity_main );
-        binding.setMessage( getString( R.string.main_start_preparations ) );
-        binding.setLoading( true );
-
-        settingsHelper = SettingsHelper.getInstance( this );
         preferences = getSharedPreferences( Const.PREFERENCES, MODE_PRIVATE );
 
-        // Try to start services in onCreate(), this may fail, we will try again on each onResume.
-        startServicesWithRetry();
-
         initReceiver();
 
         IntentFilter intentFilter = new IntentFilter();
@@ -382,11 +413,42 @@ public class MainActivity
         intentFilter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
         registerReceiver(stateChangeReceiver, intentFilter);
 
+        IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addDataScheme("package");
+        registerReceiver(packageChangeReceiver, packageFilter);
+
+        StartupLoader.whenReady(this, new Runnable() {
+            @Override
+            public void run() {
+                onStartupReady();
+            }
+        });
+    }
+
+    // Called in the main thread when the configuration, preferences and the package list are loaded
+    private void onStartupReady() {
+        if (destroyed) {
+            return;
+        }
+        settingsHelper = SettingsHelper.getInstance( this );
+
+        // Try to start services in onCreate(), this may fail, we will try again on each onResume.
+        startServicesWithRetry();
+
         if (!getIntent().getBooleanExtra(Const.RESTORED_ACTIVITY, false)) {
             startAppsAtBoot();
         }
 
         settingsHelper.setMainActivityRunning(true);
+
+        startupReady = true;
+        if (resumeFlowPending) {
+            resumeFlowPending = false;
+            resumeLauncher();
+        }
     }
 
     // On some Android firmwares, onResume is called before onCreate, so the fields are not initialized
@@ -429,6 +491,15 @@ public class MainActivity
 
         isBackground = false;
 
+        if (!startupReady) {
+            // The flow is continued in onStartupReady()
+            resumeFlowPending = true;
+            return;
+        }
+        resumeLauncher();
+    }
+
+    private void resumeLauncher() {
         // On some Android firmwares, onResume is called before onCreate, so the fields are not initialized
         // Here we initialize all required fields to avoid crash at startup
         reinitApp();
@@ -501,30 +572,30 @@ public class MainActivity
             return;
         }
 
-        new AsyncTask<Void, Void, Void>() {
+        List<Application> autorunApplications = new LinkedList<>();
+        for (Application application : config.getApplications()) {
+            if (application.isRunAtBoot()) {
+                autorunApplications.add(application);
+            }
+        }
+        // The pauses are implemented by the handler so no background thread is blocked while waiting
+        startAppsAtBoot(autorunApplications, false);
+    }
+
+    private void startAppsAtBoot(final List<Application> applications, final boolean appStarted) {
+        // Delay start of each application to 5 sec
+        handler.postDelayed(new Runnable() {
             @Override
-            protected Void doInBackground(Void... voids) {
-                boolean appStarted = false;
-                for (Application application : config.getApplications()) {
-                    if (application.isRunAtBoot()) {
-                        // Delay start of each application to 5 sec
-                        try {
-                            Thread.sleep(PAUSE_BETWEEN_AUTORUNS_SEC * 1000);
-                        } catch (InterruptedException e) {
-                        }
-                        Intent launchIntent = getPackageManager().getLaunchIntentForPackage(application.getPkg());
-                        if (launchIntent != null) {
-                            startActivity(launchIntent);
-                            appStarted = true;
-                        }
-                    }
-                }
-                // Hide apps after start to avoid users confusion
-                if (appStarted) {
-                    try {
-                        Thread.sleep(PAUSE_BETWEEN_AUTORUNS_SEC * 1000);
-                    } catch (InterruptedException e) {
+            public void run() {
+                if (applications.size() > 0) {
+                    Application application = applications.remove(0);
+                    Intent launchIntent = getPackageManager().getLaunchIntentForPackage(application.getPkg());
+                    if (launchIntent != null) {
+                        startActivity(launchIntent);
                     }
+                    startAppsAtBoot(applications, appStarted || launchIntent != null);
+                } else if (appStarted) {
+                    // Hide apps after start to avoid users confusion
                     // Notice: if MainActivity will be destroyed after running multiple apps at startup,
                     // we can get the looping here, because startActivity will create a new instance!
                     // That's why we put a boolean extra preventing apps from start
@@ -533,11 +604,8 @@ public class MainActivity
                     intent.putExtra(Const.RESTORED_ACTIVITY, true);
                     startActivity(intent);
                 }
-
-                return null;
             }
-        }.execute();
-
+        }, PAUSE_BETWEEN_AUTORUNS_SEC * 1000);
     }
 
     // Does not seem to work, though. See the comment to SystemUtils.becomeDeviceOwner()
@@ -548,7 +616,7 @@ public class MainActivity
             return;
         }
 
-        new AsyncTask<Void, Void, Void>() {
+        new BackgroundTask<Void, Void>(TaskExecutors.POOL_DISK) {
             @Override
             protected Void doInBackground(Void... voids) {
                 if (!SystemUtils.becomeDeviceOwnerByCommand(MainActivity.this)) {
@@ -561,7 +629,7 @@ public class MainActivity
             protected void onPostExecute(Void v) {
                 setDefaultLauncherEarly();
             }
-        }.execute();
+        }.setPriority(TaskExecutors.PRIORITY_USER).bindTo(this).execute();
     }
 
     private void startServices() {
@@ -618,7 +686,7 @@ public class MainActivity
             String defaultLauncher = Utils.getDefaultLauncher(this);
 
             // As per the documentation, setting the default preferred activity should not be done on the main thread
-            new AsyncTask<Void, Void, Void>() {
+            new BackgroundTask<Void, Void>(TaskExecutors.POOL_DISK) {
                 @Override
                 protected Void doInBackground(Void... voids) {
                     if (!getPackageName().equalsIgnoreCase(defaultLauncher)) {
@@ -631,7 +699,7 @@ public class MainActivity
                 protected void onPostExecute(Void v) {
                     checkAndStartLauncher();
                 }
-            }.execute();
+            }.setPriority(TaskExecutors.PRIORITY_USER).bindTo(this).execute();
             return;
         }
         checkAndStartLauncher();
@@ -1101,6 +1169,13 @@ public class MainActivity
         configUpdater.updateConfig(this, this, forceShowErrorDialog);
     }
 
+    // Configuration is already updated locally (by a config patch), just apply it
+    private void applyLoadedConfig() {
+        needSendDeviceInfoAfterReconfigure = true;
+        needRedrawContentAfterReconfigure = true;
+        configUpdater.applyLoadedConfig(this, this);
+    }
+
     // Workaround against crash "App is in background" on Android 9: this is an Android OS bug
     // https://stackoverflow.com/questions/52013545/android-9-0-not-allowed-to-start-service-app-is-in-background-after-onresume
     private void startLocationServiceWithRetry() {
@@ -1268,11 +1343,12 @@ public class MainActivity
 
     @Override
     public void onConfigUpdateComplete() {
-        SharedPreferences preferences = getApplicationContext().getSharedPreferences(Const.PREFERENCES, MODE_PRIVATE);
-        String deviceAdminLog = PreferenceLogger.getLogString(preferences);
+        // Applications may have been installed or removed by the update
+        AppShortcutManager.getInstance().invalidatePackageIndex();
+        String deviceAdminLog = PreferenceLogger.getLogString(this);
         if (deviceAdminLog != null && !deviceAdminLog.equals("")) {
             RemoteLogger.log(this, Const.LOG_DEBUG, deviceAdminLog);
-            PreferenceLogger.clearLogString(preferences);
+            PreferenceLogger.clearLogString(this);
         }
         Log.i(Const.LOG_TAG, "Showing content from setActions()");
         settingsHelper.refreshConfig(this);         // Avoid NPE in showContent()
@@ -1438,7 +1514,7 @@ public class MainActivity
     private void setActions() {
         final ServerConfig config = settingsHelper.getConfig();
         // As per the documentation, setting the default preferred activity should not be done on the main thread
-        new AsyncTask<Void, Void, Void>() {
+        new BackgroundTask<Void, Void>(TaskExecutors.POOL_DISK) {
             @Override
             protected Void doInBackground(Void... voids) {
                 // If kiosk browser is installed, make it a default browser
@@ -1458,7 +1534,7 @@ public class MainActivity
                 Log.i(Const.LOG_TAG, "Showing content from setActions()");
                 showContent(settingsHelper.getConfig());
             }
-        }.execute();
+        }.setPriority(TaskExecutors.PRIORITY_USER).bindTo(this).execute();
     }
 
     private void showContent(ServerConfig config ) {
@@ -1606,6 +1682,7 @@ public class MainActivity
         binding.setShowContent(true);
         // We can now sleep, uh
         getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+        StartupLoader.reportInteractive(this);
     }
 
     private void showLockScreen() {
@@ -1682,28 +1759,8 @@ public class MainActivity
 
             DeviceInfo deviceInfo = DeviceInfoProvider.getDeviceInfo(context, true, true);
 
-            ServerService serverService = ServerServiceKeeper.getServerServiceInstance(context);
-            ServerService secondaryServerService = ServerServiceKeeper.getSecondaryServerServiceInstance(context);
-            Response<ResponseBody> response = null;
-
-            try {
-                response = serverService.sendDevice(settingsHelper.getServerProject(), deviceInfo).execute();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-            try {
-                if (response == null) {
-                    response = secondaryServerService.sendDevice(settingsHelper.getServerProject(), deviceInfo).execute();
-                }
-                if ( response.isSuccessful() ) {
-                    SettingsHelper.getInstance(context).setExternalIp(response.headers().get(Const.HEADER_IP_ADDRESS));
-                    return Result.success();
-                }
-            }
-            catch ( Exception e ) { e.printStackTrace(); }
-
-            return Result.failure();
+            // If failed, the device info is kept in the outbox and sent when the network is available
+            return Outbox.sendDeviceInfo(context, deviceInfo) ? Result.success() : Result.failure();
         }
     }
 
@@ -1776,7 +1833,11 @@ public class MainActivity
     protected void onDestroy() {
         super.onDestroy();
 
-        settingsHelper.setMainActivityRunning(false);
+        destroyed = true;
+        if (settingsHelper != null) {
+            settingsHelper.setMainActivityRunning(false);
+        }
+        TaskExecutors.cancelTasks(this);
 
         WindowManager manager = ((WindowManager)getApplicationContext().getSystemService(Context.WINDOW_SERVICE));
         if ( applicationNotAllowed != null ) {
@@ -1811,6 +1872,7 @@ public class MainActivity
 
         LocalBroadcastManager.getInstance( this ).unregisterReceiver( receiver );
         unregisterReceiver(stateChangeReceiver);
+        unregisterReceiver(packageChangeReceiver);
     }
 
     @Override
@@ -1818,6 +1880,7 @@ public class MainActivity
         super.onPause();
 
         isBackground = true;
+        resumeFlowPending = false;
 
         dismissDialog(fileNotDownloadedDialog);
         dismissDialog(enterDeviceIdDialog);
@@ -2171,7 +2234,7 @@ public class MainActivity
                 }
             }
         };
-        task.execute();
+        task.setPriority(TaskExecutors.PRIORITY_USER).bindTo(this).execute();
     }
 
     private void createAndShowUnknownSourcesDialog() {
@@ -30,6 +30,7 @@ import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.core.content.FileProvider;
@@ -41,6 +42,10 @@ import com.hmdm.launcher.db.RemoteFileTable;
 import com.hmdm.launcher.helper.CryptoHelper;
 import com.hmdm.launcher.json.Application;
 import com.hmdm.launcher.json.RemoteFile;
+import com.hmdm.launcher.server.NetworkStats;
+import com.hmdm.launcher.server.ServerBackoff;
+
+import org.apache.commons.io.input.CountingInputStream;
 
 import java.io.DataInputStream;
 import java.io.File;
@@ -53,8 +58,10 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -73,13 +80,13 @@ public class InstallUtils {
         // We process only applications of type "app" (default) and skip web links and others
         for (Application a : applications) {
             if ((a.getType() == null || a.getType().equals(Application.TYPE_APP)) && a.isRemove()) {
-                Log.d(Const.LOG_TAG, "checkAndUpdateApplications(): marking app " + a.getPkg() + " to remove");
+                RemoteLogger.logcat(Const.LOG_DEBUG, "checkAndUpdateApplications(): marking app {} to remove", a.getPkg());
                 applicationsForInstall.add(a);
             }
         }
         for (Application a : applications) {
             if ((a.getType() == null || a.getType().equals(Application.TYPE_APP)) && !a.isRemove()) {
-                Log.d(Const.LOG_TAG, "checkAndUpdateApplications(): marking app " + a.getPkg() + " to install");
+                RemoteLogger.logcat(Const.LOG_DEBUG, "checkAndUpdateApplications(): marking app {} to install", a.getPkg());
                 applicationsForInstall.add(a);
             }
         }
@@ -89,7 +96,7 @@ public class InstallUtils {
             Application application = it.next();
             if ( (application.getUrl() == null || application.getUrl().trim().equals("")) && !application.isRemove() ) {
                 // An app without URL is a system app which doesn't require installation
-                Log.d(Const.LOG_TAG, "checkAndUpdateApplications(): app " + application.getPkg() + " is system, skipping");
+                RemoteLogger.logcat(Const.LOG_DEBUG, "checkAndUpdateApplications(): app {} is system, skipping", application.getPkg());
                 it.remove();
                 continue;
             }
@@ -100,8 +107,8 @@ public class InstallUtils {
                 if (application.isRemove() && !application.getVersion().equals("0") &&
                         !areVersionsEqual(packageInfo.versionName, application.getVersion())) {
                     // If a removal is required, but the app version doesn't match, do not remove
-                    Log.d(Const.LOG_TAG, "checkAndUpdateApplications(): app " + application.getPkg() + " version not match: "
-                            + application.getVersion() + " " + packageInfo.versionName + ", skipping");
+                    RemoteLogger.logcat(Const.LOG_DEBUG, "checkAndUpdateApplications(): app {} version not match: {} {}, skipping",
+                            application.getPkg(), application.getVersion(), packageInfo.versionName);
                     it.remove();
                     continue;
                 }
@@ -109,8 +116,8 @@ public class InstallUtils {
                 if (!application.isRemove() &&
                         (application.isSkipVersion() || application.getVersion().equals("0") || areVersionsEqual(packageInfo.versionName, application.getVersion()))) {
                     // If installation is required, but the app of the same version already installed, do not install
-                    Log.d(Const.LOG_TAG, "checkAndUpdateApplications(): app " + application.getPkg() + " versions match: "
-                            + application.getVersion() + " " + packageInfo.versionName + ", skipping");
+                    RemoteLogger.logcat(Const.LOG_DEBUG, "checkAndUpdateApplications(): app {} versions match: {} {}, skipping",
+                            application.getPkg(), application.getVersion(), packageInfo.versionName);
                     it.remove();
                     continue;
                 }
@@ -119,8 +126,8 @@ public class InstallUtils {
                     // Downgrade requested!
                     // It will only succeed if a higher version is marked as "Remove"
                     // Let's check that condition to avoid failed attempts to install and downloads of the lower version each time
-                    RemoteLogger.log(context, Const.LOG_DEBUG, "Downgrade requested for " + application.getPkg() +
-                            ": installed version " + packageInfo.versionName + ", required version " + application.getVersion());
+                    RemoteLogger.log(context, Const.LOG_DEBUG, "Downgrade requested for {}: installed version {}, required version {}",
+                            application.getPkg(), packageInfo.versionName, application.getVersion());
                     boolean canDowngrade = false;
                     for (Application a : applications) {
                         if (a.getPkg().equalsIgnoreCase(application.getPkg()) && a.isRemove() && areVersionsEqual(packageInfo.versionName, a.getVersion())) {
@@ -130,9 +137,9 @@ public class InstallUtils {
                         }
                     }
                     if (canDowngrade) {
-                        RemoteLogger.log(context, Const.LOG_DEBUG, "Current version of " + application.getPkg() + " will be removed, downgrade allowed");
+                        RemoteLogger.log(context, Const.LOG_DEBUG, "Current version of {} will be removed, downgrade allowed", application.getPkg());
                     } else {
-                        RemoteLogger.log(context, Const.LOG_DEBUG, "Ignoring downgrade request for " + application.getPkg() + ": remove current version first!");
+                        RemoteLogger.log(context, Const.LOG_DEBUG, "Ignoring downgrade request for {}: remove current version first!", application.getPkg());
                         it.remove();
                         continue;
                     }
@@ -141,7 +148,7 @@ public class InstallUtils {
                 // The app isn't installed, let's keep it in the "To be installed" list
                 if (application.isRemove()) {
                     // The app requires removal but already removed, remove from the list so do nothing with the app
-                    Log.d(Const.LOG_TAG, "checkAndUpdateApplications(): app " + application.getPkg() + " not found, nothing to remove");
+                    RemoteLogger.logcat(Const.LOG_DEBUG, "checkAndUpdateApplications(): app {} not found, nothing to remove", application.getPkg());
                     it.remove();
                     continue;
                 }
@@ -243,6 +250,12 @@ public class InstallUtils {
             tempFile.delete();
         }
 
+        // Network statistics
+        String host = null;
+        String error = null;
+        long connectTime = -1;
+        long ttfb = -1;
+        CountingInputStream cis = null;
         try {
             try {
                 tempFile.createNewFile();
@@ -253,6 +266,9 @@ public class InstallUtils {
             }
 
             URL url = new URL(strUrl);
+            // Don't download while the server asked to wait
+            ServerBackoff.checkHost(url.getHost());
+            host = url.getHost();
 
             HttpURLConnection connection;
             if (BuildConfig.TRUST_ANY_CERTIFICATE && url.getProtocol().toLowerCase().equals("https")) {
@@ -262,7 +278,9 @@ public class InstallUtils {
                 connection = (HttpURLConnection) url.openConnection();
             }
             connection.setRequestMethod("GET");
-            connection.setRequestProperty("Accept-Encoding", "identity");
+            // APK files are already compressed; other files (configs, texts) may be sent gzipped
+            boolean packageFile = isPackageFile(strUrl);
+            connection.setRequestProperty("Accept-Encoding", packageFile ? "identity" : "gzip");
             connection.setConnectTimeout((int) Const.CONNECTION_TIMEOUT);
             connection.setReadTimeout((int) Const.CONNECTION_TIMEOUT);
             if (BuildConfig.CHECK_SIGNATURE) {
@@ -271,17 +289,28 @@ public class InstallUtils {
                     connection.setRequestProperty("X-Request-Signature", signature);
                 }
             }
+            long startTime = SystemClock.elapsedRealtime();
             connection.connect();
-
-            if (connection.getResponseCode() != 200) {
-                throw new Exception("Bad server response for " + strUrl + ": " + connection.getResponseCode());
+            connectTime = SystemClock.elapsedRealtime() - startTime;
+
+            int responseCode = connection.getResponseCode();
+            ttfb = SystemClock.elapsedRealtime() - startTime - connectTime;
+            ServerBackoff.onResponse(host, responseCode, ServerBackoff.parseRetryAfter(
+                    connection.getHeaderField(ServerBackoff.HEADER_RETRY_AFTER),
+                    getHeaderDate(connection, ServerBackoff.HEADER_RETRY_AFTER)));
+            if (responseCode != 200) {
+                error = Integer.toString(responseCode);
+                throw new Exception("Bad server response for " + strUrl + ": " + responseCode);
             }
 
             int lengthOfFile = connection.getContentLength();
 
             progressHandler.onDownloadProgress(0, lengthOfFile, 0);
 
-            InputStream is = connection.getInputStream();
+            // The progress is calculated by the transferred (compressed) bytes matching Content-Length
+            long bodyStart = SystemClock.elapsedRealtime();
+            cis = new CountingInputStream(connection.getInputStream());
+            InputStream is = "gzip".equalsIgnoreCase(connection.getContentEncoding()) ? new GZIPInputStream(cis) : cis;
             DataInputStream dis = new DataInputStream(is);
 
             byte[] buffer = new byte[1024];
@@ -290,7 +319,7 @@ public class InstallUtils {
 
             FileOutputStream fos = new FileOutputStream(tempFile);
             while ((length = dis.read(buffer)) > 0) {
-                total += length;
+                total = cis.getByteCount();
                 progressHandler.onDownloadProgress(
                         (int) ((total * 100.0f) / lengthOfFile),
                         lengthOfFile,
@@ -301,7 +330,14 @@ public class InstallUtils {
             fos.close();
 
             dis.close();
+            NetworkStats.recordDownload(host, connectTime, ttfb, SystemClock.elapsedRealtime() - bodyStart,
+                    cis.getByteCount(), null);
         } catch (Exception e) {
+            if (host != null) {
+                // Download failed before or while receiving the body
+                NetworkStats.recordDownload(host, connectTime, ttfb, -1, cis != null ? cis.getByteCount() : 0,
+                        error != null ? error : e.getClass().getSimpleName());
+            }
             tempFile.delete();
             throw e;
         }
@@ -309,6 +345,11 @@ public class InstallUtils {
         return tempFile;
     }
 
+    private static Date getHeaderDate(HttpURLConnection connection, String name) {
+        long date = connection.getHeaderFieldDate(name, -1);
+        return date != -1 ? new Date(date) : null;
+    }
+
     public static String getRequestSignature(String strUrl) {
         int index = strUrl.indexOf("/files/", 0);
         if (index == -1) {
@@ -325,6 +366,15 @@ public class InstallUtils {
         return null;
     }
 
+    private static boolean isPackageFile(String strUrl) {
+        String path = strUrl.toLowerCase();
+        int index = path.indexOf('?');
+        if (index != -1) {
+            path = path.substring(0, index);
+        }
+        return path.endsWith(".apk") || path.endsWith(".xapk");
+    }
+
     private static String getFileName(String strUrl) {
         return strUrl.substring(strUrl.lastIndexOf("/"));
     }
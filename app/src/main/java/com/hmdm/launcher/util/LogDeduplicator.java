@@ -0,0 +1,188 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.json.RemoteLogItem;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ingestion-side protection against log floods, used by the log writer thread only.
+ *
+ * The first occurrence of a line (package, level and message) is passed through, and its repeats
+ * within the window are collapsed into one item with the repeat count and the first/last timestamps,
+ * emitted when the window expires. New lines of each package are also limited by a token bucket;
+ * the number of suppressed lines is reported by a warning item once the bucket refills.
+ *
+ * The "now" arguments are a monotonic clock (SystemClock.elapsedRealtime()), so windows and refills
+ * are not affected by wall clock corrections; item timestamps remain the wall time.
+ */
+public class LogDeduplicator {
+    public static final long WINDOW_MS = 60000;
+    private static final int MAX_TRACKED_LINES = 256;
+
+    // Burst and sustained rate of distinct lines per package
+    public static final int BUCKET_CAPACITY = 200;
+    public static final double BUCKET_REFILL_PER_SEC = 5;
+
+    private static class Repeat {
+        RemoteLogItem item;
+        long windowEnd;
+        int count;
+        long firstTimestamp;
+        long lastTimestamp;
+    }
+
+    private static class Bucket {
+        double tokens = BUCKET_CAPACITY;
+        long lastRefill;
+        int suppressed;
+        long firstSuppressed;
+        long lastSuppressed;
+    }
+
+    // Windows have the same length, so the insertion order is the expiration order
+    private final LinkedHashMap<String, Repeat> repeats = new LinkedHashMap<>();
+    private final Map<String, Bucket> buckets = new HashMap<>();
+
+    // Adds the items to write to the output list
+    public void add(RemoteLogItem item, long now, List<RemoteLogItem> out) {
+        String key = item.getPackageId() + '\n' + item.getLogLevel() + '\n' + item.getMessage();
+        Repeat repeat = repeats.get(key);
+        if (repeat != null && repeat.windowEnd > now) {
+            if (repeat.count == 0) {
+                repeat.firstTimestamp = item.getTimestamp();
+            }
+            repeat.count++;
+            repeat.lastTimestamp = item.getTimestamp();
+            return;
+        }
+        if (repeat != null) {
+            // Expired but not yet flushed
+            repeats.remove(key);
+            emitRepeat(repeat, out);
+        }
+
+        if (!takeToken(item, now)) {
+            return;
+        }
+        out.add(item);
+
+        if (repeats.size() >= MAX_TRACKED_LINES) {
+            Iterator<Repeat> it = repeats.values().iterator();
+            emitRepeat(it.next(), out);
+            it.remove();
+        }
+        repeat = new Repeat();
+        repeat.item = item;
+        repeat.windowEnd = now + WINDOW_MS;
+        repeats.put(key, repeat);
+    }
+
+    // Emits the summaries of expired windows and the rate limit reports
+    public void flush(long now, List<RemoteLogItem> out) {
+        Iterator<Repeat> it = repeats.values().iterator();
+        while (it.hasNext()) {
+            Repeat repeat = it.next();
+            if (repeat.windowEnd > now) {
+                break;
+            }
+            emitRepeat(repeat, out);
+            it.remove();
+        }
+        for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+            Bucket bucket = entry.getValue();
+            if (bucket.suppressed > 0 && refill(bucket, now) >= 1) {
+                bucket.tokens -= 1;
+                RemoteLogItem report = new RemoteLogItem();
+                report.setTimestamp(bucket.firstSuppressed);
+                report.setLogLevel(Const.LOG_WARN);
+                report.setPackageId(entry.getKey());
+                report.setMessage("Log rate limit exceeded: " + bucket.suppressed + " messages dropped");
+                report.setCount(bucket.suppressed);
+                report.setLastTimestamp(bucket.lastSuppressed);
+                out.add(report);
+                bucket.suppressed = 0;
+            }
+        }
+    }
+
+    // Time (on the same clock as "now") when flush() has to be called even if no new items come, or Long.MAX_VALUE
+    public long getNextFlushTime() {
+        long result = Long.MAX_VALUE;
+        if (!repeats.isEmpty()) {
+            result = repeats.values().iterator().next().windowEnd;
+        }
+        for (Bucket bucket : buckets.values()) {
+            if (bucket.suppressed > 0) {
+                // Time when the bucket has a token for the report
+                long refillTime = bucket.lastRefill + (long)((1 - bucket.tokens) * 1000 / BUCKET_REFILL_PER_SEC);
+                result = Math.min(result, refillTime);
+            }
+        }
+        return result;
+    }
+
+    private boolean takeToken(RemoteLogItem item, long now) {
+        Bucket bucket = buckets.get(item.getPackageId());
+        if (bucket == null) {
+            bucket = new Bucket();
+            bucket.lastRefill = now;
+            buckets.put(item.getPackageId(), bucket);
+        }
+        if (refill(bucket, now) >= 1) {
+            bucket.tokens -= 1;
+            return true;
+        }
+        if (bucket.suppressed == 0) {
+            bucket.firstSuppressed = item.getTimestamp();
+        }
+        bucket.suppressed++;
+        bucket.lastSuppressed = item.getTimestamp();
+        return false;
+    }
+
+    private double refill(Bucket bucket, long now) {
+        if (now > bucket.lastRefill) {
+            bucket.tokens = Math.min(BUCKET_CAPACITY, bucket.tokens + (now - bucket.lastRefill) * BUCKET_REFILL_PER_SEC / 1000);
+            bucket.lastRefill = now;
+        }
+        return bucket.tokens;
+    }
+
+    private void emitRepeat(Repeat repeat, List<RemoteLogItem> out) {
+        if (repeat.count == 0) {
+            return;
+        }
+        RemoteLogItem summary = new RemoteLogItem();
+        summary.setTimestamp(repeat.firstTimestamp);
+        summary.setLogLevel(repeat.item.getLogLevel());
+        summary.setPackageId(repeat.item.getPackageId());
+        summary.setMessage(repeat.item.getMessage());
+        summary.setCount(repeat.count);
+        summary.setLastTimestamp(repeat.lastTimestamp);
+        out.add(summary);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import com.hmdm.launcher.json.RemoteLogConfig;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Remote log rules compiled into memory, so matching a log line doesn't query the database.
+ * A rule matches if the package is the same, the message level is not above the rule level,
+ * and the rule filter is empty or contained in the message (case-insensitive for ASCII like SQL LIKE).
+ * Filters of a package are searched at once by an Aho-Corasick automaton.
+ * The matcher is immutable and matching doesn't allocate memory, so it may be called from any thread.
+ */
+public class LogRuleMatcher {
+    private static final int NO_LEVEL = Integer.MIN_VALUE;
+
+    private final Map<String, PackageRules> packages = new HashMap<>();
+
+    public LogRuleMatcher(List<RemoteLogConfig> rules) {
+        Map<String, List<RemoteLogConfig>> byPackage = new HashMap<>();
+        for (RemoteLogConfig rule : rules) {
+            if (rule.getPackageId() == null) {
+                continue;
+            }
+            List<RemoteLogConfig> list = byPackage.get(rule.getPackageId());
+            if (list == null) {
+                list = new LinkedList<>();
+                byPackage.put(rule.getPackageId(), list);
+            }
+            list.add(rule);
+        }
+        for (Map.Entry<String, List<RemoteLogConfig>> entry : byPackage.entrySet()) {
+            packages.put(entry.getKey(), new PackageRules(entry.getValue()));
+        }
+    }
+
+    public boolean match(String packageId, int level, String message) {
+        if (packageId == null) {
+            return false;
+        }
+        PackageRules rules = packages.get(packageId);
+        return rules != null && rules.match(level, message);
+    }
+
+    // True if some message of this level may match: used to skip building messages nobody consumes
+    public boolean isEnabled(String packageId, int level) {
+        PackageRules rules = packageId != null ? packages.get(packageId) : null;
+        return rules != null && (level <= rules.anyMessageLevel || level <= rules.maxFilterLevel);
+    }
+
+    public int getPackageCount() {
+        return packages.size();
+    }
+
+    private static char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char)(c + ('a' - 'A')) : c;
+    }
+
+    private static class PackageRules {
+        // Highest level of rules without a filter: such rules match any message
+        private int anyMessageLevel = NO_LEVEL;
+        // Highest level of rules with a filter: messages above it are rejected without search
+        private int maxFilterLevel = NO_LEVEL;
+
+        // Automaton states, 0 is the root; outgoing edges of state s are
+        // edgeChars/edgeTargets[edgeStart[s] .. edgeStart[s + 1]), sorted by character
+        private int[] edgeStart;
+        private char[] edgeChars;
+        private int[] edgeTargets;
+        private int[] fail;
+        // Highest level of filters ending in this state or in any state of its failure chain
+        private int[] outputLevel;
+
+        PackageRules(List<RemoteLogConfig> rules) {
+            // Trie with sorted edges while building
+            List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+            List<Integer> levels = new ArrayList<>();
+            trie.add(new TreeMap<Character, Integer>());
+            levels.add(NO_LEVEL);
+            for (RemoteLogConfig rule : rules) {
+                String filter = rule.getFilter();
+                if (filter == null || filter.isEmpty()) {
+                    anyMessageLevel = Math.max(anyMessageLevel, rule.getLogLevel());
+                    continue;
+                }
+                maxFilterLevel = Math.max(maxFilterLevel, rule.getLogLevel());
+                int state = 0;
+                for (int i = 0; i < filter.length(); i++) {
+                    char c = fold(filter.charAt(i));
+                    Integer next = trie.get(state).get(c);
+                    if (next == null) {
+                        next = trie.size();
+                        trie.add(new TreeMap<Character, Integer>());
+                        levels.add(NO_LEVEL);
+                        trie.get(state).put(c, next);
+                    }
+                    state = next;
+                }
+                levels.set(state, Math.max(levels.get(state), rule.getLogLevel()));
+            }
+
+            int stateCount = trie.size();
+            edgeStart = new int[stateCount + 1];
+            edgeChars = new char[stateCount - 1];
+            edgeTargets = new int[stateCount - 1];
+            fail = new int[stateCount];
+            outputLevel = new int[stateCount];
+            int edge = 0;
+            for (int state = 0; state < stateCount; state++) {
+                edgeStart[state] = edge;
+                for (Map.Entry<Character, Integer> entry : trie.get(state).entrySet()) {
+                    edgeChars[edge] = entry.getKey();
+                    edgeTargets[edge] = entry.getValue();
+                    edge++;
+                }
+                outputLevel[state] = levels.get(state);
+            }
+            edgeStart[stateCount] = edge;
+
+            // Failure links in breadth-first order, so the links of shorter prefixes are ready
+            int[] queue = new int[stateCount];
+            int head = 0;
+            int tail = 0;
+            for (int e = edgeStart[0]; e < edgeStart[1]; e++) {
+                fail[edgeTargets[e]] = 0;
+                queue[tail++] = edgeTargets[e];
+            }
+            while (head < tail) {
+                int state = queue[head++];
+                for (int e = edgeStart[state]; e < edgeStart[state + 1]; e++) {
+                    int child = edgeTargets[e];
+                    fail[child] = next(fail[state], edgeChars[e]);
+                    outputLevel[child] = Math.max(outputLevel[child], outputLevel[fail[child]]);
+                    queue[tail++] = child;
+                }
+            }
+        }
+
+        boolean match(int level, String message) {
+            if (level <= anyMessageLevel) {
+                return true;
+            }
+            if (level > maxFilterLevel || message == null) {
+                return false;
+            }
+            int state = 0;
+            for (int i = 0; i < message.length(); i++) {
+                state = next(state, fold(message.charAt(i)));
+                if (outputLevel[state] >= level) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Goto function with failure transitions
+        private int next(int state, char c) {
+            while (true) {
+                int target = findEdge(state, c);
+                if (target >= 0) {
+                    return target;
+                }
+                if (state == 0) {
+                    return 0;
+                }
+                state = fail[state];
+            }
+        }
+
+        private int findEdge(int state, char c) {
+            int low = edgeStart[state];
+            int high = edgeStart[state + 1] - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char midChar = edgeChars[mid];
+                if (midChar < c) {
+                    low = mid + 1;
+                } else if (midChar > c) {
+                    high = mid - 1;
+                } else {
+                    return edgeTargets[mid];
+                }
+            }
+            return -1;
+        }
+    }
+}
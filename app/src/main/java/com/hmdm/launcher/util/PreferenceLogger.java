@@ -19,53 +19,92 @@
 
 package com.hmdm.launcher.util;
 
+import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
 
 import com.hmdm.launcher.BuildConfig;
 import com.hmdm.launcher.Const;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
+/**
+ * Debug log of the device admin events, kept until it can be sent to the server.
+ * Lines are stored in a fixed-size ring file, the oldest ones are dropped when it's full.
+ */
 public class PreferenceLogger {
 
     private static boolean DEBUG = BuildConfig.DEVICE_ADMIN_DEBUG;
 
+    private static final String LOG_FILE = "admin_log.ring";
+    private static final int LOG_CAPACITY = 64 * 1024;
+
     private static SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 
-    private static void _log(SharedPreferences preferences, String message) {
+    private static RingLogFile logFile;
+
+    private static RingLogFile getLogFile(Context context) {
+        if (logFile == null) {
+            try {
+                logFile = new RingLogFile(new File(context.getApplicationContext().getFilesDir(), LOG_FILE), LOG_CAPACITY);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            // Move the log stored in preferences by older versions
+            SharedPreferences preferences = context.getApplicationContext().getSharedPreferences(Const.PREFERENCES, Context.MODE_PRIVATE);
+            String legacyLog = preferences.getString(Const.PREFERENCES_LOG_STRING, null);
+            if (legacyLog != null) {
+                if (!legacyLog.equals("")) {
+                    logFile.append(legacyLog);
+                }
+                preferences.edit().remove(Const.PREFERENCES_LOG_STRING).commit();
+            }
+        }
+        return logFile;
+    }
+
+    private static void _log(Context context, String message) {
         Log.d(Const.LOG_TAG, message);
         if (DEBUG) {
-            String logString = preferences.getString(Const.PREFERENCES_LOG_STRING, "");
-            logString += sdf.format(new Date()) + " " + message;
-            logString += "\n";
-            preferences.edit().putString(Const.PREFERENCES_LOG_STRING, logString).commit();
+            RingLogFile file = getLogFile(context);
+            if (file != null) {
+                file.append(sdf.format(new Date()) + " " + message + "\n");
+            }
         }
     }
 
-    public synchronized static void log(SharedPreferences preferences, String message) {
-        _log(preferences, message);
+    public synchronized static void log(Context context, String message) {
+        _log(context, message);
     }
 
-    public synchronized static String getLogString(SharedPreferences preferences) {
+    public synchronized static String getLogString(Context context) {
         if (DEBUG) {
-            return preferences.getString(Const.PREFERENCES_LOG_STRING, "");
+            RingLogFile file = getLogFile(context);
+            if (file != null) {
+                return file.read();
+            }
         }
         return "";
     }
 
-    public synchronized static void clearLogString(SharedPreferences preferences) {
+    public synchronized static void clearLogString(Context context) {
         if (DEBUG) {
-            preferences.edit().putString(Const.PREFERENCES_LOG_STRING, "").commit();
+            RingLogFile file = getLogFile(context);
+            if (file != null) {
+                file.clear();
+            }
         }
     }
 
-    public synchronized static void printStackTrace(SharedPreferences preferences, Exception e) {
+    public synchronized static void printStackTrace(Context context, Exception e) {
         StringWriter errors = new StringWriter();
         e.printStackTrace(new PrintWriter(errors));
-        _log(preferences, errors.toString());
+        _log(context, errors.toString());
     }
 }
@@ -0,0 +1,189 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.SystemClock;
+
+import com.hmdm.launcher.BuildConfig;
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.helper.SettingsHelper;
+import com.hmdm.launcher.json.PushResponse;
+import com.hmdm.launcher.server.ServerBackoff;
+import com.hmdm.launcher.server.ServerServiceKeeper;
+import com.hmdm.launcher.worker.PushNotificationProcessor;
+
+import org.eclipse.paho.android.service.MqttAndroidClient;
+
+import java.util.Random;
+
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * Push transport for networks where MQTT is blocked: the server holds an HTTP request
+ * until there are messages for the device, and the request is repeated right after the response.
+ * The loop runs in a dedicated thread, the foreground push service keeps the process alive.
+ */
+public class PushNotificationLongPoller {
+    private static final long MIN_RETRY_DELAY = 1000;
+    private static final long MAX_RETRY_DELAY = 60000;
+    // An empty response faster than this means the server doesn't hold the request:
+    // the next request is delayed to avoid a tight request loop
+    private static final long MIN_POLL_DURATION = 5000;
+    // Server doesn't support long polling: periodic polling is used meanwhile
+    private static final long UNSUPPORTED_RETRY_DELAY = 3600000;
+
+    private static volatile Thread thread;
+    private static volatile boolean running;
+    private static volatile Call<PushResponse> currentCall;
+    private static final Object lock = new Object();
+    private static final Random random = new Random();
+
+    // Starts the push service which runs the poller (or the poller itself if the service is not foreground)
+    public static void startService(Context context) {
+        if (!BuildConfig.MQTT_SERVICE_FOREGROUND) {
+            start(context);
+            return;
+        }
+        try {
+            Intent serviceStartIntent = new Intent();
+            serviceStartIntent.setClassName(context, MqttAndroidClient.SERVICE_NAME);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                context.startForegroundService(serviceStartIntent);
+            } else {
+                context.startService(serviceStartIntent);
+            }
+        } catch (Exception e) {
+            // Background start restrictions: the periodic worker will retry
+            e.printStackTrace();
+            start(context);
+        }
+    }
+
+    public static void start(Context context) {
+        final Context appContext = context.getApplicationContext();
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop(appContext);
+                }
+            }, "PushLongPolling");
+            thread.start();
+        }
+        RemoteLogger.log(appContext, Const.LOG_DEBUG, "Push long polling started");
+    }
+
+    public static void stop() {
+        synchronized (lock) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            Call<PushResponse> call = currentCall;
+            if (call != null) {
+                call.cancel();
+            }
+            if (thread != null) {
+                thread.interrupt();
+                thread = null;
+            }
+        }
+    }
+
+    public static boolean isRunning() {
+        return running;
+    }
+
+    private static void loop(Context context) {
+        SettingsHelper settingsHelper = SettingsHelper.getInstance(context);
+        long retryDelay = MIN_RETRY_DELAY;
+        // After stop() and start(), the previous thread must exit even if running is set again
+        while (running && thread == Thread.currentThread()) {
+            long delay = 0;
+            try {
+                Call<PushResponse> call = ServerServiceKeeper.getServerServiceInstance(context)
+                        .queryPushLongPolling(settingsHelper.getServerProject(), settingsHelper.getDeviceId());
+                currentCall = call;
+                if (!running) {
+                    break;
+                }
+                long startTime = SystemClock.elapsedRealtime();
+                Response<PushResponse> response = call.execute();
+                if (response.isSuccessful()) {
+                    PushResponse body = response.body();
+                    boolean hasMessages = body != null && Const.STATUS_OK.equals(body.getStatus()) &&
+                            body.getData() != null && !body.getData().isEmpty();
+                    if (hasMessages) {
+                        PushNotificationProcessor.processAll(body.getData(), context);
+                    }
+                    if (hasMessages || SystemClock.elapsedRealtime() - startTime >= MIN_POLL_DURATION) {
+                        retryDelay = MIN_RETRY_DELAY;
+                    } else {
+                        delay = getJitteredDelay(retryDelay);
+                        retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+                    }
+                } else if (response.code() == 404) {
+                    RemoteLogger.log(context, Const.LOG_WARN, "Push long polling is not supported by the server");
+                    delay = UNSUPPORTED_RETRY_DELAY;
+                } else {
+                    delay = ServerBackoff.getRetryDelay();
+                    if (delay == 0) {
+                        delay = getJitteredDelay(retryDelay);
+                        retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+                    }
+                }
+            } catch (ServerBackoff.ServerBusyException e) {
+                delay = Math.max(ServerBackoff.getRetryDelay(), MIN_RETRY_DELAY);
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                RemoteLogger.log(context, Const.LOG_DEBUG, "Push long polling failed: " + e.getMessage());
+                delay = getJitteredDelay(retryDelay);
+                retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+            } finally {
+                currentCall = null;
+            }
+            if (delay > 0 && running) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    // Stopped
+                }
+            }
+        }
+        RemoteLogger.log(context, Const.LOG_DEBUG, "Push long polling stopped");
+    }
+
+    // Full jitter: devices losing the connection at once don't reconnect at once
+    private static long getJitteredDelay(long delay) {
+        synchronized (random) {
+            return MIN_RETRY_DELAY + (long)(random.nextDouble() * delay);
+        }
+    }
+}
@@ -25,7 +25,6 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Handler;
 import android.os.Looper;
-import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
@@ -143,7 +142,7 @@ public class PushNotificationMqttWrapper {
                     if (checkConnectionLoop()) {
                         subscribe(context, deviceId, null, null);
                     } else {
-                        RemoteLogger.log(context, Const.LOG_ERROR, "Reconnection loop detected! You have multiple devices with ID=" + deviceId + "! MQTT service stopped.");
+                        RemoteLogger.log(context, Const.LOG_ERROR, "Reconnection loop detected! You have multiple devices with ID={}! MQTT service stopped.", deviceId);
                         disconnect(context);
                     }
                 }
@@ -224,7 +223,7 @@ public class PushNotificationMqttWrapper {
             }
         } catch (Exception e) {
             e.printStackTrace();
-            RemoteLogger.log(context, Const.LOG_DEBUG, "Exception while subscribing: " + e.getMessage());
+            RemoteLogger.log(context, Const.LOG_DEBUG, "Exception while subscribing: {}", e.getMessage());
             if (onFailure != null) {
                 handler.post(onFailure);
             }
@@ -238,7 +237,7 @@ public class PushNotificationMqttWrapper {
                 public void onReceive(Context context, Intent intent) {
                     String errorMessage = intent.getStringExtra("MqttService.errorMessage");
                     if (errorMessage != null) {
-                        Log.d(Const.LOG_TAG, intent.getStringExtra("MqttService.traceTag") + " " + errorMessage);
+                        RemoteLogger.logcat(Const.LOG_DEBUG, "{} {}", intent.getStringExtra("MqttService.traceTag"), errorMessage);
                     }
                 }
             };
@@ -265,7 +264,7 @@ public class PushNotificationMqttWrapper {
 
     private void scheduleReconnectionAfterFailure(Context context, String host, int port,
                                                   String pushType, int keepaliveTime, final String deviceId) {
-        RemoteLogger.log(context, Const.LOG_INFO, "Scheduling MQTT reconnection in " + MQTT_RECONNECT_INTERVAL_SEC + " sec");
+        RemoteLogger.log(context, Const.LOG_INFO, "Scheduling MQTT reconnection in {} sec", MQTT_RECONNECT_INTERVAL_SEC);
         Data data = new Data.Builder()
                 .putString("host", host)
                 .putInt("port", port)
@@ -0,0 +1,205 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.db.LogStorage;
+import com.hmdm.launcher.json.RemoteLogItem;
+import com.hmdm.launcher.worker.LogUploadScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log items accepted from any thread without blocking and written to the log storage
+ * by a single writer thread in batched transactions.
+ *
+ * Producers claim a sequence number and publish the item into a fixed ring of slots.
+ * If the writer falls behind by more than the capacity, the newer item replaces the oldest one
+ * (drop-oldest), so memory stays bounded and logging never waits for the disk.
+ */
+public class RemoteLogQueue {
+    private static final int CAPACITY = 1024;
+    private static final int MASK = CAPACITY - 1;
+    // Items written in one transaction
+    private static final int MAX_BATCH = 256;
+    // The writer wakes up by itself in case a wake-up has been missed
+    private static final long IDLE_PARK_NS = TimeUnit.SECONDS.toNanos(5);
+    // A producer claimed a slot but didn't publish the item yet
+    private static final long PUBLISH_WAIT_NS = TimeUnit.MILLISECONDS.toNanos(1);
+    // Full log storage maintenance once per hour
+    private static final long CLEANUP_INTERVAL = 3600000L;
+    // Storage quota is checked more often as a flood of logs may exceed it within an hour
+    private static final int QUOTA_CHECK_ITEMS = 1000;
+
+    private static class Entry {
+        final long seq;
+        final RemoteLogItem item;
+
+        Entry(long seq, RemoteLogItem item) {
+            this.seq = seq;
+            this.item = item;
+        }
+    }
+
+    private static RemoteLogQueue instance;
+
+    private final Context context;
+    private final AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<>(CAPACITY);
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicBoolean writerParked = new AtomicBoolean();
+    private final Thread writer;
+    // Accessed only by the writer thread
+    private long head;
+    private long lastCleanup;
+    private int writtenSinceQuotaCheck;
+    private final LogDeduplicator deduplicator = new LogDeduplicator();
+
+    public static synchronized RemoteLogQueue getInstance(Context context) {
+        if (instance == null) {
+            instance = new RemoteLogQueue(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private RemoteLogQueue(Context context) {
+        this.context = context;
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                writeLoop();
+            }
+        }, "RemoteLogWriter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Never blocks: may be called from the main thread
+    public void offer(RemoteLogItem item) {
+        long seq = tail.getAndIncrement();
+        Entry previous = slots.getAndSet((int)(seq & MASK), new Entry(seq, item));
+        if (previous != null) {
+            // Writer is behind by the whole ring
+            dropped.incrementAndGet();
+        }
+        if (writerParked.get() && writerParked.compareAndSet(true, false)) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void writeLoop() {
+        List<RemoteLogItem> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            try {
+                deduplicator.flush(SystemClock.elapsedRealtime(), batch);
+                drain(batch);
+                if (batch.isEmpty()) {
+                    RemoteLogger.getStorage(context).flush();
+                    park();
+                    continue;
+                }
+                write(batch);
+                batch.clear();
+            } catch (Throwable e) {
+                // Keep the writer alive whatever happens with the storage
+                e.printStackTrace();
+                batch.clear();
+                LockSupport.parkNanos(IDLE_PARK_NS);
+            }
+        }
+    }
+
+    private void drain(List<RemoteLogItem> batch) {
+        long now = SystemClock.elapsedRealtime();
+        while (batch.size() < MAX_BATCH && head < tail.get()) {
+            int index = (int)(head & MASK);
+            Entry entry = slots.get(index);
+            if (entry == null) {
+                // Slot is claimed but not yet published: take what we have, retry shortly
+                if (batch.isEmpty()) {
+                    LockSupport.parkNanos(PUBLISH_WAIT_NS);
+                }
+                return;
+            }
+            if (entry.seq == head) {
+                if (slots.compareAndSet(index, entry, null) && RemoteLogger.isMatching(context, entry.item)) {
+                    deduplicator.add(entry.item, now, batch);
+                }
+                // Otherwise the item has just been replaced by a newer one and counted as dropped
+            } else if (entry.seq < head) {
+                // Late publish over a newer item: both are gone
+                slots.compareAndSet(index, entry, null);
+                dropped.incrementAndGet();
+            }
+            // entry.seq > head: the item at head has been overwritten
+            head++;
+        }
+    }
+
+    private void park() {
+        writerParked.set(true);
+        // Re-check after announcing: an item offered in between would otherwise wait for the timeout
+        if (head < tail.get()) {
+            writerParked.set(false);
+            return;
+        }
+        // Wake up when collapsed repeats or rate limit reports are due
+        long flushDelay = deduplicator.getNextFlushTime() - SystemClock.elapsedRealtime();
+        LockSupport.parkNanos(Math.max(PUBLISH_WAIT_NS, Math.min(IDLE_PARK_NS, TimeUnit.MILLISECONDS.toNanos(flushDelay))));
+        writerParked.set(false);
+    }
+
+    private void write(List<RemoteLogItem> batch) {
+        LogStorage storage = RemoteLogger.getStorage(context);
+        storage.append(batch);
+
+        writtenSinceQuotaCheck += batch.size();
+        long now = System.currentTimeMillis();
+        if (now > lastCleanup + CLEANUP_INTERVAL) {
+            storage.maintain(true);
+            lastCleanup = now;
+            writtenSinceQuotaCheck = 0;
+            long droppedCount = dropped.get();
+            if (droppedCount > 0) {
+                Log.w(Const.LOG_TAG, "Remote log queue overflow: " + droppedCount + " items dropped");
+            }
+        } else if (writtenSinceQuotaCheck >= QUOTA_CHECK_ITEMS) {
+            storage.maintain(false);
+            writtenSinceQuotaCheck = 0;
+        }
+        LogUploadScheduler.onItemsWritten(context, batch);
+    }
+}
@@ -20,17 +20,20 @@
 package com.hmdm.launcher.util;
 
 import android.content.Context;
-import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
+import com.hmdm.launcher.BuildConfig;
 import com.hmdm.launcher.Const;
 import com.hmdm.launcher.db.DatabaseHelper;
 import com.hmdm.launcher.db.LogConfigTable;
-import com.hmdm.launcher.db.LogTable;
+import com.hmdm.launcher.db.LogStorage;
+import com.hmdm.launcher.db.SegmentLogStorage;
+import com.hmdm.launcher.db.SqliteLogStorage;
 import com.hmdm.launcher.json.RemoteLogConfig;
 import com.hmdm.launcher.json.RemoteLogItem;
 import com.hmdm.launcher.worker.RemoteLogWorker;
 
+import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -38,13 +41,136 @@ import java.util.List;
  * and storing unsent logs
  */
 public class RemoteLogger {
-    public static long lastLogRemoval = 0;
+    // Rules are compiled once, so logging doesn't query the database
+    private static volatile LogRuleMatcher ruleMatcher;
+
+    private static LogStorage storage;
+    private static LogStorage legacyStorage;
+
+    public static synchronized LogStorage getStorage(Context context) {
+        if (storage == null) {
+            storage = BuildConfig.LOG_SEGMENT_STORAGE ? new SegmentLogStorage(context) : new SqliteLogStorage(context);
+        }
+        return storage;
+    }
+
+    // Storages to upload from: items stored in the database before switching to segments are uploaded first
+    public static synchronized List<LogStorage> getUploadStorages(Context context) {
+        List<LogStorage> result = new LinkedList<>();
+        if (BuildConfig.LOG_SEGMENT_STORAGE) {
+            if (legacyStorage == null) {
+                legacyStorage = new SqliteLogStorage(context);
+            }
+            result.add(legacyStorage);
+        }
+        result.add(getStorage(context));
+        return result;
+    }
 
     public static void updateConfig(Context context, List<RemoteLogConfig> rules) {
         LogConfigTable.replaceAll(DatabaseHelper.instance(context).getWritableDatabase(), rules);
+        ruleMatcher = new LogRuleMatcher(rules);
+    }
+
+    // Called by the log writer thread: rules stored by the previous run are loaded there once
+    static boolean isMatching(Context context, RemoteLogItem item) {
+        LogRuleMatcher matcher = ruleMatcher;
+        if (matcher == null) {
+            synchronized (RemoteLogger.class) {
+                matcher = ruleMatcher;
+                if (matcher == null) {
+                    matcher = new LogRuleMatcher(LogConfigTable.selectAll(DatabaseHelper.instance(context).getReadableDatabase()));
+                    ruleMatcher = matcher;
+                }
+            }
+        }
+        return matcher.match(item.getPackageId(), item.getLogLevel(), item.getMessage());
+    }
+
+    // Logcat level: everything in debug builds, INFO and above in release builds
+    // unless enabled by "adb shell setprop log.tag.HeadwindMDM VERBOSE" (or DEBUG)
+    private static int localLevel = -1;
+
+    private static int getLocalLevel() {
+        if (localLevel < 0) {
+            int level = BuildConfig.DEBUG ? Const.LOG_VERBOSE : Const.LOG_INFO;
+            if (Log.isLoggable(Const.LOG_TAG, Log.VERBOSE)) {
+                level = Const.LOG_VERBOSE;
+            } else if (Log.isLoggable(Const.LOG_TAG, Log.DEBUG)) {
+                level = Math.max(level, Const.LOG_DEBUG);
+            }
+            localLevel = level;
+        }
+        return localLevel;
+    }
+
+    private static boolean isRemoteLoggable(Context context, int level) {
+        LogRuleMatcher matcher = ruleMatcher;
+        // Until the rules are loaded, everything is passed to the log writer
+        return matcher == null || matcher.isEnabled(context.getPackageName(), level);
+    }
+
+    // True if a message of this level is written to logcat or may be sent to the server:
+    // check it before building an expensive message
+    public static boolean isLoggable(Context context, int level) {
+        return level <= getLocalLevel() || isRemoteLoggable(context, level);
     }
 
     public static void log(Context context, int level, String message) {
+        if (level <= getLocalLevel()) {
+            logcat(level, message);
+        }
+        if (!isRemoteLoggable(context, level)) {
+            return;
+        }
+
+        RemoteLogItem item = new RemoteLogItem();
+        item.setTimestamp(System.currentTimeMillis());
+        item.setLogLevel(level);
+        item.setPackageId(context.getPackageName());
+        item.setMessage(message);
+        postLog(context, item);
+    }
+
+    // Parameterized messages: "{}" is replaced by the arguments, the message is built only if it's consumed
+    public static void log(Context context, int level, String format, Object arg1) {
+        if (isLoggable(context, level)) {
+            log(context, level, format(format, arg1, null, null));
+        }
+    }
+
+    public static void log(Context context, int level, String format, Object arg1, Object arg2) {
+        if (isLoggable(context, level)) {
+            log(context, level, format(format, arg1, arg2, null));
+        }
+    }
+
+    public static void log(Context context, int level, String format, Object arg1, Object arg2, Object arg3) {
+        if (isLoggable(context, level)) {
+            log(context, level, format(format, arg1, arg2, arg3));
+        }
+    }
+
+    // Logcat only (not sent to the server), e.g. for per-item traces in loops
+    public static void logcat(int level, String format, Object arg1) {
+        if (level <= getLocalLevel()) {
+            logcat(level, format(format, arg1, null, null));
+        }
+    }
+
+    public static void logcat(int level, String format, Object arg1, Object arg2) {
+        if (level <= getLocalLevel()) {
+            logcat(level, format(format, arg1, arg2, null));
+        }
+    }
+
+    public static void logcat(int level, String format, Object arg1, Object arg2, Object arg3) {
+        if (level <= getLocalLevel()) {
+            logcat(level, format(format, arg1, arg2, arg3));
+        }
+    }
+
+    private static void logcat(int level, String message) {
         switch (level) {
             case Const.LOG_VERBOSE:
                 Log.v(Const.LOG_TAG, message);
@@ -62,30 +188,30 @@ public class RemoteLogger {
                 Log.e(Const.LOG_TAG, message);
                 break;
         }
-
-        RemoteLogItem item = new RemoteLogItem();
-        item.setTimestamp(System.currentTimeMillis());
-        item.setLogLevel(level);
-        item.setPackageId(context.getPackageName());
-        item.setMessage(message);
-        postLog(context, item);
     }
 
-    public static void postLog(Context context, RemoteLogItem item) {
-        DatabaseHelper dbHelper = DatabaseHelper.instance(context);
-        SQLiteDatabase db = dbHelper.getReadableDatabase();
-        if (LogConfigTable.match(db, item)) {
-            db = dbHelper.getWritableDatabase();
-            LogTable.insert(db, item);
-            sendLogsToServer(context);
+    private static String format(String format, Object arg1, Object arg2, Object arg3) {
+        StringBuilder sb = new StringBuilder(format.length() + 32);
+        int argIndex = 0;
+        int start = 0;
+        int placeholder;
+        while ((placeholder = format.indexOf("{}", start)) >= 0 && argIndex < 3) {
+            sb.append(format, start, placeholder);
+            sb.append(argIndex == 0 ? arg1 : (argIndex == 1 ? arg2 : arg3));
+            argIndex++;
+            start = placeholder + 2;
         }
+        sb.append(format, start, format.length());
+        return sb.toString();
+    }
 
-        // Remove old logs once per hour
-        long now = System.currentTimeMillis();
-        if (now > lastLogRemoval + 3600000L) {
-            db = dbHelper.getWritableDatabase();
-            LogTable.deleteOldItems(db);
-            lastLogRemoval = now;
+    // Doesn't block: matching items are written to the database and uploaded by the log writer thread
+    public static void postLog(Context context, RemoteLogItem item) {
+        // Non-matching items are filtered here to save the queue space; until the rules are loaded,
+        // the writer thread filters them instead
+        LogRuleMatcher matcher = ruleMatcher;
+        if (matcher == null || matcher.match(item.getPackageId(), item.getLogLevel(), item.getMessage())) {
+            RemoteLogQueue.getInstance(context).offer(item);
         }
     }
 
@@ -0,0 +1,136 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Fixed-size text log in a memory-mapped file: appending a line costs O(line length)
+ * regardless of the log size, the oldest lines are overwritten when the file is full.
+ * Written data is kept by the OS page cache, so it survives the process death.
+ * Not thread safe: the caller must synchronize.
+ */
+class RingLogFile {
+    private static final int MAGIC = 0x484C4F47;
+    // Header: magic, offset of the oldest line, number of used bytes
+    private static final int HEADER_SIZE = 12;
+    private static final int POS_MAGIC = 0;
+    private static final int POS_HEAD = 4;
+    private static final int POS_SIZE = 8;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private int head;
+    private int size;
+
+    RingLogFile(File file, int capacity) throws IOException {
+        this.capacity = capacity;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // The mapping stays valid after the channel is closed
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+        } finally {
+            raf.close();
+        }
+        head = buffer.getInt(POS_HEAD);
+        size = buffer.getInt(POS_SIZE);
+        if (buffer.getInt(POS_MAGIC) != MAGIC || head < 0 || head >= capacity || size < 0 || size > capacity) {
+            // New file, or created with a different capacity
+            head = 0;
+            size = 0;
+            writeHeader();
+            buffer.putInt(POS_MAGIC, MAGIC);
+        }
+    }
+
+    void append(String line) {
+        byte[] data = line.getBytes(UTF8);
+        int offset = 0;
+        int length = data.length;
+        if (length > capacity) {
+            // Keep only the tail of a huge line
+            offset = length - capacity;
+            length = capacity;
+        }
+        int overflow = size + length - capacity;
+        if (overflow > 0) {
+            // Drop the oldest data, then the rest of the partially overwritten line
+            head = (head + overflow) % capacity;
+            size -= overflow;
+            while (size > 0 && buffer.get(HEADER_SIZE + head) != '\n') {
+                head = (head + 1) % capacity;
+                size--;
+            }
+            if (size > 0) {
+                head = (head + 1) % capacity;
+                size--;
+            }
+        }
+        int tail = (head + size) % capacity;
+        int firstPart = Math.min(length, capacity - tail);
+        putBytes(tail, data, offset, firstPart);
+        putBytes(0, data, offset + firstPart, length - firstPart);
+        size += length;
+        writeHeader();
+    }
+
+    // Lines in the order they were written
+    String read() {
+        byte[] data = new byte[size];
+        int firstPart = Math.min(size, capacity - head);
+        getBytes(head, data, 0, firstPart);
+        getBytes(0, data, firstPart, size - firstPart);
+        return new String(data, UTF8);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+        writeHeader();
+    }
+
+    private void writeHeader() {
+        buffer.putInt(POS_HEAD, head);
+        buffer.putInt(POS_SIZE, size);
+    }
+
+    private void putBytes(int position, byte[] data, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            buffer.put(HEADER_SIZE + position + i, data[offset + i]);
+        }
+    }
+
+    private void getBytes(int position, byte[] data, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            data[offset + i] = buffer.get(HEADER_SIZE + position + i);
+        }
+    }
+}
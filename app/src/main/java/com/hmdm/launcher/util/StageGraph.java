@@ -0,0 +1,243 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.task.TaskExecutors;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a set of stages with explicit dependencies: a stage is started as soon as
+ * all stages it depends on are completed, so independent stages run concurrently.
+ * The graph itself is driven by the main thread; background stages run in the pool given per stage.
+ */
+public class StageGraph {
+
+    public interface Stage {
+        // Must call done.run() exactly once when the stage is completed (in any thread)
+        void run(Runnable done);
+    }
+
+    public interface CompletionHandler {
+        void onComplete(String timings);
+    }
+
+    // Pool of a stage running in the main thread
+    private static final int MAIN_THREAD = -1;
+
+    private static class Node {
+        String name;
+        int pool;
+        Stage stage;
+        String[] dependsOn;
+        List<Node> dependents = new LinkedList<>();
+        int pendingDependencies;
+        boolean done;
+        long startTime;
+        long endTime;
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private CompletionHandler completionHandler;
+    private boolean cancelled;
+    private int remaining;
+    private long startTime;
+    private final int priority;
+
+    public StageGraph(int priority) {
+        this.priority = priority;
+    }
+
+    // Stage running in the main thread; it may start asynchronous work and call done() later
+    public StageGraph addStage(String name, Stage stage, String... dependsOn) {
+        return addStage(name, MAIN_THREAD, stage, dependsOn);
+    }
+
+    // Stage running in a background pool: TaskExecutors.POOL_DISK for I/O, POOL_CPU for checksums and parsing
+    public StageGraph addBackgroundStage(String name, int pool, Stage stage, String... dependsOn) {
+        return addStage(name, pool, stage, dependsOn);
+    }
+
+    private StageGraph addStage(String name, int pool, Stage stage, String... dependsOn) {
+        if (nodes.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate stage " + name);
+        }
+        Node node = new Node();
+        node.name = name;
+        node.pool = pool;
+        node.stage = stage;
+        node.dependsOn = dependsOn;
+        nodes.put(name, node);
+        return this;
+    }
+
+    // Must be called in the main thread
+    public void start(CompletionHandler completionHandler) {
+        this.completionHandler = completionHandler;
+        for (Node node : nodes.values()) {
+            for (String dependency : node.dependsOn) {
+                Node parent = nodes.get(dependency);
+                if (parent == null) {
+                    throw new IllegalArgumentException("Stage " + node.name + " depends on unknown stage " + dependency);
+                }
+                parent.dependents.add(node);
+                node.pendingDependencies++;
+            }
+        }
+        checkAcyclic();
+
+        remaining = nodes.size();
+        startTime = SystemClock.elapsedRealtime();
+        if (remaining == 0) {
+            complete();
+            return;
+        }
+        for (Node node : nodes.values()) {
+            if (node.pendingDependencies == 0) {
+                launch(node);
+            }
+        }
+    }
+
+    // Stages which are not yet started are skipped, the completion handler is not called
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void checkAcyclic() {
+        // Kahn's algorithm: all nodes must be reachable from the nodes without dependencies
+        Map<Node, Integer> degrees = new LinkedHashMap<>();
+        List<Node> queue = new LinkedList<>();
+        for (Node node : nodes.values()) {
+            degrees.put(node, node.pendingDependencies);
+            if (node.pendingDependencies == 0) {
+                queue.add(node);
+            }
+        }
+        int visited = 0;
+        while (!queue.isEmpty()) {
+            Node node = queue.remove(0);
+            visited++;
+            for (Node dependent : node.dependents) {
+                int degree = degrees.get(dependent) - 1;
+                degrees.put(dependent, degree);
+                if (degree == 0) {
+                    queue.add(dependent);
+                }
+            }
+        }
+        if (visited != nodes.size()) {
+            throw new IllegalArgumentException("Stage dependencies contain a cycle");
+        }
+    }
+
+    private void launch(final Node node) {
+        if (cancelled) {
+            return;
+        }
+        node.startTime = SystemClock.elapsedRealtime();
+        Log.d(Const.LOG_TAG, "Stage " + node.name + " started");
+        final Runnable done = new Runnable() {
+            @Override
+            public void run() {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onStageDone(node);
+                    }
+                });
+            }
+        };
+        if (node.pool != MAIN_THREAD) {
+            TaskExecutors.execute(node.pool, priority, new Runnable() {
+                @Override
+                public void run() {
+                    runStage(node, done);
+                }
+            });
+        } else {
+            runStage(node, done);
+        }
+    }
+
+    private void runStage(Node node, Runnable done) {
+        try {
+            node.stage.run(done);
+        } catch (Exception e) {
+            // A failed stage should not block the whole graph
+            e.printStackTrace();
+            done.run();
+        }
+    }
+
+    private void onStageDone(Node node) {
+        if (cancelled || node.done) {
+            return;
+        }
+        node.done = true;
+        node.endTime = SystemClock.elapsedRealtime();
+        remaining--;
+        for (Node dependent : node.dependents) {
+            dependent.pendingDependencies--;
+            if (dependent.pendingDependencies == 0) {
+                launch(dependent);
+            }
+        }
+        if (remaining == 0) {
+            complete();
+        }
+    }
+
+    private void complete() {
+        if (completionHandler != null) {
+            completionHandler.onComplete(getTimings());
+        }
+    }
+
+    // Per-stage timings in the form "name: started at +N ms, took M ms"
+    public String getTimings() {
+        StringBuilder sb = new StringBuilder();
+        long total = 0;
+        for (Node node : nodes.values()) {
+            if (!node.done) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(node.name).append(": +").append(node.startTime - startTime)
+                    .append("ms/").append(node.endTime - node.startTime).append("ms");
+            if (node.endTime - startTime > total) {
+                total = node.endTime - startTime;
+            }
+        }
+        return "total " + total + "ms; " + sb.toString();
+    }
+}
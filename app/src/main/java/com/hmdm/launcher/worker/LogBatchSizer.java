@@ -0,0 +1,96 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.worker;
+
+import com.hmdm.launcher.json.RemoteLogItem;
+
+import java.util.List;
+
+/**
+ * Size of remote log upload batches, adapted to the observed upload latency:
+ * fast uploads of full batches double the limits, slow or failed uploads halve them.
+ * A batch is limited both by the item count and by the estimated request size.
+ * Plain Java so the fleet simulator uses the same logic.
+ */
+public class LogBatchSizer {
+    public static final int MIN_ITEMS = 10;
+    public static final int INITIAL_ITEMS = 100;
+    public static final int MAX_ITEMS = 5000;
+
+    public static final int MIN_BYTES = 16 * 1024;
+    public static final int INITIAL_BYTES = 64 * 1024;
+    public static final int MAX_BYTES = 1024 * 1024;
+
+    // Uploads faster than this grow the batch, slower than SLOW_UPLOAD_MS shrink it
+    private static final long FAST_UPLOAD_MS = 1500;
+    private static final long SLOW_UPLOAD_MS = 5000;
+
+    // JSON field names, timestamp and level
+    private static final int ITEM_OVERHEAD = 80;
+
+    private int maxItems = INITIAL_ITEMS;
+    private int maxBytes = INITIAL_BYTES;
+
+    public synchronized int getMaxItems() {
+        return maxItems;
+    }
+
+    public synchronized int getMaxBytes() {
+        return maxBytes;
+    }
+
+    public static int estimateSize(RemoteLogItem item) {
+        return ITEM_OVERHEAD + (item.getPackageId() != null ? item.getPackageId().length() : 0) +
+                (item.getMessage() != null ? item.getMessage().length() : 0);
+    }
+
+    // Number of leading items fitting in the byte limit (at least one, so a huge item doesn't block the queue)
+    public static int fit(List<RemoteLogItem> items, int maxBytes) {
+        int count = 0;
+        long bytes = 0;
+        for (RemoteLogItem item : items) {
+            bytes += estimateSize(item);
+            if (count > 0 && bytes > maxBytes) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    public synchronized void onUploaded(int count, long bytes, long durationMs) {
+        if (durationMs > SLOW_UPLOAD_MS) {
+            shrink();
+        } else if (durationMs < FAST_UPLOAD_MS && (count >= maxItems || bytes * 2 >= maxBytes)) {
+            // Only a batch limited by the sizer shows that a larger one could be sent
+            maxItems = Math.min(MAX_ITEMS, maxItems * 2);
+            maxBytes = Math.min(MAX_BYTES, maxBytes * 2);
+        }
+    }
+
+    public synchronized void onFailed() {
+        shrink();
+    }
+
+    private void shrink() {
+        maxItems = Math.max(MIN_ITEMS, maxItems / 2);
+        maxBytes = Math.max(MIN_BYTES, maxBytes / 2);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.worker;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.json.RemoteLogItem;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the remote logs are uploaded, so a burst of logs results in one upload job.
+ *
+ * Flush triggers: the oldest pending item reaching the maximum age, a large backlog,
+ * an error message (flushed within seconds), an explicit request, and the network coming back
+ * after a failed upload. Items the storage holds back to upload them in larger units are
+ * uploaded by a later job, unless a trigger is urgent (explicit request, error or backlog). At most one job is enqueued at a time; an enqueued job is replaced only
+ * if a trigger makes it due significantly earlier and it's not running yet, which happens
+ * at most a couple of times per job.
+ */
+public class LogUploadScheduler {
+    private static final String WORK_TAG_REMOTE_LOG = "com.hmdm.launcher.WORK_TAG_REMOTE_LOG";
+
+    // Logs are sent once per minute to reduce the server load
+    public static final long MAX_AGE_MS = 60000;
+    public static final long ERROR_DELAY_MS = 5000;
+    public static final int BACKLOG_ITEMS = 500;
+    // If the upload failed, retry in 15 minutes (or when the network is back)
+    public static final long RETRY_DELAY_MS = 15 * 60000;
+    // An enqueued job is replaced only if the new due time is earlier by this value
+    private static final long RESCHEDULE_THRESHOLD_MS = 3000;
+
+    private static int pendingItems;
+    private static long oldestPendingTime;
+    private static boolean pendingError;
+    // The next job uploads all items, including those the storage would hold back
+    private static boolean urgent;
+    private static long heldBackDueTime;
+    private static boolean enqueued;
+    private static boolean running;
+    private static long enqueuedDueTime;
+    private static boolean failed;
+
+    // Called by the log writer after the items are stored
+    public static synchronized void onItemsWritten(Context context, List<RemoteLogItem> items) {
+        long now = System.currentTimeMillis();
+        if (pendingItems == 0) {
+            oldestPendingTime = now;
+        }
+        pendingItems += items.size();
+        for (RemoteLogItem item : items) {
+            if (item.getLogLevel() == Const.LOG_ERROR) {
+                pendingError = true;
+                break;
+            }
+        }
+        if (pendingError || pendingItems >= BACKLOG_ITEMS) {
+            urgent = true;
+        }
+        if (!failed) {
+            schedule(context, getDueTime(now), now, false);
+        }
+    }
+
+    // Explicit request, e.g. at startup when logs may remain from the previous run
+    public static synchronized void flush(Context context) {
+        long now = System.currentTimeMillis();
+        urgent = true;
+        schedule(context, now, now, false);
+    }
+
+    // Retries a failed upload as soon as the network is available
+    public static synchronized void onNetworkAvailable(Context context) {
+        if (failed) {
+            failed = false;
+            long now = System.currentTimeMillis();
+            schedule(context, now, now, false);
+        }
+    }
+
+    // Returns true if the job must upload all items
+    static synchronized boolean onUploadStarted() {
+        running = true;
+        // Items written from now on may be missed by the running job, they are counted again
+        pendingItems = 0;
+        pendingError = false;
+        heldBackDueTime = 0;
+        boolean result = urgent;
+        urgent = false;
+        return result;
+    }
+
+    // Called by the job before onUploadFinished if the storage held back some items
+    static synchronized void onItemsHeldBack(long delay) {
+        heldBackDueTime = System.currentTimeMillis() + delay;
+    }
+
+    // Called by the job before it returns, so the next job is appended to the running one
+    static synchronized void onUploadFinished(Context context, boolean success) {
+        running = false;
+        enqueued = false;
+        long now = System.currentTimeMillis();
+        if (!success) {
+            failed = true;
+            schedule(context, now + RETRY_DELAY_MS, now, true);
+        } else {
+            failed = false;
+            if (pendingItems > 0) {
+                long dueTime = getDueTime(now);
+                schedule(context, heldBackDueTime > 0 ? Math.min(dueTime, heldBackDueTime) : dueTime, now, true);
+            } else if (heldBackDueTime > 0) {
+                schedule(context, heldBackDueTime, now, true);
+            }
+        }
+    }
+
+    private static long getDueTime(long now) {
+        if (pendingItems >= BACKLOG_ITEMS) {
+            return now;
+        }
+        if (pendingError) {
+            return Math.min(now + ERROR_DELAY_MS, oldestPendingTime + MAX_AGE_MS);
+        }
+        return oldestPendingTime + MAX_AGE_MS;
+    }
+
+    private static void schedule(Context context, long dueTime, long now, boolean fromRunningJob) {
+        ExistingWorkPolicy policy;
+        if (fromRunningJob) {
+            // KEEP would ignore the request while the unique work is still running
+            policy = ExistingWorkPolicy.APPEND_OR_REPLACE;
+        } else if (running) {
+            // The running job schedules the next one for the items written meanwhile
+            return;
+        } else if (enqueued) {
+            if (dueTime > enqueuedDueTime - RESCHEDULE_THRESHOLD_MS) {
+                // The enqueued job will send these items
+                return;
+            }
+            policy = ExistingWorkPolicy.REPLACE;
+        } else {
+            // WorkManager jobs outlive the process: a job left by the previous process (e.g. a retry
+            // in 15 minutes) has an unknown due time, so it's replaced rather than kept
+            policy = ExistingWorkPolicy.REPLACE;
+        }
+        long delay = Math.max(0, dueTime - now);
+        Log.i(Const.LOG_TAG, "RemoteLogWorker scheduled in " + delay + " ms");
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(RemoteLogWorker.class)
+                .addTag(Const.WORK_TAG_COMMON)
+                .setInitialDelay(delay, TimeUnit.MILLISECONDS)
+                .setConstraints(new Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .build())
+                .build();
+        WorkManager.getInstance(context.getApplicationContext()).enqueueUniqueWork(WORK_TAG_REMOTE_LOG, policy, request);
+        enqueued = true;
+        enqueuedDueTime = dueTime;
+    }
+}
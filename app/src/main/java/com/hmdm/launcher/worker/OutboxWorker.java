@@ -0,0 +1,84 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.worker;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.hmdm.launcher.Const;
+import com.hmdm.launcher.helper.Outbox;
+import com.hmdm.launcher.server.ConnectionPrewarmer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the pending outbox items in a batch when the network is available
+ */
+public class OutboxWorker extends Worker {
+
+    private static final String WORK_TAG_OUTBOX = "com.hmdm.launcher.WORK_TAG_OUTBOX";
+
+    // Initial retry delay, doubled on each failed attempt by WorkManager
+    public static final int RETRY_DELAY_SEC = 30;
+
+    public static void scheduleFlush(Context context) {
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(OutboxWorker.class)
+                .addTag(Const.WORK_TAG_COMMON)
+                .setConstraints(new Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .build())
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, RETRY_DELAY_SEC, TimeUnit.SECONDS)
+                .build();
+        // If the flush is already scheduled, it will send the new items as well
+        WorkManager.getInstance(context.getApplicationContext())
+                .enqueueUniqueWork(WORK_TAG_OUTBOX, ExistingWorkPolicy.KEEP, request);
+    }
+
+    private Context context;
+
+    public OutboxWorker(
+            @NonNull Context context,
+            @NonNull WorkerParameters params) {
+        super(context, params);
+        this.context = context;
+    }
+
+    @Override
+    // This is running in a background thread by WorkManager
+    public Result doWork() {
+        // Connection is opened while the pending items are read from the database
+        ConnectionPrewarmer.prewarm(context);
+        try {
+            return Outbox.flush(context) == 0 ? Result.success() : Result.retry();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Result.retry();
+        }
+    }
+}
@@ -25,18 +25,54 @@ import android.content.Intent;
 import com.hmdm.launcher.Const;
 import com.hmdm.launcher.helper.ConfigUpdater;
 import com.hmdm.launcher.json.PushMessage;
+import com.hmdm.launcher.task.ApplyConfigPatchTask;
 import com.hmdm.launcher.util.RemoteLogger;
 
 import org.json.JSONObject;
 
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
 public class PushNotificationProcessor {
+    // Processes the messages received at once: duplicate configuration update requests are merged
+    public static void processAll(List<PushMessage> messages, Context context) {
+        Map<String, PushMessage> filteredMessages = new HashMap<String, PushMessage>();
+        List<JSONObject> configPatches = new LinkedList<JSONObject>();
+        for (PushMessage message : messages) {
+            if (message.getMessageType().equals(PushMessage.TYPE_CONFIG_PATCH)) {
+                // Patches are chained by versions so they must be applied in order
+                configPatches.add(message.getPayloadJSON());
+            } else if (!message.getMessageType().equals(PushMessage.TYPE_CONFIG_UPDATED) ||
+                    !filteredMessages.containsKey(PushMessage.TYPE_CONFIG_UPDATED)) {
+                // Filter out multiple configuration update requests
+                filteredMessages.put(message.getMessageType(), message);
+            }
+        }
+        if (!filteredMessages.containsKey(PushMessage.TYPE_CONFIG_UPDATED)) {
+            // Patches are not required if the whole configuration is updated
+            if (!configPatches.isEmpty()) {
+                RemoteLogger.log(context, Const.LOG_INFO, "Got Push Message, type {}, count {}",
+                        PushMessage.TYPE_CONFIG_PATCH, configPatches.size());
+                applyConfigPatches(context, configPatches.toArray(new JSONObject[configPatches.size()]));
+            }
+        }
+        for (Map.Entry<String, PushMessage> entry : filteredMessages.entrySet()) {
+            process(entry.getValue(), context);
+        }
+    }
+
     public static void process(PushMessage message, Context context) {
         RemoteLogger.log(context, Const.LOG_INFO, "Got Push Message, type " + message.getMessageType());
         if (message.getMessageType().equals(PushMessage.TYPE_CONFIG_UPDATED)) {
             // Update local configuration
-            ConfigUpdater.notifyConfigUpdate(context);
+            ConfigUpdater.notifyConfigUpdate(context, message);
+        } else if (message.getMessageType().equals(PushMessage.TYPE_CONFIG_PATCH)) {
+            // Apply the partial update and refetch the whole configuration if the patch doesn't fit
+            applyConfigPatches(context, message.getPayloadJSON());
+            return;
         } else if (message.getMessageType().equals(PushMessage.TYPE_RUN_APP)) {
             // Run application
             runApplication(context, message.getPayloadJSON());
@@ -52,6 +88,19 @@ public class PushNotificationProcessor {
         context.sendBroadcast(intent);
     }
 
+    private static void applyConfigPatches(final Context context, JSONObject... payloads) {
+        new ApplyConfigPatchTask(context) {
+            @Override
+            protected void onPostExecute(Integer result) {
+                if (result == Const.TASK_SUCCESS) {
+                    ConfigUpdater.notifyConfigPatched(context);
+                } else {
+                    ConfigUpdater.notifyConfigUpdate(context);
+                }
+            }
+        }.execute(payloads);
+    }
+
     private static void runApplication(Context context, JSONObject payload) {
         if (payload == null) {
             return;
@@ -31,15 +31,13 @@ import androidx.work.WorkerParameters;
 import com.hmdm.launcher.Const;
 import com.hmdm.launcher.helper.ConfigUpdater;
 import com.hmdm.launcher.helper.SettingsHelper;
-import com.hmdm.launcher.json.PushMessage;
 import com.hmdm.launcher.json.PushResponse;
 import com.hmdm.launcher.json.ServerConfig;
 import com.hmdm.launcher.server.ServerService;
 import com.hmdm.launcher.server.ServerServiceKeeper;
+import com.hmdm.launcher.util.PushNotificationLongPoller;
 import com.hmdm.launcher.util.RemoteLogger;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import retrofit2.Response;
@@ -91,6 +89,13 @@ public class PushNotificationWorker extends Worker {
             // Re-connection of MQTT client at Headwind MDM startup is implemented in MainActivity
             // So by now, just request configuration update some times per day to avoid "device lost" issues
             return doMqttWork();
+        } else if (pushOptions.equals(ServerConfig.PUSH_OPTIONS_LONG_POLLING)) {
+            if (PushNotificationLongPoller.isRunning()) {
+                return Result.success();
+            }
+            // The poller has been stopped by the system: restart it and catch up missed messages
+            PushNotificationLongPoller.startService(context);
+            return doPollingWork();
         } else {
             // PUSH_OPTIONS_POLLING by default
             return doPollingWork();
@@ -99,8 +104,9 @@ public class PushNotificationWorker extends Worker {
 
     // Query server for incoming messages each 15 minutes
     private Result doPollingWork() {
-        ServerService serverService = ServerServiceKeeper.getServerServiceInstance(context);
-        ServerService secondaryServerService = ServerServiceKeeper.getSecondaryServerServiceInstance(context);
+        ServerService[] serverServices = ServerServiceKeeper.getServerServices(context);
+        ServerService serverService = serverServices[0];
+        ServerService secondaryServerService = serverServices[1];
         Response<PushResponse> response = null;
 
         RemoteLogger.log(context, Const.LOG_DEBUG, "Querying push notifications");
@@ -120,17 +126,7 @@ public class PushNotificationWorker extends Worker {
 
             if ( response.isSuccessful() ) {
                 if ( Const.STATUS_OK.equals( response.body().getStatus() ) && response.body().getData() != null ) {
-                    Map<String, PushMessage> filteredMessages = new HashMap<String, PushMessage>();
-                    for (PushMessage message : response.body().getData()) {
-                        // Filter out multiple configuration update requests
-                        if (!message.getMessageType().equals(PushMessage.TYPE_CONFIG_UPDATED) ||
-                                !filteredMessages.containsKey(PushMessage.TYPE_CONFIG_UPDATED)) {
-                            filteredMessages.put(message.getMessageType(), message);
-                        }
-                    }
-                    for (Map.Entry<String, PushMessage> entry : filteredMessages.entrySet()) {
-                        PushNotificationProcessor.process(entry.getValue(), context);
-                    }
+                    PushNotificationProcessor.processAll(response.body().getData(), context);
                     return Result.success();
                 } else {
                     return Result.failure();
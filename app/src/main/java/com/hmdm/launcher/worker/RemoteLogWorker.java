@@ -20,63 +20,38 @@
 package com.hmdm.launcher.worker;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
-import androidx.work.ExistingWorkPolicy;
-import androidx.work.OneTimeWorkRequest;
-import androidx.work.WorkManager;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
 import com.hmdm.launcher.Const;
-import com.hmdm.launcher.db.DatabaseHelper;
-import com.hmdm.launcher.db.LogTable;
+import com.hmdm.launcher.db.LogStorage;
 import com.hmdm.launcher.helper.SettingsHelper;
 import com.hmdm.launcher.json.RemoteLogItem;
+import com.hmdm.launcher.server.ConnectionPrewarmer;
 import com.hmdm.launcher.server.ServerService;
 import com.hmdm.launcher.server.ServerServiceKeeper;
+import com.hmdm.launcher.util.RemoteLogger;
 
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 import okhttp3.ResponseBody;
 import retrofit2.Response;
 
 public class RemoteLogWorker extends Worker {
 
-    // Amount of log messages sent to server at once
-    public static final int MAX_UPLOADED_MESSAGES = 10;
-
-    // Logs are sent once per minute to reduce the server load
-    public static final int FIRE_PERIOD_MINS = 1;
-
-    // If there's no Internet, retry in 15 minutes
-    public static final int FIRE_PERIOD_RETRY_MINS = 15;
-
-    private static final String WORK_TAG_REMOTE_LOG = "com.hmdm.launcher.WORK_TAG_REMOTE_LOG";
-
-    private static boolean uploadScheduled = false;
+    // Batch limits survive between the runs of the worker
+    private static final LogBatchSizer batchSizer = new LogBatchSizer();
 
     private Context context;
     private SettingsHelper settingsHelper;
 
+    // Requests the upload of all pending logs now
     public static void scheduleUpload(Context context) {
-        scheduleUpload(context, 0);
-    }
-
-    public static void scheduleUpload(Context context, int delayMins) {
-        Log.i(Const.LOG_TAG, "RemoteLogWorker scheduled");
-        OneTimeWorkRequest.Builder builder = new OneTimeWorkRequest.Builder(RemoteLogWorker.class);
-        builder.addTag(Const.WORK_TAG_COMMON);
-        if (delayMins > 0) {
-            builder.setInitialDelay(delayMins, TimeUnit.MINUTES);
-        }
-        OneTimeWorkRequest uploadWorkRequest = builder.build();
-        if (!uploadScheduled) {
-            uploadScheduled = true;
-            WorkManager.getInstance(context).enqueueUniqueWork(WORK_TAG_REMOTE_LOG, ExistingWorkPolicy.REPLACE, uploadWorkRequest);
-        }
+        LogUploadScheduler.flush(context);
     }
 
     public RemoteLogWorker(
@@ -90,42 +65,58 @@ public class RemoteLogWorker extends Worker {
     @Override
     // This is running in a background thread by WorkManager
     public Result doWork() {
+        // Connection is opened while the pending items are read from the database
+        ConnectionPrewarmer.prewarm(context);
+        boolean urgent = LogUploadScheduler.onUploadStarted();
+        // Retries are scheduled by LogUploadScheduler, so the job always succeeds:
+        // a failed job would also fail the job appended to it
         try {
-            DatabaseHelper dbHelper = DatabaseHelper.instance(context);
-
-            while (true) {
-                List<RemoteLogItem> unsentItems = LogTable.select(dbHelper.getReadableDatabase(), MAX_UPLOADED_MESSAGES);
-                Log.i(Const.LOG_TAG, "Remote logger: unsent items: " + unsentItems.size());
-                if (unsentItems.size() == 0) {
-                    uploadScheduled = false;
-                    return Result.success();
+            for (LogStorage storage : RemoteLogger.getUploadStorages(context)) {
+                while (true) {
+                    LogStorage.Batch batch = storage.nextBatch(batchSizer.getMaxItems(), batchSizer.getMaxBytes(), urgent);
+                    if (batch == null) {
+                        break;
+                    }
+                    Log.i(Const.LOG_TAG, "Remote logger: uploading " + batch.items.size() + " items");
+                    long bytes = 0;
+                    for (RemoteLogItem item : batch.items) {
+                        bytes += LogBatchSizer.estimateSize(item);
+                    }
+                    long startTime = SystemClock.elapsedRealtime();
+                    if (!upload(batch.items)) {
+                        batchSizer.onFailed();
+                        Log.i(Const.LOG_TAG, "Failed to upload logs: retry later");
+                        LogUploadScheduler.onUploadFinished(context, false);
+                        return Result.success();
+                    } else {
+                        long duration = SystemClock.elapsedRealtime() - startTime;
+                        batchSizer.onUploaded(batch.items.size(), bytes, duration);
+                        Log.i(Const.LOG_TAG, "Logs are uploaded: " + batch.items.size() + " items, " + duration + " ms");
+                        storage.remove(batch);
+                    }
                 }
-                if (!upload(unsentItems)) {
-                    // There was an error: retry!
-                    // XXX: we do not use Result.retry() here because new logs may come
-                    Log.i(Const.LOG_TAG, "Failed to upload logs: retry in " + FIRE_PERIOD_RETRY_MINS + " mins");
-                    uploadScheduled = false;
-                    scheduleUpload(context, FIRE_PERIOD_RETRY_MINS);
-                    return Result.failure();
-                } else {
-                    Log.i(Const.LOG_TAG, "Logs are uploaded");
-                    // Mark items as sent and query next items
-                    LogTable.delete(DatabaseHelper.instance(context).getWritableDatabase(), unsentItems);
+                long heldBackDelay = storage.getHeldBackDelay();
+                if (heldBackDelay >= 0) {
+                    Log.i(Const.LOG_TAG, "Remote logger: recent items are uploaded in " + heldBackDelay + " ms");
+                    LogUploadScheduler.onItemsHeldBack(heldBackDelay);
                 }
             }
+            Log.i(Const.LOG_TAG, "Remote logger: no unsent items");
+            LogUploadScheduler.onUploadFinished(context, true);
+            return Result.success();
         } catch (Exception e) {
             // Oops... WTF? We need to retry!
             e.printStackTrace();
-            uploadScheduled = false;
-            scheduleUpload(context, FIRE_PERIOD_MINS);
-            return Result.failure();
+            LogUploadScheduler.onUploadFinished(context, false);
+            return Result.success();
         }
     }
 
     // Returns true on success and false on failure
     public boolean upload(List<RemoteLogItem> logItems) {
-        ServerService serverService = ServerServiceKeeper.getServerServiceInstance(context);
-        ServerService secondaryServerService = ServerServiceKeeper.getSecondaryServerServiceInstance(context);
+        ServerService[] serverServices = ServerServiceKeeper.getServerServices(context);
+        ServerService serverService = serverServices[0];
+        ServerService secondaryServerService = serverServices[1];
         Response<ResponseBody> response = null;
 
         try {
@@ -39,7 +39,9 @@ import com.hmdm.launcher.BuildConfig;
 import com.hmdm.launcher.Const;
 import com.hmdm.launcher.R;
 import com.hmdm.launcher.helper.SettingsHelper;
+import com.hmdm.launcher.json.ServerConfig;
 import com.hmdm.launcher.pro.ProUtils;
+import com.hmdm.launcher.util.PushNotificationLongPoller;
 import com.hmdm.launcher.util.PushNotificationMqttWrapper;
 
 import org.eclipse.paho.client.mqttv3.DisconnectedBufferOptions;
@@ -665,6 +667,8 @@ public class MqttService extends Service implements MqttTraceHandler {
       mqttServiceBinder = null;
     }
 
+		PushNotificationLongPoller.stop();
+
 		unregisterBroadcastReceivers();
 
 		if (this.messageStore !=null )
@@ -717,6 +721,13 @@ public class MqttService extends Service implements MqttTraceHandler {
           }
       }
 
+      // Long polling transport shares the foreground service with MQTT
+      // The configuration is checked instead of the intent because a sticky service is restarted with a null intent
+      if (settingsHelper.getConfig() != null &&
+              ServerConfig.PUSH_OPTIONS_LONG_POLLING.equals(settingsHelper.getConfig().getPushOptions())) {
+          PushNotificationLongPoller.start(this);
+      }
+
     return START_STICKY;
   }
 
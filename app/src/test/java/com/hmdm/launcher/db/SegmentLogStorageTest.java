@@ -0,0 +1,227 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.db;
+
+import com.hmdm.launcher.json.RemoteLogItem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round-trips log items through the segment files: append, seal, batched read and removal,
+ * holding back a small open segment, truncation of long messages, and a segment left with a truncated last block.
+ */
+public class SegmentLogStorageTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("log_segments", "");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static List<RemoteLogItem> createItems(int from, int count) {
+        List<RemoteLogItem> items = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            RemoteLogItem item = new RemoteLogItem();
+            item.setTimestamp(1000000L + i);
+            item.setLogLevel(1 + i % 5);
+            item.setPackageId(i % 7 == 0 ? null : "com.hmdm.launcher");
+            item.setMessage("Message " + i + " \u043f\u0440\u0438\u0432\u0435\u0442 network state changed");
+            if (i % 3 == 0) {
+                item.setCount(i + 2);
+                item.setLastTimestamp(2000000L + i);
+            }
+            items.add(item);
+        }
+        return items;
+    }
+
+    private static void assertItem(int i, RemoteLogItem item) {
+        RemoteLogItem expected = createItems(i, 1).get(0);
+        assertEquals(expected.getTimestamp(), item.getTimestamp());
+        assertEquals(expected.getLogLevel(), item.getLogLevel());
+        assertEquals(String.valueOf(expected.getPackageId()), String.valueOf(item.getPackageId()));
+        assertEquals(expected.getMessage(), item.getMessage());
+        assertEquals(String.valueOf(expected.getCount()), String.valueOf(item.getCount()));
+        assertEquals(String.valueOf(expected.getLastTimestamp()), String.valueOf(item.getLastTimestamp()));
+    }
+
+    // Reads and removes all items in batches, returns the number of batches
+    private static int drain(LogStorage storage, int maxItems, int maxBytes, List<RemoteLogItem> result) {
+        int batches = 0;
+        LogStorage.Batch batch;
+        while ((batch = storage.nextBatch(maxItems, maxBytes, true)) != null) {
+            assertTrue(batch.items.size() <= maxItems);
+            result.addAll(batch.items);
+            storage.remove(batch);
+            batches++;
+        }
+        return batches;
+    }
+
+    @Test
+    public void roundTrip() {
+        SegmentLogStorage storage = new SegmentLogStorage(directory);
+        for (int i = 0; i < 20; i++) {
+            storage.append(createItems(i * 500, 500));
+        }
+        List<RemoteLogItem> items = new ArrayList<>();
+        drain(storage, 5000, 1024 * 1024, items);
+        assertEquals(10000, items.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertItem(i, items.get(i));
+        }
+        assertNull(storage.nextBatch(5000, 1024 * 1024, true));
+    }
+
+    @Test
+    public void segmentIsSplitByBatchLimits() {
+        SegmentLogStorage storage = new SegmentLogStorage(directory);
+        storage.append(createItems(0, 1000));
+
+        LogStorage.Batch batch = storage.nextBatch(100, 1024 * 1024, true);
+        assertNotNull(batch);
+        assertEquals(100, batch.items.size());
+        assertItem(0, batch.items.get(0));
+        storage.remove(batch);
+
+        // Byte limit: a 2 KB batch holds a few items only
+        batch = storage.nextBatch(100, 2048, true);
+        assertTrue(batch.items.size() > 0 && batch.items.size() < 100);
+        assertItem(100, batch.items.get(0));
+        int uploaded = 100 + batch.items.size();
+        storage.remove(batch);
+
+        // A batch which is not removed (failed upload) is returned again
+        batch = storage.nextBatch(10, 1024 * 1024, true);
+        assertItem(uploaded, batch.items.get(0));
+        batch = storage.nextBatch(10, 1024 * 1024, true);
+        assertItem(uploaded, batch.items.get(0));
+
+        // The upload position survives a restart
+        storage = new SegmentLogStorage(directory);
+        List<RemoteLogItem> items = new ArrayList<>();
+        drain(storage, 300, 1024 * 1024, items);
+        assertEquals(1000 - uploaded, items.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertItem(uploaded + i, items.get(i));
+        }
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void smallOpenSegmentIsHeldBack() {
+        SegmentLogStorage storage = new SegmentLogStorage(directory);
+        assertEquals(-1, storage.getHeldBackDelay());
+        storage.append(createItems(0, 10));
+
+        // A regular upload does not seal a tiny segment
+        assertNull(storage.nextBatch(100, 1024 * 1024, false));
+        assertTrue(storage.getHeldBackDelay() > 0);
+        assertEquals(1, directory.listFiles().length);
+
+        // An urgent one does
+        LogStorage.Batch batch = storage.nextBatch(100, 1024 * 1024, true);
+        assertEquals(10, batch.items.size());
+        storage.remove(batch);
+        assertEquals(-1, storage.getHeldBackDelay());
+
+        // A large open segment is sealed for a regular upload
+        storage.append(createItems(10, 2000));
+        List<RemoteLogItem> items = new ArrayList<>();
+        LogStorage.Batch next;
+        while ((next = storage.nextBatch(5000, 1024 * 1024, false)) != null) {
+            items.addAll(next.items);
+            storage.remove(next);
+        }
+        assertEquals(2000, items.size());
+    }
+
+    @Test
+    public void longMessageIsTruncated() {
+        SegmentLogStorage storage = new SegmentLogStorage(directory);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 2 * 1024 * 1024) {
+            sb.append("Stack trace line \u043f\u0440\u0438\u0432\u0435\u0442\n");
+        }
+        List<RemoteLogItem> items = createItems(0, 10);
+        items.get(5).setMessage(sb.toString());
+        storage.append(items);
+
+        // The items after the long one are not lost
+        List<RemoteLogItem> result = new ArrayList<>();
+        drain(storage, 100, 4 * 1024 * 1024, result);
+        assertEquals(10, result.size());
+        assertTrue(sb.toString().startsWith(result.get(5).getMessage()));
+        assertTrue(result.get(5).getMessage().length() < sb.length());
+        for (int i = 6; i < 10; i++) {
+            assertItem(i, result.get(i));
+        }
+    }
+
+    @Test
+    public void truncatedLastBlockIsSkipped() throws Exception {
+        SegmentLogStorage storage = new SegmentLogStorage(directory);
+        // Several full blocks are written to the open segment
+        for (int i = 0; i < 4; i++) {
+            storage.append(createItems(i * 500, 500));
+        }
+        File[] files = directory.listFiles();
+        assertEquals(1, files.length);
+        assertTrue(files[0].getName().endsWith(".open"));
+
+        // Crash in the middle of writing the last block
+        RandomAccessFile file = new RandomAccessFile(files[0], "rw");
+        file.setLength(file.length() - 10);
+        file.close();
+
+        // The next process seals the open segment as is
+        storage = new SegmentLogStorage(directory);
+        List<RemoteLogItem> items = new ArrayList<>();
+        drain(storage, 5000, 1024 * 1024, items);
+        assertTrue(items.size() > 0 && items.size() < 2000);
+        for (int i = 0; i < items.size(); i++) {
+            assertItem(i, items.get(i));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.helper;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Checks the JSON merge patch (RFC 7396) and the canonical configuration hash used to chain patches.
+ */
+public class ConfigPatchHelperTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private JsonNode json(String value) throws Exception {
+        return mapper.readTree(value.replace('\'', '"'));
+    }
+
+    private void assertPatch(String target, String patch, String expected) throws Exception {
+        assertEquals(json(expected), ConfigPatchHelper.mergePatch(json(target), json(patch)));
+    }
+
+    @Test
+    public void mergePatch() throws Exception {
+        // Examples from RFC 7396, appendix A
+        assertPatch("{'a':'b'}", "{'a':'c'}", "{'a':'c'}");
+        assertPatch("{'a':'b'}", "{'b':'c'}", "{'a':'b','b':'c'}");
+        assertPatch("{'a':'b'}", "{'a':null}", "{}");
+        assertPatch("{'a':'b','b':'c'}", "{'a':null}", "{'b':'c'}");
+        assertPatch("{'a':['b']}", "{'a':'c'}", "{'a':'c'}");
+        assertPatch("{'a':'c'}", "{'a':['b']}", "{'a':['b']}");
+        assertPatch("{'a':{'b':'c'}}", "{'a':{'b':'d','c':null}}", "{'a':{'b':'d'}}");
+        assertPatch("{'a':[{'b':'c'}]}", "{'a':[1]}", "{'a':[1]}");
+        assertPatch("['a','b']", "['c','d']", "['c','d']");
+        assertPatch("{'a':'b'}", "['c']", "['c']");
+        assertPatch("{'a':'foo'}", "null", "null");
+        assertPatch("{'a':'foo'}", "'bar'", "'bar'");
+        assertPatch("{'e':null}", "{'a':1}", "{'e':null,'a':1}");
+        assertPatch("[1,2]", "{'a':'b','c':null}", "{'a':'b'}");
+        assertPatch("{}", "{'a':{'bb':{'ccc':null}}}", "{'a':{'bb':{}}}");
+    }
+
+    @Test
+    public void mergePatchDoesNotModifyTarget() throws Exception {
+        JsonNode target = json("{'a':{'b':'c'},'d':1}");
+        ConfigPatchHelper.mergePatch(target, json("{'a':{'b':null},'d':null}"));
+        assertEquals(json("{'a':{'b':'c'},'d':1}"), target);
+    }
+
+    @Test
+    public void canonicalVersion() throws Exception {
+        // Canonical form: keys sorted, nulls omitted, no whitespace
+        assertEquals(CryptoHelper.getSHA1String("{\"a\":1,\"b\":{\"c\":\"x\\\"y\",\"d\":[true,null,2.5]}}"),
+                ConfigPatchHelper.getVersion(json("{ 'b': {'d': [true, null, 2.5], 'e': null, 'c': 'x\\\"y'}, 'a': 1 }")));
+
+        // Key order and null fields don't change the version
+        assertEquals(ConfigPatchHelper.getVersion(json("{'a':1,'b':[1,2],'c':null}")),
+                ConfigPatchHelper.getVersion(json("{'b':[1,2],'a':1}")));
+
+        // Array order and values do
+        assertNotEquals(ConfigPatchHelper.getVersion(json("{'b':[1,2]}")),
+                ConfigPatchHelper.getVersion(json("{'b':[2,1]}")));
+        assertNotEquals(ConfigPatchHelper.getVersion(json("{'a':'1'}")),
+                ConfigPatchHelper.getVersion(json("{'a':1}")));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.json;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the Smile encoding of typical device-to-server batches and the configuration
+ * carries the same data as JSON, and is smaller.
+ */
+public class PayloadEncodingTest {
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+    private final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+
+    @Test
+    public void logBatch() throws Exception {
+        List<RemoteLogItem> items = new LinkedList<>();
+        long ts = 1600000000000L;
+        for (int i = 0; i < 100; i++) {
+            RemoteLogItem item = new RemoteLogItem();
+            item.setTimestamp(ts + i * 1500);
+            item.setLogLevel(i % 5 + 1);
+            item.setPackageId(i % 3 == 0 ? "com.hmdm.launcher" : "com.example.kiosk");
+            item.setMessage(i % 2 == 0 ? "Network type changed: WIFI" :
+                    "Failed to query push notifications: timeout after 10000 ms, attempt " + i);
+            if (i % 10 == 0) {
+                item.setCount(i + 2);
+                item.setLastTimestamp(ts + i * 1500 + 500);
+            }
+            items.add(item);
+        }
+        assertRoundTrip(items, new TypeReference<List<RemoteLogItem>>() {});
+    }
+
+    @Test
+    public void deviceInfo() throws Exception {
+        DeviceInfo deviceInfo = new DeviceInfo();
+        deviceInfo.setDeviceId("h0001234");
+        deviceInfo.setModel("Samsung SM-T295");
+        deviceInfo.setImei("358240051111110");
+        deviceInfo.setPhone("+15555550100");
+        deviceInfo.setBatteryLevel(87);
+        deviceInfo.setBatteryCharging("usb");
+        deviceInfo.setAndroidVersion("10");
+        deviceInfo.setLauncherType("main");
+        deviceInfo.setLauncherPackage("com.hmdm.launcher");
+        deviceInfo.setCpu("armeabi-v7a");
+        deviceInfo.setSerial("R52N30ABCDE");
+        List<Integer> permissions = new LinkedList<>();
+        permissions.add(1);
+        permissions.add(1);
+        permissions.add(0);
+        deviceInfo.setPermissions(permissions);
+        deviceInfo.setApplications(createApplications(60));
+        assertRoundTrip(deviceInfo, new TypeReference<DeviceInfo>() {});
+    }
+
+    @Test
+    public void serverConfig() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setBackgroundColor("#FFFFFF");
+        config.setTitle("deviceId");
+        config.setPushOptions(ServerConfig.PUSH_OPTIONS_MQTT_WORKER);
+        config.setKioskMode(false);
+        config.setApplications(createApplications(80));
+        assertRoundTrip(config, new TypeReference<ServerConfig>() {});
+    }
+
+    private List<Application> createApplications(int count) {
+        List<Application> applications = new LinkedList<>();
+        for (int i = 0; i < count; i++) {
+            Application application = new Application();
+            application.setType(Application.TYPE_APP);
+            application.setName("Application number " + i);
+            application.setPkg("com.example.application" + i);
+            application.setVersion("1." + i + ".0");
+            application.setUrl("https://app.h-mdm.com/files/application" + i + ".apk");
+            application.setShowIcon(i % 2 == 0);
+            application.setScreenOrder(i);
+            applications.add(application);
+        }
+        return applications;
+    }
+
+    private <T> void assertRoundTrip(T value, TypeReference<T> type) throws Exception {
+        String json = jsonMapper.writeValueAsString(value);
+        byte[] smile = smileMapper.writeValueAsBytes(value);
+
+        // The value decoded from Smile is serialized to exactly the same JSON
+        T fromSmile = smileMapper.readValue(smile, type);
+        assertEquals(json, jsonMapper.writeValueAsString(fromSmile));
+        // The configuration is stored as a JSON tree regardless of the transfer format
+        assertEquals(jsonMapper.readTree(json), smileMapper.readTree(smile));
+        assertTrue("Smile must be smaller than JSON", smile.length < json.getBytes("UTF-8").length);
+    }
+}
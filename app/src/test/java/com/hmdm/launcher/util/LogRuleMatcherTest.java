@@ -0,0 +1,121 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.util;
+
+import com.hmdm.launcher.json.RemoteLogConfig;
+
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the compiled log rule matcher against the semantics of the former SQL query.
+ */
+public class LogRuleMatcherTest {
+    private static final int RULES = 100;
+    private static final int MESSAGES = 1000;
+    private static final String[] PACKAGES = {"com.hmdm.launcher", "com.example.kiosk", "com.example.scanner", "com.example.maps"};
+    private static final String[] WORDS = {"network", "wifi", "push", "timeout", "config", "install", "battery",
+            "location", "mqtt", "update", "failed", "connected", "download", "permission", "kiosk"};
+
+    @Test
+    public void semantics() {
+        List<RemoteLogConfig> rules = new LinkedList<>();
+        rules.add(createRule("com.hmdm.launcher", 2, null));
+        rules.add(createRule("com.hmdm.launcher", 4, "Push"));
+        rules.add(createRule("com.hmdm.launcher", 5, "she"));
+        rules.add(createRule("com.example.kiosk", 3, "hers"));
+        LogRuleMatcher matcher = new LogRuleMatcher(rules);
+
+        // Rule without a filter matches any message up to its level
+        assertTrue(matcher.match("com.hmdm.launcher", 1, "anything"));
+        assertTrue(matcher.match("com.hmdm.launcher", 2, null));
+        assertFalse(matcher.match("com.hmdm.launcher", 3, "anything"));
+        // Filters are case-insensitive substrings
+        assertTrue(matcher.match("com.hmdm.launcher", 4, "Querying PUSH notifications"));
+        assertFalse(matcher.match("com.hmdm.launcher", 5, "Querying push notifications"));
+        assertTrue(matcher.match("com.hmdm.launcher", 5, "ushers"));
+        // Overlapping patterns found through failure links
+        assertTrue(matcher.match("com.example.kiosk", 3, "ushers"));
+        assertFalse(matcher.match("com.example.kiosk", 3, "usher"));
+        assertFalse(matcher.match("com.example.kiosk", 4, "ushers"));
+        // Unknown package
+        assertFalse(matcher.match("com.example.other", 1, "push"));
+        assertFalse(matcher.match(null, 1, "push"));
+    }
+
+    @Test
+    public void sameAsRuleByRule() {
+        Random random = new Random(1);
+        List<RemoteLogConfig> rules = new LinkedList<>();
+        for (int i = 0; i < RULES; i++) {
+            String filter = i % 10 == 0 ? null :
+                    WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+            rules.add(createRule(PACKAGES[random.nextInt(PACKAGES.length)], random.nextInt(3) + 1, filter));
+        }
+        String[] packageIds = new String[MESSAGES];
+        int[] levels = new int[packageIds.length];
+        String[] messages = new String[packageIds.length];
+        for (int i = 0; i < messages.length; i++) {
+            packageIds[i] = PACKAGES[random.nextInt(PACKAGES.length)];
+            levels[i] = random.nextInt(5) + 1;
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < 12; j++) {
+                sb.append(j > 0 ? " " : "").append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            messages[i] = sb.toString();
+        }
+
+        LogRuleMatcher matcher = new LogRuleMatcher(rules);
+        for (int i = 0; i < messages.length; i++) {
+            assertEquals(messages[i], matchNaive(rules, packageIds[i], levels[i], messages[i]),
+                    matcher.match(packageIds[i], levels[i], messages[i]));
+        }
+
+    }
+
+    private RemoteLogConfig createRule(String packageId, int level, String filter) {
+        RemoteLogConfig rule = new RemoteLogConfig();
+        rule.setPackageId(packageId);
+        rule.setLogLevel(level);
+        rule.setFilter(filter);
+        return rule;
+    }
+
+    // Reference implementation: the former SQL query rule by rule
+    private boolean matchNaive(List<RemoteLogConfig> rules, String packageId, int level, String message) {
+        for (RemoteLogConfig rule : rules) {
+            if (!rule.getPackageId().equals(packageId) || rule.getLogLevel() < level) {
+                continue;
+            }
+            if (rule.getFilter() == null || rule.getFilter().isEmpty() ||
+                    message.toLowerCase().contains(rule.getFilter().toLowerCase())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.Arrays;
+
+/**
+ * Client-side buffer of log messages sent to Headwind MDM by batches: one binder call
+ * per batch instead of one per message. A batch is sent when it reaches the size limit,
+ * after a short delay, on an error message, on memory trimming or by MDMService.Log.flush().
+ * The binder calls are made by a background thread, so logging doesn't block the caller.
+ */
+class LogBuffer {
+    private static final int MAX_ITEMS = 50;
+    private static final int MAX_CHARS = 16 * 1024;
+    private static final long FLUSH_DELAY_MS = 2000;
+
+    private final MDMService service;
+    private final Handler handler;
+    private long[] timestamps = new long[MAX_ITEMS];
+    private int[] levels = new int[MAX_ITEMS];
+    private String[] messages = new String[MAX_ITEMS];
+    private int count;
+    private int chars;
+
+    private final Runnable delayedFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    LogBuffer(MDMService service) {
+        this.service = service;
+        HandlerThread thread = new HandlerThread("MDMLogBuffer");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    synchronized void add(long timestamp, int level, String message) {
+        timestamps[count] = timestamp;
+        levels[count] = level;
+        messages[count] = message;
+        count++;
+        chars += message != null ? message.length() : 0;
+        if (count >= MAX_ITEMS || chars >= MAX_CHARS || level == MDMService.Log.ERROR) {
+            // Errors are sent at once as the app may be about to crash
+            handler.removeCallbacks(delayedFlush);
+            send();
+        } else if (count == 1) {
+            handler.postDelayed(delayedFlush, FLUSH_DELAY_MS);
+        }
+    }
+
+    synchronized void flush() {
+        handler.removeCallbacks(delayedFlush);
+        if (count > 0) {
+            send();
+        }
+    }
+
+    // Hands the buffered items over to the background thread
+    private void send() {
+        final long[] batchTimestamps = Arrays.copyOf(timestamps, count);
+        final int[] batchLevels = Arrays.copyOf(levels, count);
+        final String[] batchMessages = Arrays.copyOf(messages, count);
+        Arrays.fill(messages, 0, count, null);
+        count = 0;
+        chars = 0;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                service.sendLogBatch(batchTimestamps, batchLevels, batchMessages);
+            }
+        });
+    }
+}
@@ -19,10 +19,12 @@
 
 package com.hmdm;
 
+import android.content.ComponentCallbacks2;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.content.res.Configuration;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.os.RemoteException;
@@ -40,6 +42,10 @@ public class MDMService {
     private Context context;
     private IMdmApi mdmApi;
     private RemoteServiceConnection serviceConnection;
+    // API version of the connected MDM service, 0 for older versions
+    private int apiVersion;
+    private LogBuffer logBuffer;
+    private boolean trimMemoryCallbackRegistered;
 
     private static MDMService instance;
 
@@ -63,6 +69,7 @@ public class MDMService {
     public boolean connect(Context context, ResultHandler handler) {
         this.context = context;
         serviceConnection = new RemoteServiceConnection(handler);
+        registerTrimMemoryCallback(context);
 
         // First we try up-to-date package
         Intent i = new Intent(Const.SERVICE_ACTION);
@@ -92,6 +99,12 @@ public class MDMService {
 
         public void onServiceConnected(ComponentName name, IBinder boundService) {
             mdmApi = IMdmApi.Stub.asInterface((IBinder) boundService);
+            try {
+                apiVersion = mdmApi.getVersion();
+            } catch (Exception e) {
+                // Older versions of Headwind MDM don't implement this method
+                apiVersion = 0;
+            }
             if (handler != null) {
                 handler.onMDMConnected();
             }
@@ -99,6 +112,7 @@ public class MDMService {
 
         public void onServiceDisconnected(ComponentName name) {
             mdmApi = null;
+            apiVersion = 0;
             if (handler != null) {
                 handler.onMDMDisconnected();
             }
@@ -121,9 +135,55 @@ public class MDMService {
     }
 
 
+    private void registerTrimMemoryCallback(Context context) {
+        if (trimMemoryCallbackRegistered) {
+            return;
+        }
+        trimMemoryCallbackRegistered = true;
+        context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                // The process may be killed soon: send the buffered logs
+                Log.flush();
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                Log.flush();
+            }
+        });
+    }
+
+    private synchronized LogBuffer getLogBuffer() {
+        if (logBuffer == null) {
+            logBuffer = new LogBuffer(this);
+        }
+        return logBuffer;
+    }
+
+    // Called by the log buffer thread
+    void sendLogBatch(long[] timestamps, int[] levels, String[] messages) {
+        IMdmApi api = mdmApi;
+        if (api == null || context == null) {
+            android.util.Log.w(Const.LOG_TAG, "Remote logger disconnected, " + messages.length + " messages dropped");
+            return;
+        }
+        try {
+            api.logBatch(context.getPackageName(), timestamps, levels, messages);
+        } catch (Exception e) {
+            android.util.Log.w(Const.LOG_TAG, "Remote exception while trying to send logs to Headwind MDM!");
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Usage:
      * Log.v (etc)
+     * Messages are sent by batches if supported by Headwind MDM; call Log.flush() to send them at once
      */
     public static class Log {
         public static final int ERROR = 1;
@@ -138,8 +198,12 @@ public class MDMService {
                 android.util.Log.w(Const.LOG_TAG, "Remote logger not initialized!");
                 return;
             }
+            String finalMessage = tag != null ? tag + " " + message : message;
+            if (instance.apiVersion >= 1) {
+                instance.getLogBuffer().add(System.currentTimeMillis(), level, finalMessage);
+                return;
+            }
             try {
-                String finalMessage = tag != null ? tag + " " + message : message;
                 instance.mdmApi.log(System.currentTimeMillis(), level, instance.context.getPackageName(), finalMessage);
             } catch (Exception e) {
                 android.util.Log.w(Const.LOG_TAG, "Remote exception while trying to send a log to Headwind MDM!");
@@ -147,6 +211,15 @@ public class MDMService {
             }
         }
 
+        /**
+         * Send the buffered log messages now
+         */
+        public static void flush() {
+            if (instance != null && instance.logBuffer != null) {
+                instance.logBuffer.flush();
+            }
+        }
+
         public static void v(String tag, String message) {
             android.util.Log.v(tag, message);
             log(VERBOSE, tag, message);
@@ -0,0 +1,180 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.simulator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdm.launcher.server.ServerService;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import retrofit2.Retrofit;
+import retrofit2.converter.jackson.JacksonConverterFactory;
+
+/**
+ * Command line fleet simulator: runs the given number of virtual devices against a local
+ * stand-in server and reports the request rates, traffic and latency percentiles per endpoint.
+ *
+ * Device timers (push polling, log upload, jitter window) are in device time which is
+ * accelerated by the time scale, so a 15-minute polling interval takes 15 seconds at scale 60.
+ */
+public class FleetSimulator {
+
+    public static class Options {
+        int devices = 1000;
+        // Real time, seconds
+        int duration = 60;
+        int rampUp = 10;
+        int pushAt = 20;
+        // Device time, seconds
+        int pollInterval = 900;
+        int jitterWindow = 0;
+        double timeScale = 60;
+        double logsPerMinute = 2;
+        int apps = 20;
+        boolean urgent;
+        // Server requests per second, 0 is unlimited
+        int capacity = 0;
+        int retryAfter = 30;
+        int threads = 64;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--help")) {
+            printUsage();
+            return;
+        }
+        Options options;
+        try {
+            options = parseOptions(args);
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+            return;
+        }
+
+        final StandInServer server = new StandInServer(options);
+        server.start();
+
+        OkHttpClient client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(options.threads, 5, TimeUnit.MINUTES))
+                .build();
+        ServerService serverService = new Retrofit.Builder()
+                .baseUrl(server.getBaseUrl())
+                .client(client)
+                .addConverterFactory(JacksonConverterFactory.create(new ObjectMapper()))
+                .build()
+                .create(ServerService.class);
+
+        Stats clientStats = new Stats();
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(options.threads);
+        for (int i = 0; i < options.devices; i++) {
+            new VirtualDevice(options, serverService, scheduler, clientStats, String.format("sim%06d", i)).start();
+        }
+
+        final boolean urgent = options.urgent;
+        if (options.pushAt >= 0) {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    System.out.println("Pushing configuration update" + (urgent ? " (urgent)" : ""));
+                    server.pushConfigUpdate(urgent);
+                }
+            }, options.pushAt, TimeUnit.SECONDS);
+        }
+
+        long start = System.currentTimeMillis();
+        long lastRequests = 0;
+        for (int second = 10; second <= options.duration; second += 10) {
+            Thread.sleep(Math.max(start + second * 1000L - System.currentTimeMillis(), 0));
+            long requests = server.getStats().getTotalRequests();
+            System.out.println(String.format("%4d s: %d requests, %.1f req/s", second, requests, (requests - lastRequests) / 10.0));
+            lastRequests = requests;
+        }
+        Thread.sleep(Math.max(start + options.duration * 1000L - System.currentTimeMillis(), 0));
+
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        double seconds = (System.currentTimeMillis() - start) / 1000.0;
+
+        System.out.println();
+        System.out.println("Server side (" + options.devices + " devices, " + (int) seconds + " s):");
+        System.out.println(server.getStats().getReport(seconds));
+        System.out.println("Client side:");
+        System.out.println(clientStats.getReport(seconds));
+
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+        server.shutdown();
+    }
+
+    private static Options parseOptions(String[] args) {
+        Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if (name.equals("--urgent")) {
+                options.urgent = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + name);
+            }
+            String value = args[++i];
+            switch (name) {
+                case "--devices": options.devices = Integer.parseInt(value); break;
+                case "--duration": options.duration = Integer.parseInt(value); break;
+                case "--ramp-up": options.rampUp = Integer.parseInt(value); break;
+                case "--push-at": options.pushAt = Integer.parseInt(value); break;
+                case "--poll-interval": options.pollInterval = Integer.parseInt(value); break;
+                case "--jitter": options.jitterWindow = Integer.parseInt(value); break;
+                case "--time-scale": options.timeScale = Double.parseDouble(value); break;
+                case "--logs-per-minute": options.logsPerMinute = Double.parseDouble(value); break;
+                case "--apps": options.apps = Integer.parseInt(value); break;
+                case "--capacity": options.capacity = Integer.parseInt(value); break;
+                case "--retry-after": options.retryAfter = Integer.parseInt(value); break;
+                case "--threads": options.threads = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + name);
+            }
+        }
+        return options;
+    }
+
+    private static void printUsage() {
+        System.err.println("Options (real time in seconds):\n" +
+                "  --devices N          number of virtual devices (1000)\n" +
+                "  --duration S         simulation time (60)\n" +
+                "  --ramp-up S          devices are started within this time (10)\n" +
+                "  --push-at S          send a configuration update push at this time, -1 to disable (20)\n" +
+                "  --urgent             the push is urgent (no jitter)\n" +
+                "  --capacity N         server capacity, requests per second; 503 above it, 0 is unlimited (0)\n" +
+                "  --retry-after S      Retry-After value of the 503 responses (30)\n" +
+                "  --threads N          client threads (64)\n" +
+                "Options (device time in seconds):\n" +
+                "  --time-scale X       device time acceleration (60)\n" +
+                "  --poll-interval S    push polling interval (900)\n" +
+                "  --jitter S           server jitter window for push-triggered updates (0)\n" +
+                "  --logs-per-minute X  average log messages per device per minute (2)\n" +
+                "  --apps N             applications in the configuration (20)");
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.simulator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.hmdm.launcher.json.Application;
+import com.hmdm.launcher.json.ServerConfig;
+import com.hmdm.launcher.json.ServerConfigResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Local stand-in for the MDM server: answers the requests of the ServerService interface
+ * with generated data and records the server-side traffic. Optionally limits the request rate
+ * and answers 503 with Retry-After above the limit, like an overloaded server.
+ */
+public class StandInServer extends Dispatcher {
+    public static final String ENDPOINT_CONFIG = "config";
+    public static final String ENDPOINT_INFO = "deviceInfo";
+    public static final String ENDPOINT_PUSH = "push";
+    public static final String ENDPOINT_LOG_RULES = "logRules";
+    public static final String ENDPOINT_LOGS = "logs";
+    public static final String ENDPOINT_OTHER = "other";
+
+    private static final String STATUS_OK = "OK";
+
+    private final FleetSimulator.Options options;
+    private final Stats stats = new Stats();
+    private final MockWebServer server = new MockWebServer();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final String configJson;
+    private final String okJson;
+
+    // Push messages: each device receives the messages with a version above the last delivered one
+    private volatile int pushVersion;
+    private volatile String pushPayload;
+    private final Map<String, Integer> deliveredVersions = new ConcurrentHashMap<>();
+
+    // Token bucket for the rate limit
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    public StandInServer(FleetSimulator.Options options) throws IOException {
+        this.options = options;
+        this.configJson = mapper.writeValueAsString(createConfigResponse(options));
+        this.okJson = "{\"status\":\"" + STATUS_OK + "\"}";
+        this.tokens = options.capacity;
+        server.setDispatcher(this);
+    }
+
+    public void start() throws IOException {
+        server.start();
+    }
+
+    public void shutdown() throws IOException {
+        server.shutdown();
+    }
+
+    public String getBaseUrl() {
+        return server.url("/").toString();
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    // Simulates the configuration change of the whole group
+    public void pushConfigUpdate(boolean urgent) {
+        ObjectNode payload = mapper.createObjectNode();
+        if (urgent) {
+            payload.put("priority", "high");
+        }
+        pushPayload = payload.toString();
+        pushVersion++;
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+        String endpoint = getEndpoint(request.getPath());
+        if (!admit()) {
+            stats.recordTraffic(endpoint, request.getBodySize(), 0, false);
+            return new MockResponse().setResponseCode(503)
+                    .setHeader("Retry-After", Integer.toString(options.retryAfter));
+        }
+        String body;
+        switch (endpoint) {
+            case ENDPOINT_CONFIG:
+                body = configJson;
+                break;
+            case ENDPOINT_PUSH:
+                body = getPushResponse(getDeviceNumber(request.getPath()));
+                break;
+            case ENDPOINT_LOG_RULES:
+                body = "{\"status\":\"" + STATUS_OK + "\",\"data\":[]}";
+                break;
+            case ENDPOINT_INFO:
+            case ENDPOINT_LOGS:
+                body = okJson;
+                break;
+            default:
+                stats.recordTraffic(endpoint, request.getBodySize(), 0, false);
+                return new MockResponse().setResponseCode(404);
+        }
+        stats.recordTraffic(endpoint, request.getBodySize(), body.length(), true);
+        return new MockResponse()
+                .setHeader("Content-Type", "application/json")
+                .setBody(body);
+    }
+
+    private synchronized boolean admit() {
+        if (options.capacity <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(options.capacity, tokens + (now - lastRefill) / 1e9 * options.capacity);
+        lastRefill = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    private String getPushResponse(String number) {
+        ObjectNode response = mapper.createObjectNode();
+        response.put("status", STATUS_OK);
+        ArrayNode data = response.putArray("data");
+        int version = pushVersion;
+        Integer delivered = deliveredVersions.put(number, version);
+        if (delivered != null && delivered < version) {
+            ObjectNode message = data.addObject();
+            message.put("messageType", "configUpdated");
+            message.put("payload", pushPayload);
+        }
+        return response.toString();
+    }
+
+    private static String getEndpoint(String path) {
+        if (path.contains("/rest/public/sync/configuration/")) {
+            return ENDPOINT_CONFIG;
+        } else if (path.contains("/rest/public/sync/info")) {
+            return ENDPOINT_INFO;
+        } else if (path.contains("/rest/notifications/device/")) {
+            return ENDPOINT_PUSH;
+        } else if (path.contains("/rest/plugins/devicelog/log/rules/")) {
+            return ENDPOINT_LOG_RULES;
+        } else if (path.contains("/rest/plugins/devicelog/log/list/")) {
+            return ENDPOINT_LOGS;
+        }
+        return ENDPOINT_OTHER;
+    }
+
+    private static String getDeviceNumber(String path) {
+        int index = path.indexOf('?');
+        if (index != -1) {
+            path = path.substring(0, index);
+        }
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static ServerConfigResponse createConfigResponse(FleetSimulator.Options options) {
+        List<Application> applications = new ArrayList<>();
+        for (int i = 0; i < options.apps; i++) {
+            Application application = new Application();
+            application.setType(Application.TYPE_APP);
+            application.setName("Application " + i);
+            application.setPkg("com.example.app" + i);
+            application.setVersion("1.0." + i);
+            application.setUrl("https://files.example.com/app" + i + ".apk");
+            application.setShowIcon(true);
+            applications.add(application);
+        }
+        ServerConfig config = new ServerConfig();
+        config.setTitle("Simulated configuration");
+        config.setApplications(applications);
+        config.setPushJitterWindow(options.jitterWindow);
+        ServerConfigResponse response = new ServerConfigResponse();
+        response.setStatus(STATUS_OK);
+        response.setData(config);
+        return response;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.simulator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Thread-safe per-endpoint counters: requests, errors, bytes and latencies.
+ */
+public class Stats {
+
+    private static class Endpoint {
+        long requests;
+        long errors;
+        long bytesIn;
+        long bytesOut;
+        List<Long> latencies = new ArrayList<>();
+    }
+
+    private final Map<String, Endpoint> endpoints = new TreeMap<>();
+
+    private synchronized Endpoint get(String name) {
+        Endpoint endpoint = endpoints.get(name);
+        if (endpoint == null) {
+            endpoint = new Endpoint();
+            endpoints.put(name, endpoint);
+        }
+        return endpoint;
+    }
+
+    // Client side: the request latency and the result
+    public synchronized void recordCall(String name, long latency, boolean success) {
+        Endpoint endpoint = get(name);
+        endpoint.requests++;
+        if (!success) {
+            endpoint.errors++;
+        }
+        endpoint.latencies.add(latency);
+    }
+
+    // Server side: the traffic
+    public synchronized void recordTraffic(String name, long bytesIn, long bytesOut, boolean success) {
+        Endpoint endpoint = get(name);
+        endpoint.requests++;
+        if (!success) {
+            endpoint.errors++;
+        }
+        endpoint.bytesIn += bytesIn;
+        endpoint.bytesOut += bytesOut;
+    }
+
+    public synchronized long getTotalRequests() {
+        long total = 0;
+        for (Endpoint endpoint : endpoints.values()) {
+            total += endpoint.requests;
+        }
+        return total;
+    }
+
+    public synchronized String getReport(double seconds) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-14s %9s %8s %7s %10s %10s %7s %7s %7s%n",
+                "endpoint", "requests", "req/s", "errors", "in KB", "out KB", "p50 ms", "p90 ms", "p99 ms"));
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            Endpoint endpoint = entry.getValue();
+            List<Long> latencies = new ArrayList<>(endpoint.latencies);
+            Collections.sort(latencies);
+            sb.append(String.format("%-14s %9d %8.1f %7d %10d %10d %7s %7s %7s%n",
+                    entry.getKey(), endpoint.requests, endpoint.requests / seconds, endpoint.errors,
+                    endpoint.bytesIn / 1024, endpoint.bytesOut / 1024,
+                    percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99)));
+        }
+        return sb.toString();
+    }
+
+    private static String percentile(List<Long> sorted, int percent) {
+        if (sorted.isEmpty()) {
+            return "-";
+        }
+        int index = (int) Math.ceil(sorted.size() * percent / 100.0) - 1;
+        return Long.toString(sorted.get(Math.max(index, 0)));
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Headwind MDM: Open Source Android MDM Software
+ * https://h-mdm.com
+ *
+ * Copyright (C) 2019 Headwind Solutions LLC (http://h-sms.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hmdm.launcher.simulator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdm.launcher.json.DeviceInfo;
+import com.hmdm.launcher.json.PushMessage;
+import com.hmdm.launcher.json.PushResponse;
+import com.hmdm.launcher.json.RemoteLogItem;
+import com.hmdm.launcher.json.ServerConfig;
+import com.hmdm.launcher.server.ServerService;
+import com.hmdm.launcher.worker.LogBatchSizer;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * A simulated device issuing the same requests as the launcher, in the same order and with
+ * the same batching: configuration fetch (GetServerConfigTask), device info, push polling
+ * (PushNotificationWorker) with jittered config updates (ConfigUpdater), and remote log upload
+ * by batches (RemoteLogWorker). The Android-bound client classes can't run on the JVM, so their
+ * request logic is mirrored here; keep it in sync when the client behavior changes.
+ */
+public class VirtualDevice {
+    private static final String PROJECT = "hmdm";
+    private static final String ACCEPT_JSON = "application/json";
+
+    private final FleetSimulator.Options options;
+    private final ServerService serverService;
+    private final ScheduledExecutorService scheduler;
+    private final Stats stats;
+    private final String number;
+    private final Random random = new Random();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final List<RemoteLogItem> unsentLogs = new LinkedList<>();
+    private final LogBatchSizer batchSizer = new LogBatchSizer();
+    private ServerConfig config;
+    private boolean updatePending;
+    // Server backoff after 503/429 (ServerBackoff)
+    private long retryAt;
+
+    public VirtualDevice(FleetSimulator.Options options, ServerService serverService,
+                         ScheduledExecutorService scheduler, Stats stats, String number) {
+        this.options = options;
+        this.serverService = serverService;
+        this.scheduler = scheduler;
+        this.stats = stats;
+        this.number = number;
+    }
+
+    public void start() {
+        // Devices are not switched on simultaneously
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                boot();
+            }
+        }, (long) (random.nextDouble() * options.rampUp * 1000));
+    }
+
+    private void boot() {
+        updateConfig();
+        call(StandInServer.ENDPOINT_LOG_RULES, serverService.getRemoteLogConfig(PROJECT, number));
+        schedulePoll();
+        scheduleLogs();
+    }
+
+    private void updateConfig() {
+        updatePending = false;
+        Response<ResponseBody> response = call(StandInServer.ENDPOINT_CONFIG,
+                serverService.getRawServerConfig(PROJECT, number, "", "arm64-v8a", ACCEPT_JSON));
+        if (response != null && response.isSuccessful()) {
+            try {
+                JsonNode root = mapper.readTree(response.body().string());
+                config = mapper.treeToValue(root.get("data"), ServerConfig.class);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        // Device info is sent after each configuration update
+        DeviceInfo deviceInfo = new DeviceInfo();
+        deviceInfo.setDeviceId(number);
+        deviceInfo.setModel("Simulator");
+        deviceInfo.setBatteryLevel(random.nextInt(100));
+        deviceInfo.setApplications(config != null ? config.getApplications() : null);
+        call(StandInServer.ENDPOINT_INFO, serverService.sendDevice(PROJECT, UUID.randomUUID().toString(), deviceInfo));
+    }
+
+    private void schedulePoll() {
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+                schedulePoll();
+            }
+        }, scaled(options.pollInterval));
+    }
+
+    private void poll() {
+        Response<PushResponse> response = call(StandInServer.ENDPOINT_PUSH,
+                serverService.queryPushNotifications(PROJECT, number));
+        if (response == null || !response.isSuccessful() || response.body() == null ||
+                response.body().getData() == null) {
+            return;
+        }
+        for (PushMessage message : response.body().getData()) {
+            if (PushMessage.TYPE_CONFIG_UPDATED.equals(message.getMessageType())) {
+                onConfigUpdated(message);
+            }
+        }
+    }
+
+    // Same as ConfigUpdater.notifyConfigUpdate(context, message): random delay unless urgent, requests are merged
+    private void onConfigUpdated(PushMessage message) {
+        if (updatePending) {
+            return;
+        }
+        long delay = 0;
+        if (!message.isHighPriority()) {
+            long window = message.getJitterWindow();
+            if (window < 0) {
+                window = config != null && config.getPushJitterWindow() != null ? config.getPushJitterWindow() : 0;
+            }
+            delay = (long) (random.nextDouble() * scaled(window));
+        }
+        updatePending = true;
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                updateConfig();
+            }
+        }, delay);
+    }
+
+    private void scheduleLogs() {
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                generateLogs();
+                uploadLogs();
+                scheduleLogs();
+            }
+        }, scaled(60));
+    }
+
+    private void generateLogs() {
+        // Poisson-like: the average number of messages per minute
+        int count = (int) Math.round(-Math.log(1 - random.nextDouble()) * options.logsPerMinute);
+        for (int i = 0; i < count; i++) {
+            RemoteLogItem item = new RemoteLogItem();
+            item.setTimestamp(System.currentTimeMillis());
+            item.setLogLevel(3);
+            item.setPackageId("com.hmdm.launcher");
+            item.setMessage("Simulated log message " + i + " from " + number);
+            unsentLogs.add(item);
+        }
+    }
+
+    // Same as RemoteLogWorker.doWork(): upload by adaptive batches until there are no unsent items
+    private void uploadLogs() {
+        while (!unsentLogs.isEmpty()) {
+            List<RemoteLogItem> batch = new ArrayList<>(unsentLogs.subList(0, Math.min(batchSizer.getMaxItems(), unsentLogs.size())));
+            batch = batch.subList(0, LogBatchSizer.fit(batch, batchSizer.getMaxBytes()));
+            long bytes = 0;
+            for (RemoteLogItem item : batch) {
+                bytes += LogBatchSizer.estimateSize(item);
+            }
+            long startTime = System.currentTimeMillis();
+            Response<ResponseBody> response = call(StandInServer.ENDPOINT_LOGS, serverService.sendLogs(PROJECT, number, batch));
+            if (response == null || !response.isSuccessful()) {
+                batchSizer.onFailed();
+                return;
+            }
+            batchSizer.onUploaded(batch.size(), bytes, System.currentTimeMillis() - startTime);
+            unsentLogs.subList(0, batch.size()).clear();
+        }
+    }
+
+    private <T> Response<T> call(String endpoint, Call<T> call) {
+        long now = System.currentTimeMillis();
+        if (now < retryAt) {
+            // The server asked to wait, the request is not sent
+            return null;
+        }
+        try {
+            Response<T> response = call.execute();
+            stats.recordCall(endpoint, System.currentTimeMillis() - now, response.isSuccessful());
+            if (response.code() == 503 || response.code() == 429) {
+                long delay = parseRetryAfter(response.headers().get("Retry-After"), response.headers().getDate("Retry-After"));
+                if (delay < 0) {
+                    delay = 30000;
+                }
+                retryAt = System.currentTimeMillis() + delay + (long) (random.nextDouble() * delay / 4);
+            }
+            return response;
+        } catch (Exception e) {
+            stats.recordCall(endpoint, System.currentTimeMillis() - now, false);
+            return null;
+        }
+    }
+
+    // As ServerBackoff.parseRetryAfter in the app: the delay in seconds or the HTTP date, -1 if not specified
+    private static long parseRetryAfter(String value, Date date) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(Long.parseLong(value.trim()), 0) * 1000;
+        } catch (NumberFormatException e) {
+            // Not a number, try the date
+        }
+        if (date != null) {
+            return Math.max(date.getTime() - System.currentTimeMillis(), 0);
+        }
+        return -1;
+    }
+
+    private long scaled(long seconds) {
+        return (long) (seconds * 1000 / options.timeScale);
+    }
+
+    // Device activities run in the shared scheduler, one at a time like the serialized workers of a device
+    private void schedule(final Runnable runnable, long delayMs) {
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (VirtualDevice.this) {
+                        runnable.run();
+                    }
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The simulation is over
+        }
+    }
+}